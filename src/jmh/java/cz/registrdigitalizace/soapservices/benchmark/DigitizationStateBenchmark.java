@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.benchmark;
+
+import cz.registrdigitalizace.soapservices.model.DigitizationState;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Resolves PREDLOHA.STAVREC values including unknown ones.
+ *
+ * @author Jan Pokorsky
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DigitizationStateBenchmark {
+
+    private final String[] dbValues = {"vyrazeno", "finished", "archived", "active",
+            "pripravenoProMf", "predanoZpracovateli", "progress", "revize", "planovane",
+            null, "unknown", ""};
+
+    @Benchmark
+    public void resolve(Blackhole blackhole) {
+        for (String dbValue : dbValues) {
+            blackhole.consume(DigitizationState.resolve(dbValue));
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.benchmark;
+
+import cz.registrdigitalizace.soapservices.datasource.GetRecordsQuery;
+import cz.registrdigitalizace.soapservices.model.DigitizationRecord;
+import cz.registrdigitalizace.soapservices.model.PlainQuery;
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import cz.registrdigitalizace.soapservices.transform.MarcSource;
+import cz.registrdigitalizace.soapservices.transform.MarcTransformer;
+import cz.registrdigitalizace.soapservices.transform.TransformExecutor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.Source;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads records from the in-memory result set and transforms their
+ * descriptors like {@code DigitizationRegistry.findRecords}.
+ *
+ * @author Jan Pokorsky
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GetRecordsQueryBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int rows;
+
+    @Param({"MARC_XML", "MODS_34", "DC_RDF"})
+    private RecordFormat format;
+
+    private InMemoryResultSet resultSet;
+    private final PlainQuery query = new PlainQuery();
+    private final MarcTransformer transformer = new MarcTransformer();
+
+    @Setup
+    public void setUp() throws Exception {
+        String xml = MarcRecords.create(RecordSize.SMALL);
+        String[] states = {"planovane", "progress", "finished", null};
+        List<Object[]> data = new ArrayList<Object[]>(rows);
+        for (int i = 0; i < rows; i++) {
+            data.add(new Object[] {i, states[i % states.length], xml});
+        }
+        resultSet = new InMemoryResultSet(data, "id", "stavrec", "xml");
+    }
+
+    @Benchmark
+    public List<DigitizationRecord> consumeQuery() throws Exception {
+        return consume();
+    }
+
+    @Benchmark
+    public List<DigitizationRecord> findRecords() throws Exception {
+        List<DigitizationRecord> records = consume();
+        List<Callable<Source>> tasks = new ArrayList<Callable<Source>>(records.size());
+        for (final DigitizationRecord record : records) {
+            if (record.getDescriptor() instanceof MarcSource) {
+                tasks.add(new Callable<Source>() {
+
+                    public Source call() throws Exception {
+                        return transformer.transform(record.getDescriptor(), format);
+                    }
+                });
+            }
+        }
+        List<Source> descriptors = TransformExecutor.getInstance().invokeAll(tasks);
+        for (int i = 0; i < descriptors.size(); i++) {
+            records.get(i).setDescriptor(descriptors.get(i));
+        }
+        return records;
+    }
+
+    private List<DigitizationRecord> consume() throws Exception {
+        resultSet.rewind();
+        GetRecordsQuery getRecords = new GetRecordsQuery(query, format, Integer.MAX_VALUE);
+        getRecords.consumeQuery(resultSet.getResultSet());
+        return getRecords.getRecords();
+    }
+
+}
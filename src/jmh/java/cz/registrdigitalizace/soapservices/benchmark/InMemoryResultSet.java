@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read only {@link ResultSet} stand-in over rows kept in memory. It implements
+ * just the methods used by queries. It can be rewound to read rows again.
+ *
+ * @author Jan Pokorsky
+ */
+final class InMemoryResultSet implements InvocationHandler {
+
+    private final Map<String, Integer> columns = new HashMap<String, Integer>();
+    private final List<Object[]> rows;
+    private final ResultSet proxy;
+    private int cursor = -1;
+    private boolean wasNull;
+
+    InMemoryResultSet(List<Object[]> rows, String... columnNames) {
+        this.rows = rows;
+        for (int i = 0; i < columnNames.length; i++) {
+            columns.put(columnNames[i].toUpperCase(), i);
+        }
+        this.proxy = (ResultSet) Proxy.newProxyInstance(InMemoryResultSet.class.getClassLoader(),
+                new Class<?>[] {ResultSet.class}, this);
+    }
+
+    ResultSet getResultSet() {
+        return proxy;
+    }
+
+    void rewind() {
+        cursor = -1;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("next".equals(name)) {
+            return ++cursor < rows.size();
+        } else if ("wasNull".equals(name)) {
+            return wasNull;
+        } else if ("close".equals(name)) {
+            return null;
+        } else if (name.startsWith("get") && args != null && args.length == 1) {
+            Object value = getValue(args[0]);
+            wasNull = value == null;
+            if ("getInt".equals(name)) {
+                return value == null ? 0 : ((Number) value).intValue();
+            } else if ("getLong".equals(name)) {
+                return value == null ? 0L : ((Number) value).longValue();
+            }
+            return value;
+        }
+        throw new UnsupportedOperationException(name);
+    }
+
+    private Object getValue(Object column) {
+        Object[] row = rows.get(cursor);
+        if (column instanceof Integer) {
+            return row[(Integer) column - 1];
+        }
+        Integer index = columns.get(((String) column).toUpperCase());
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown column: " + column);
+        }
+        return row[index];
+    }
+
+}
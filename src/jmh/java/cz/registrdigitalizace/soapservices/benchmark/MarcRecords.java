@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Marc XML records of various sizes derived from {@code marc_example.xml}
+ * of unit tests.
+ *
+ * @author Jan Pokorsky
+ */
+final class MarcRecords {
+
+    private static final String EXAMPLE = "/cz/registrdigitalizace/soapservices/transform/marc_example.xml";
+
+    private MarcRecords() {
+    }
+
+    static String create(RecordSize size) throws IOException {
+        String xml = readExample();
+        if (size.isSerial()) {
+            xml = xml.replace("<leader>     nam a22", "<leader>     nas a22");
+        }
+        if (size.getExtraFields() == 0) {
+            return xml;
+        }
+        StringBuilder fields = new StringBuilder();
+        for (int i = 0; i < size.getExtraFields(); i++) {
+            switch (i % 4) {
+                case 0:
+                    appendField(fields, "500", "a", "Note " + i + " ze dne " + (1 + i % 28) + ". 1. 1869");
+                    break;
+                case 1:
+                    appendField(fields, "650", "a", "P\u0159edm\u011bt " + i);
+                    break;
+                case 2:
+                    appendField(fields, "773", "t", "Ro\u010dn\u00edk " + (1869 + i / 52) + ", \u010d\u00edslo " + i % 52);
+                    break;
+                default:
+                    appendField(fields, "856", "u", "http://kramerius.nkp.cz/kramerius/handle/ABA001/" + (11259722 + i));
+            }
+        }
+        int recordEnd = xml.lastIndexOf("</record>");
+        return xml.substring(0, recordEnd) + fields + xml.substring(recordEnd);
+    }
+
+    /**
+     * Removes the MARC21 name space declaration to parse the record as
+     * stored in PREDLOHA.XML of older records.
+     */
+    static String withoutNamespace(String xml) {
+        return xml.replace(" xmlns=\"http://www.loc.gov/MARC21/slim\"", "");
+    }
+
+    private static void appendField(StringBuilder sb, String tag, String code, String value) {
+        sb.append("        <datafield ind1=\" \" ind2=\" \" tag=\"").append(tag).append("\">\n")
+                .append("            <subfield code=\"").append(code).append("\">").append(value)
+                .append("</subfield>\n")
+                .append("        </datafield>\n");
+    }
+
+    private static String readExample() throws IOException {
+        InputStream stream = MarcRecords.class.getResourceAsStream(EXAMPLE);
+        if (stream == null) {
+            throw new IOException("Missing " + EXAMPLE);
+        }
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] b = new byte[4096];
+            for (int length; (length = stream.read(b)) > 0;) {
+                buffer.write(b, 0, length);
+            }
+            return buffer.toString("UTF-8");
+        } finally {
+            stream.close();
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.benchmark;
+
+import cz.registrdigitalizace.soapservices.transform.MarcSource;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Parses Marc XML records with and without the MARC21 name space. Records
+ * without the name space are fixed while parsed; it replaces the former
+ * {@code RegistryDataSource.fixMarcXml}.
+ *
+ * @author Jan Pokorsky
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarcSourceBenchmark {
+
+    @Param({"SMALL", "HUGE"})
+    private RecordSize size;
+
+    @Param({"true", "false"})
+    private boolean namespace;
+
+    private String xml;
+    private final DefaultHandler handler = new DefaultHandler();
+
+    @Setup
+    public void setUp() throws Exception {
+        xml = MarcRecords.create(size);
+        if (!namespace) {
+            xml = MarcRecords.withoutNamespace(xml);
+        }
+    }
+
+    @Benchmark
+    public MarcSource parse() throws Exception {
+        MarcSource source = new MarcSource(xml);
+        XMLReader reader = source.getXMLReader();
+        reader.setContentHandler(handler);
+        reader.parse(source.getInputSource());
+        return source;
+    }
+
+    @Benchmark
+    public String digest() {
+        return new MarcSource(xml).getDigest();
+    }
+
+}
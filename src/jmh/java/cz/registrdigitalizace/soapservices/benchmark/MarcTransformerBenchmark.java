@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.benchmark;
+
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import cz.registrdigitalizace.soapservices.transform.MarcSource;
+import cz.registrdigitalizace.soapservices.transform.MarcTransformer;
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.Source;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transforms a single record to each format.
+ *
+ * @author Jan Pokorsky
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarcTransformerBenchmark {
+
+    @Param({"MARC_XML", "MODS_33", "MODS_34", "DC_RDF"})
+    private RecordFormat format;
+
+    @Param({"SMALL", "MEDIUM", "HUGE"})
+    private RecordSize size;
+
+    /** {@code false} transforms DC_RDF with the XSL stylesheet */
+    @Param({"true"})
+    private boolean dcRdfMapper;
+
+    private MarcTransformer transformer;
+    private MarcSource source;
+
+    @Setup
+    public void setUp() throws Exception {
+        MarcTransformer.setDcRdfMapperEnabled(dcRdfMapper);
+        transformer = new MarcTransformer();
+        source = new MarcSource(MarcRecords.create(size));
+    }
+
+    @Benchmark
+    public Source transform() throws Exception {
+        return transformer.transform(source, format);
+    }
+
+}
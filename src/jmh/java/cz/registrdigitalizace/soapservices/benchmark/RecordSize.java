@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.benchmark;
+
+/**
+ * Sizes of Marc XML records created by {@link MarcRecords}.
+ *
+ * @author Jan Pokorsky
+ */
+public enum RecordSize {
+
+    /** the example monograph */
+    SMALL(0, false),
+    /** monograph with many notes and subjects */
+    MEDIUM(100, false),
+    /** serial with thousands of issue links and notes */
+    HUGE(3000, true);
+
+    private final int extraFields;
+    private final boolean serial;
+
+    private RecordSize(int extraFields, boolean serial) {
+        this.extraFields = extraFields;
+        this.serial = serial;
+    }
+
+    int getExtraFields() {
+        return extraFields;
+    }
+
+    boolean isSerial() {
+        return serial;
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.benchmark;
+
+import cz.registrdigitalizace.soapservices.datasource.TitleIndex;
+import cz.registrdigitalizace.soapservices.model.TitleMatch;
+import cz.registrdigitalizace.soapservices.transform.MarcFields;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures indexing throughput and query latency of the {@link TitleIndex}
+ * with generated titles. {@code index} builds the whole index like the daily
+ * rebuild, {@code extractFields} reads authors and subjects of a Marc XML
+ * record like the refresh does for each record.
+ *
+ * @author Jan Pokorsky
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TitleIndexBenchmark {
+
+    private static final String[] WORDS = {
+        "Babi\u010dka", "obrazy", "venkovsk\u00e9ho", "\u017eivota", "d\u011bjiny", "\u010desk\u00e9",
+        "zem\u011b", "kniha", "p\u0159\u00edb\u011bh", "n\u00e1roda", "kalend\u00e1\u0159", "noviny",
+        "pra\u017esk\u00e9", "ve\u010dern\u00ed", "listy", "\u010dasopis", "spolku", "p\u0159\u00e1tel",
+        "star\u00e9ho", "Brna", "Jednoty", "Bratrsk\u00e9", "c\u00edrkve", "u\u010den\u00ed",
+        "zpr\u00e1vy", "musea", "kr\u00e1lovstv\u00ed", "Morava", "Slezsko", "Praha",
+    };
+    private static final String[] AUTHORS = {
+        "N\u011bmcov\u00e1, Bo\u017eena", "Komensk\u00fd, Jan Amos", "Palack\u00fd, Franti\u0161ek",
+        "Jir\u00e1sek, Alois", "Neruda, Jan", "\u0141asicki, Jan",
+    };
+
+    @Param({"10000", "100000"})
+    private int records;
+
+    private String[] titles;
+    private String[] authors;
+    private String[] subjects;
+    private TitleIndex index;
+    private String xml;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        titles = new String[records];
+        authors = new String[records];
+        subjects = new String[records];
+        for (int i = 0; i < records; i++) {
+            StringBuilder title = new StringBuilder();
+            int length = 2 + random.nextInt(5);
+            for (int j = 0; j < length; j++) {
+                title.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            // unique words like volume numbers
+            titles[i] = title.append(i).toString();
+            authors[i] = AUTHORS[random.nextInt(AUTHORS.length)];
+            subjects[i] = WORDS[random.nextInt(WORDS.length)];
+        }
+        index = index();
+        xml = MarcRecords.create(RecordSize.MEDIUM);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TitleIndex index() {
+        TitleIndex newIndex = new TitleIndex();
+        for (int i = 0; i < records; i++) {
+            newIndex.add(i, titles[i], Collections.singletonList(authors[i]),
+                    Collections.singletonList(subjects[i]));
+        }
+        return newIndex;
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<List<String>> extractFields() throws Exception {
+        List<Set<String>> tagGroups = Arrays.asList(MarcFields.AUTHOR_TAGS, MarcFields.SUBJECT_TAGS);
+        return MarcFields.getSubfieldGroups(xml, tagGroups, 'a');
+    }
+
+    @Benchmark
+    public int[] searchPrefix() {
+        return index.search("babi", TitleMatch.PREFIX, TitleIndex.Field.TITLE);
+    }
+
+    @Benchmark
+    public int[] searchPrefixWords() {
+        return index.search("obraz venkov zivot", TitleMatch.PREFIX, TitleIndex.Field.TITLE);
+    }
+
+    @Benchmark
+    public int[] searchFuzzy() {
+        return index.search("kalendar pra\u017eskych", TitleMatch.FUZZY, TitleIndex.Field.TITLE);
+    }
+
+    @Benchmark
+    public int[] searchSelective() {
+        return index.search("obraz 4242", TitleMatch.PREFIX, TitleIndex.Field.TITLE);
+    }
+
+}
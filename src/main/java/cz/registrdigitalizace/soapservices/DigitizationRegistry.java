@@ -18,23 +18,46 @@ package cz.registrdigitalizace.soapservices;
 
 import cz.registrdigitalizace.soapservices.datasource.DataSourceException;
 import cz.registrdigitalizace.soapservices.datasource.DigitizationRegistryDao;
+import cz.registrdigitalizace.soapservices.datasource.QueryTooBroadException;
+import cz.registrdigitalizace.soapservices.datasource.TitleIndex;
 import cz.registrdigitalizace.soapservices.model.DigitizationRecord;
 import cz.registrdigitalizace.soapservices.model.DigitizationState;
 import cz.registrdigitalizace.soapservices.model.PlainQuery;
 import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import cz.registrdigitalizace.soapservices.model.RecordPage;
+import cz.registrdigitalizace.soapservices.model.RecordState;
+import cz.registrdigitalizace.soapservices.model.RecordStateUpdate;
+import cz.registrdigitalizace.soapservices.model.RecordStateUpdateResult;
+import cz.registrdigitalizace.soapservices.model.RecordUrnNbn;
+import cz.registrdigitalizace.soapservices.model.RecordUrnNbnResult;
+import cz.registrdigitalizace.soapservices.model.TitleMatch;
+import cz.registrdigitalizace.soapservices.transform.DescriptorCache;
+import cz.registrdigitalizace.soapservices.transform.DescriptorDataSource;
+import cz.registrdigitalizace.soapservices.transform.LazyDescriptorDataSource;
+import cz.registrdigitalizace.soapservices.transform.MarcSource;
 import cz.registrdigitalizace.soapservices.transform.MarcTransformer;
+import cz.registrdigitalizace.soapservices.transform.TransformExecutor;
 
 import javax.annotation.Resource;
 import javax.jws.WebMethod;
 import javax.jws.WebParam;
 import javax.jws.WebService;
+import javax.xml.bind.DatatypeConverter;
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
 import javax.xml.ws.WebServiceContext;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -47,6 +70,14 @@ import java.util.logging.Logger;
 @WebService(targetNamespace="http://registrdigitalizace.cz/soapservices")
 public class DigitizationRegistry {
 
+    /** default max number of descriptors transformed before the response is written */
+    static final int DEFAULT_LAZY_TRANSFORM_THRESHOLD = 100;
+    private static volatile int lazyTransformThreshold = DEFAULT_LAZY_TRANSFORM_THRESHOLD;
+    private static final AtomicBoolean FIRST_REQUEST = new AtomicBoolean(true);
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    private static final String CURSOR_PREFIX = "id:";
+
     @Resource
     private WebServiceContext wsContext;
 
@@ -70,31 +101,13 @@ public class DigitizationRegistry {
             Integer maxResults
             ) throws DigitizationRegistryException {
 
+        long start = System.currentTimeMillis();
         StringBuilder failureMsg = new StringBuilder();
         checkNotNullParam("query", query, null);
         if (format == null) {
             format = RecordFormat.MARC_XML;
         }
-        if (query != null) {
-            String barcode = query.getBarcode();
-            String ccnb = query.getCcnb();
-            String isbn = query.getIsbn();
-            String issn = query.getIssn();
-            String name = query.getTitle();
-            String signature = query.getSignature();
-            String pole001 = query.getPole001();
-            boolean anyValid = barcode != null && barcode.length() > 0
-                    || ccnb != null && ccnb.length() > 0
-                    || isbn != null && isbn.length() > 0
-                    || issn != null && issn.length() > 0
-                    || name != null && name.length() > 0
-                    || signature != null && signature.length() > 0
-                    || pole001 != null && pole001.length() > 0;
-            if (!anyValid) {
-                buildFailureMsg(failureMsg, "Invalid query. Any non-empty parameter required.");
-            }
-        }
-
+        checkQueryParam(query, failureMsg);
         if (failureMsg.length() > 0) {
             throw new DigitizationRegistryException(failureMsg.toString());
         }
@@ -106,17 +119,95 @@ public class DigitizationRegistry {
 
         try {
             DigitizationRegistryDao dao = new DigitizationRegistryDao();
-            List<DigitizationRecord> records = dao.findRecords(query, limit);
-
-            MarcTransformer transormer = new MarcTransformer();
-            for (DigitizationRecord record : records) {
-                Source source = record.getDescriptor();
-                if (source != null) {
-                    source = transormer.transform(source, format);
-                    record.setDescriptor(source);
-                }
+            List<DigitizationRecord> records = dao.findRecords(query, format, limit);
+
+            describeRecords(records, format);
+            if (FIRST_REQUEST.compareAndSet(true, false)) {
+                Logger.getLogger(DigitizationRegistry.class.getName()).log(Level.INFO,
+                        "First findRecords request: {0} records in {1} ms, format: {2}",
+                        new Object[] {records.size(), System.currentTimeMillis() - start, format});
             }
             return records;
+        } catch (QueryTooBroadException ex) {
+            throw new DigitizationRegistryException(ex.getMessage());
+        } catch (DataSourceException ex) {
+            Logger.getLogger(DigitizationRegistry.class.getName()).log(Level.SEVERE, null, ex);
+            throw DigitizationRegistryException.internalServiceError();
+        } catch (TransformerException ex) {
+            Logger.getLogger(DigitizationRegistry.class.getName()).log(Level.SEVERE, null, ex);
+            throw DigitizationRegistryException.internalServiceError();
+        }
+    }
+
+    /**
+     * Returns a page of digitization records ordered by record ID. Pass
+     * the cursor of the returned page to get the next page (since 1.3).
+     *
+     * @param query query to select particular records
+     * @param format format of record descriptor. It may be {@code null}
+     *              for default {@link RecordFormat#MARC_XML Marc XML}.
+     * @param pageSize max number of records of the page, 1-1000.
+     *              {@code null} stands for 100.
+     * @param cursor {@code nextCursor} of the previous page or {@code null}
+     *              for the first page
+     * @param totalCount {@code true} to count all matching records. It costs
+     *              an extra query so ask just for the first page.
+     * @return the page of records
+     * @throws DigitizationRegistryException in case of illegal parameters or some internal error.
+     */
+    @WebMethod(operationName = "findRecordsPage")
+    public RecordPage findRecordsPage(
+            @WebParam(name = "query")
+            PlainQuery query,
+            @WebParam(name = "format")
+            RecordFormat format,
+            @WebParam(name = "pageSize")
+            Integer pageSize,
+            @WebParam(name = "cursor")
+            String cursor,
+            @WebParam(name = "totalCount")
+            Boolean totalCount
+            ) throws DigitizationRegistryException {
+
+        StringBuilder failureMsg = new StringBuilder();
+        checkNotNullParam("query", query, failureMsg);
+        checkQueryParam(query, failureMsg);
+        if (pageSize == null) {
+            pageSize = DEFAULT_PAGE_SIZE;
+        } else if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            buildFailureMsg(failureMsg, "Illegal 'pageSize' parameter value '%s'.", pageSize);
+        }
+        Integer afterId = null;
+        if (cursor != null && cursor.length() > 0) {
+            afterId = decodeCursor(cursor);
+            if (afterId == null) {
+                buildFailureMsg(failureMsg, "Illegal 'cursor' parameter value '%s'.", cursor);
+            }
+        }
+        if (failureMsg.length() > 0) {
+            throw new DigitizationRegistryException(failureMsg.toString());
+        }
+        if (format == null) {
+            format = RecordFormat.MARC_XML;
+        }
+
+        try {
+            DigitizationRegistryDao dao = new DigitizationRegistryDao();
+            // the extra record tells whether there is a next page
+            List<DigitizationRecord> records = dao.findRecordsPage(query, format, pageSize + 1, afterId);
+            RecordPage page = new RecordPage();
+            if (records.size() > pageSize) {
+                records = new ArrayList<DigitizationRecord>(records.subList(0, pageSize));
+                page.setNextCursor(encodeCursor(records.get(pageSize - 1).getRecordId()));
+            }
+            if (totalCount != null && totalCount) {
+                page.setTotalCount(dao.countRecords(query));
+            }
+            describeRecords(records, format);
+            page.setRecords(records);
+            return page;
+        } catch (QueryTooBroadException ex) {
+            throw new DigitizationRegistryException(ex.getMessage());
         } catch (DataSourceException ex) {
             Logger.getLogger(DigitizationRegistry.class.getName()).log(Level.SEVERE, null, ex);
             throw DigitizationRegistryException.internalServiceError();
@@ -153,6 +244,48 @@ public class DigitizationRegistry {
         }
     }
 
+    /**
+     * Gets scanning states of many records at once (since 1.3).
+     *
+     * @param recordIds IDs of required records. Valid list size is 1-1000.
+     * @return states in order of passed IDs. Missing records are marked
+     *          as not found.
+     * @throws DigitizationRegistryException in case of illegal parameters or some internal error.
+     */
+    @WebMethod(operationName = "getRecordStates")
+    public List<RecordState> getRecordStates(
+            @WebParam(name = "recordId")
+            List<Integer> recordIds) throws DigitizationRegistryException {
+
+        StringBuilder failureMsg = new StringBuilder();
+        checkCollectionParam("recordId", recordIds, 1, 1000, failureMsg);
+        if (recordIds != null) {
+            for (Integer recordId : recordIds) {
+                if (recordId == null) {
+                    buildFailureMsg(failureMsg, "Missing 'recordId' parameter item.");
+                } else {
+                    checkRecordIdParam(recordId, failureMsg);
+                }
+            }
+        }
+        if (failureMsg.length() > 0) {
+            throw new DigitizationRegistryException(failureMsg.toString());
+        }
+
+        try {
+            DigitizationRegistryDao dao = new DigitizationRegistryDao();
+            Map<Integer, DigitizationState> states = dao.getRecordStates(recordIds);
+            List<RecordState> result = new ArrayList<RecordState>(recordIds.size());
+            for (Integer recordId : recordIds) {
+                result.add(new RecordState(recordId, states.get(recordId)));
+            }
+            return result;
+        } catch (DataSourceException ex) {
+            Logger.getLogger(DigitizationRegistry.class.getName()).log(Level.SEVERE, null, ex);
+            throw DigitizationRegistryException.internalServiceError();
+        }
+    }
+
     /**
      * Updates digitization state for a given record.
      *
@@ -193,7 +326,65 @@ public class DigitizationRegistry {
 
         try {
             DigitizationRegistryDao dao = new DigitizationRegistryDao();
-            return dao.updateRecordState(recordId, newState, oldState, user, date);
+            boolean updated = dao.updateRecordState(recordId, newState, oldState, user, date);
+            DescriptorCache.getInstance().invalidate(recordId);
+            return updated;
+        } catch (DataSourceException ex) {
+            Logger.getLogger(DigitizationRegistry.class.getName()).log(Level.SEVERE, null, ex);
+            throw DigitizationRegistryException.internalServiceError();
+        }
+    }
+
+    /**
+     * Updates digitization states of many records at once (since 1.3).
+     * Each update passes only if the record is still in its old state.
+     * Updates are committed in chunks so that a failure may leave
+     * preceding chunks committed.
+     *
+     * @param updates updates of distinct records. Valid list size is 1-1000.
+     * @return results in order of updates
+     * @throws DigitizationRegistryException in case of illegal parameters or some internal error.
+     */
+    @WebMethod(operationName = "setRecordStates")
+    public List<RecordStateUpdateResult> setRecordStates(
+            @WebParam(name = "update")
+            List<RecordStateUpdate> updates) throws DigitizationRegistryException {
+
+        checkWritePermission();
+        StringBuilder failureMsg = new StringBuilder();
+        checkCollectionParam("update", updates, 1, 1000, failureMsg);
+        if (updates != null) {
+            Set<Integer> recordIds = new HashSet<Integer>(updates.size() * 2);
+            for (RecordStateUpdate update : updates) {
+                if (update == null) {
+                    buildFailureMsg(failureMsg, "Missing 'update' parameter item.");
+                    continue;
+                }
+                checkRecordIdParam(update.getRecordId(), failureMsg);
+                if (!recordIds.add(update.getRecordId())) {
+                    buildFailureMsg(failureMsg, "Duplicate 'recordId' parameter value '%s'.", update.getRecordId());
+                }
+                checkStateParam(update.getNewState(), failureMsg);
+                checkNotNullParam("oldState", update.getOldState(), failureMsg);
+                if (update.getNewState() == DigitizationState.FINISHED) {
+                    checkNotNullNotEmptyParam("user", update.getUser(), failureMsg);
+                }
+            }
+        }
+        if (failureMsg.length() > 0) {
+            throw new DigitizationRegistryException(failureMsg.toString());
+        }
+
+        try {
+            DigitizationRegistryDao dao = new DigitizationRegistryDao();
+            List<RecordStateUpdateResult> results = dao.updateRecordStates(updates);
+            DescriptorCache cache = DescriptorCache.getInstance();
+            for (RecordStateUpdateResult result : results) {
+                if (result.getStatus() == RecordStateUpdateResult.Status.UPDATED) {
+                    cache.invalidate(result.getRecordId());
+                }
+            }
+            return results;
         } catch (DataSourceException ex) {
             Logger.getLogger(DigitizationRegistry.class.getName()).log(Level.SEVERE, null, ex);
             throw DigitizationRegistryException.internalServiceError();
@@ -224,22 +415,76 @@ public class DigitizationRegistry {
         if (failureMsg.length() > 0) {
             throw new DigitizationRegistryException(failureMsg.toString());
         }
-        LinkedHashSet<String> uniqueUrnNbns = new LinkedHashSet<String>(urnNbns.size());
-        for (String urnNbn : urnNbns) {
-            if (urnNbn != null) {
-                urnNbn = urnNbn.trim();
-                if (!urnNbn.isEmpty()) {
-                    uniqueUrnNbns.add(urnNbn);
+        Set<String> uniqueUrnNbns = toUniqueUrnNbns(urnNbns);
+        if (uniqueUrnNbns.isEmpty()) {
+            throw new DigitizationRegistryException("'urnNbnList' parameter contains no valid item!");
+        }
+
+        try {
+            DigitizationRegistryDao dao = new DigitizationRegistryDao();
+            boolean updated = dao.addRecordUrnNbn(recordId, uniqueUrnNbns, date);
+            DescriptorCache.getInstance().invalidate(recordId);
+            return updated;
+        } catch (DataSourceException ex) {
+            Logger.getLogger(DigitizationRegistry.class.getName()).log(Level.SEVERE, null, ex);
+            throw DigitizationRegistryException.internalServiceError();
+        }
+    }
+
+    /**
+     * Adds URN:NBN items to many digitization records at once (since 1.3).
+     * Items matching existing ones are excluded from insert.
+     * Records are committed in chunks so that a failure may leave
+     * preceding chunks committed.
+     *
+     * @param records URN:NBNs per record. Valid list size is 1-1000, each record
+     *          requires 1-1000 URN:NBNs.
+     * @param date date of allocation or {@code null} for present date
+     * @return results in order of records
+     * @throws DigitizationRegistryException in case of illegal parameters or some internal error.
+     */
+    @WebMethod(operationName = "addRecordsUrnNbn")
+    public List<RecordUrnNbnResult> addRecordsUrnNbn(
+            @WebParam(name = "record") List<RecordUrnNbn> records,
+            @WebParam(name = "date") Date date
+            ) throws DigitizationRegistryException {
+
+        checkWritePermission();
+        StringBuilder failureMsg = new StringBuilder();
+        checkCollectionParam("record", records, 1, 1000, failureMsg);
+        Map<Integer, Set<String>> record2urnNbns = new LinkedHashMap<Integer, Set<String>>();
+        if (records != null) {
+            for (RecordUrnNbn record : records) {
+                if (record == null) {
+                    buildFailureMsg(failureMsg, "Missing 'record' parameter item.");
+                    continue;
+                }
+                checkRecordIdParam(record.getRecordId(), failureMsg);
+                checkCollectionParam("urnNbnList", record.getUrnNbns(), 1, 1000, failureMsg);
+                Set<String> uniqueUrnNbns = toUniqueUrnNbns(record.getUrnNbns());
+                if (uniqueUrnNbns.isEmpty()) {
+                    buildFailureMsg(failureMsg, "'urnNbnList' parameter of record '%s' contains no valid item!",
+                            record.getRecordId());
+                }
+                if (record2urnNbns.put(record.getRecordId(), uniqueUrnNbns) != null) {
+                    buildFailureMsg(failureMsg, "Duplicate 'recordId' parameter value '%s'.", record.getRecordId());
                 }
             }
         }
-        if (uniqueUrnNbns.isEmpty()) {
-            throw new DigitizationRegistryException("'urnNbnList' parameter contains no valid item!");
+        if (failureMsg.length() > 0) {
+            throw new DigitizationRegistryException(failureMsg.toString());
         }
 
         try {
             DigitizationRegistryDao dao = new DigitizationRegistryDao();
-            return dao.addRecordUrnNbn(recordId, uniqueUrnNbns, date);
+            List<RecordUrnNbnResult> results = dao.addRecordsUrnNbn(record2urnNbns, date);
+            DescriptorCache cache = DescriptorCache.getInstance();
+            for (RecordUrnNbnResult result : results) {
+                if (result.getAdded() > 0) {
+                    cache.invalidate(result.getRecordId());
+                }
+            }
+            return results;
         } catch (DataSourceException ex) {
             Logger.getLogger(DigitizationRegistry.class.getName()).log(Level.SEVERE, null, ex);
             throw DigitizationRegistryException.internalServiceError();
@@ -247,8 +492,11 @@ public class DigitizationRegistry {
     }
 
     /**
-     * Sets list of URN:NBN items for given digitization record. It removes all
-     * existing URN:NBN.
+     * Sets list of URN:NBN items for given digitization record. Existing items
+     * contained in the list are kept with their allocation dates, other existing
+     * items are removed and missing items are inserted. The empty list removes
+     * all items. The main item flag (RPredloha_URNNBNMF) stays on a kept item;
+     * otherwise it moves to the first item of the list.
      *
      * @param recordId ID of required record
      * @param date date of allocation or {@code null} for present date
@@ -271,25 +519,165 @@ public class DigitizationRegistry {
         if (failureMsg.length() > 0) {
             throw new DigitizationRegistryException(failureMsg.toString());
         }
-        LinkedHashSet<String> uniqueUrnNbns = new LinkedHashSet<String>(urnNbns.size());
-        for (String urnNbn : urnNbns) {
-            if (urnNbn != null) {
-                urnNbn = urnNbn.trim();
-                if (!urnNbn.isEmpty()) {
-                    uniqueUrnNbns.add(urnNbn);
-                }
-            }
-        }
+        Set<String> uniqueUrnNbns = toUniqueUrnNbns(urnNbns);
         
         try {
             DigitizationRegistryDao dao = new DigitizationRegistryDao();
-            return dao.setRecordUrnNbn(recordId, uniqueUrnNbns, date);
+            boolean updated = dao.setRecordUrnNbn(recordId, uniqueUrnNbns, date);
+            DescriptorCache.getInstance().invalidate(recordId);
+            return updated;
         } catch (DataSourceException ex) {
             Logger.getLogger(DigitizationRegistry.class.getName()).log(Level.SEVERE, null, ex);
             throw DigitizationRegistryException.internalServiceError();
         }
     }
 
+    /**
+     * Transforms descriptors of found records to the required format.
+     */
+    private static void describeRecords(List<DigitizationRecord> records, RecordFormat format)
+            throws TransformerException {
+
+        MarcTransformer transormer = new MarcTransformer();
+        DescriptorCache cache = DescriptorCache.getInstance();
+        List<DescriptorTask> tasks = new ArrayList<DescriptorTask>(records.size());
+        for (DigitizationRecord record : records) {
+            // materialized descriptors are already in the required format
+            if (record.getDescriptor() instanceof MarcSource) {
+                tasks.add(new DescriptorTask(transormer, cache, record, format));
+            }
+        }
+        if (format != RecordFormat.MARC_XML && tasks.size() > lazyTransformThreshold) {
+            // large responses transform descriptors while they are written,
+            // a window of them in parallel ahead of the writer
+            List<Callable<DescriptorDataSource>> transforms = new ArrayList<Callable<DescriptorDataSource>>(tasks.size());
+            for (DescriptorTask task : tasks) {
+                transforms.add(task.transform());
+            }
+            TransformExecutor.Window<DescriptorDataSource> window = TransformExecutor.getInstance().window(transforms);
+            for (int i = 0; i < tasks.size(); i++) {
+                DescriptorTask task = tasks.get(i);
+                task.record.setDescriptor(task.lazy(window, i));
+            }
+        } else {
+            List<Source> descriptors = TransformExecutor.getInstance().invokeAll(tasks);
+            for (int i = 0; i < tasks.size(); i++) {
+                tasks.get(i).record.setDescriptor(descriptors.get(i));
+            }
+        }
+    }
+
+    /**
+     * The cursor is opaque to clients so that it can change in the future.
+     */
+    static String encodeCursor(int lastRecordId) {
+        try {
+            return DatatypeConverter.printBase64Binary((CURSOR_PREFIX + lastRecordId).getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @return ID of the last record of the previous page or {@code null} for invalid cursor
+     */
+    static Integer decodeCursor(String cursor) {
+        try {
+            String decoded = new String(DatatypeConverter.parseBase64Binary(cursor), "UTF-8");
+            if (decoded.startsWith(CURSOR_PREFIX)) {
+                int id = Integer.parseInt(decoded.substring(CURSOR_PREFIX.length()));
+                return id >= 0 ? id : null;
+            }
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        } catch (NumberFormatException ex) {
+            // invalid cursor
+        } catch (IllegalArgumentException ex) {
+            // invalid base64
+        }
+        return null;
+    }
+
+    /**
+     * Sets max number of records of a response with descriptors transformed
+     * before the response is written. Larger responses transform descriptors
+     * while the response is written, just a few in parallel ahead of the writer.
+     */
+    static void setLazyTransformThreshold(int threshold) {
+        lazyTransformThreshold = threshold;
+    }
+
+    /**
+     * Transforms the record descriptor. Transformed Marc XML records are looked up
+     * in the cache first.
+     */
+    private static Source transformDescriptor(MarcTransformer transformer, DescriptorCache cache,
+            int recordId, Source source, RecordFormat format) throws TransformerException {
+
+        if (format == RecordFormat.MARC_XML || !(source instanceof MarcSource)) {
+            return transformer.transform(source, format);
+        }
+        return MarcTransformer.toSource(
+                transformer.transformToDataSource(cache, recordId, (MarcSource) source, format));
+    }
+
+    private static final class DescriptorTask implements Callable<Source> {
+
+        private final MarcTransformer transformer;
+        private final DescriptorCache cache;
+        private final DigitizationRecord record;
+        private final RecordFormat format;
+
+        DescriptorTask(MarcTransformer transformer, DescriptorCache cache,
+                DigitizationRecord record, RecordFormat format) {
+            this.transformer = transformer;
+            this.cache = cache;
+            this.record = record;
+            this.format = format;
+        }
+
+        public Source call() throws TransformerException {
+            return transformDescriptor(transformer, cache, record.getRecordId(), record.getDescriptor(), format);
+        }
+
+        /**
+         * @return the transformation of the Marc XML descriptor
+         */
+        Callable<DescriptorDataSource> transform() {
+            final MarcSource source = (MarcSource) record.getDescriptor();
+            return new Callable<DescriptorDataSource>() {
+
+                public DescriptorDataSource call() throws TransformerException {
+                    return transformer.transformToDataSource(cache, record.getRecordId(), source, format);
+                }
+            };
+        }
+
+        Source lazy(TransformExecutor.Window<DescriptorDataSource> window, int index) throws TransformerException {
+            return MarcTransformer.toSource(new LazyDescriptorDataSource(transformer, cache,
+                    record.getRecordId(), (MarcSource) record.getDescriptor(), format, window, index));
+        }
+
+    }
+
+    /**
+     * Trims URN:NBNs and removes empty and duplicate items.
+     */
+    private static Set<String> toUniqueUrnNbns(List<String> urnNbns) {
+        LinkedHashSet<String> uniqueUrnNbns = new LinkedHashSet<String>();
+        if (urnNbns != null) {
+            for (String urnNbn : urnNbns) {
+                if (urnNbn != null) {
+                    urnNbn = urnNbn.trim();
+                    if (!urnNbn.isEmpty()) {
+                        uniqueUrnNbns.add(urnNbn);
+                    }
+                }
+            }
+        }
+        return uniqueUrnNbns;
+    }
+
     private void checkWritePermission() throws DigitizationRegistryException {
         if (!wsContext.isUserInRole("registry-ws")) {
             throw new DigitizationRegistryException(
@@ -297,6 +685,47 @@ public class DigitizationRegistry {
         }
     }
 
+    private static void checkQueryParam(PlainQuery query, StringBuilder failureMsg) {
+        if (query != null) {
+            String barcode = query.getBarcode();
+            String ccnb = query.getCcnb();
+            String isbn = query.getIsbn();
+            String issn = query.getIssn();
+            String name = query.getTitle();
+            String signature = query.getSignature();
+            String pole001 = query.getPole001();
+            String author = query.getAuthor();
+            String subject = query.getSubject();
+            boolean anyValid = barcode != null && barcode.length() > 0
+                    || ccnb != null && ccnb.length() > 0
+                    || isbn != null && isbn.length() > 0
+                    || issn != null && issn.length() > 0
+                    || name != null && name.length() > 0
+                    || signature != null && signature.length() > 0
+                    || pole001 != null && pole001.length() > 0
+                    || author != null && author.length() > 0
+                    || subject != null && subject.length() > 0;
+            if (!anyValid) {
+                buildFailureMsg(failureMsg, "Invalid query. Any non-empty parameter required.");
+            }
+            TitleMatch titleMatch = query.getTitleMatch();
+            boolean anyIndexed = name != null && name.trim().length() > 0
+                    || author != null && author.trim().length() > 0
+                    || subject != null && subject.trim().length() > 0;
+            if (titleMatch != null && titleMatch != TitleMatch.EXACT) {
+                if (!anyIndexed) {
+                    buildFailureMsg(failureMsg,
+                            "'titleMatch' %s requires non-empty 'title', 'author' or 'subject'.", titleMatch);
+                } else if (TitleIndex.getInstance() == null) {
+                    buildFailureMsg(failureMsg, "'titleMatch' %s is not available now.", titleMatch);
+                }
+            } else if (author != null && author.length() > 0 || subject != null && subject.length() > 0) {
+                buildFailureMsg(failureMsg, "'author' and 'subject' require 'titleMatch' %s or %s.",
+                        TitleMatch.PREFIX, TitleMatch.FUZZY);
+            }
+        }
+    }
+
     private static void checkNotNullParam(String param, Object value, StringBuilder failureMsg) {
         if (value == null) {
             buildFailureMsg(failureMsg, "Missing '%s' parameter.", param);
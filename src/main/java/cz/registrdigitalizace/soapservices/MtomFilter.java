@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.regex.Pattern;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Turns off MTOM responses of the endpoint. The SOAP runtime answers
+ * with MTOM to clients accepting {@code application/xop+xml}; the filter
+ * hides the media type from the {@code Accept} header so that descriptors
+ * are inlined as base64. Clients sending MTOM requests still get MTOM
+ * responses.
+ *
+ * @author Jan Pokorsky
+ */
+public final class MtomFilter implements Filter {
+
+    static final String ACCEPT = "Accept";
+    static final String XOP_TYPE = "application/xop+xml";
+    private static final Pattern XOP_TYPE_PATTERN = Pattern.compile(
+            "\\s*" + Pattern.quote(XOP_TYPE) + "[^,]*,?", Pattern.CASE_INSENSITIVE);
+
+    private static volatile boolean enabled = true;
+
+    /**
+     * Enables ({@code true}) or disables MTOM responses to clients
+     * accepting XOP.
+     */
+    public static void setEnabled(boolean enabled) {
+        MtomFilter.enabled = enabled;
+    }
+
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+
+        if (!enabled && request instanceof HttpServletRequest) {
+            HttpServletRequest httpRequest = (HttpServletRequest) request;
+            String accept = joinHeaders(httpRequest.getHeaders(ACCEPT));
+            if (accept != null && accept.toLowerCase().contains(XOP_TYPE)) {
+                request = new NoXopRequest(httpRequest, removeXop(accept));
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    public void destroy() {
+    }
+
+    private static String joinHeaders(Enumeration values) {
+        if (values == null || !values.hasMoreElements()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(String.valueOf(values.nextElement()));
+        while (values.hasMoreElements()) {
+            sb.append(", ").append(values.nextElement());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Removes {@code application/xop+xml} from the list of accepted media types.
+     */
+    static String removeXop(String accept) {
+        String result = XOP_TYPE_PATTERN.matcher(accept).replaceAll("").trim();
+        if (result.endsWith(",")) {
+            result = result.substring(0, result.length() - 1).trim();
+        }
+        return result;
+    }
+
+    private static final class NoXopRequest extends HttpServletRequestWrapper {
+
+        private final String accept;
+
+        NoXopRequest(HttpServletRequest request, String accept) {
+            super(request);
+            this.accept = accept;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if (ACCEPT.equalsIgnoreCase(name)) {
+                return accept.length() == 0 ? null : accept;
+            }
+            return super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration getHeaders(String name) {
+            if (ACCEPT.equalsIgnoreCase(name)) {
+                return Collections.enumeration(accept.length() == 0
+                        ? Collections.<String>emptyList()
+                        : Collections.singletonList(accept));
+            }
+            return super.getHeaders(name);
+        }
+
+    }
+
+}
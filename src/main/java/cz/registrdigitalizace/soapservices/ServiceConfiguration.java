@@ -16,26 +16,177 @@
  */
 package cz.registrdigitalizace.soapservices;
 
+import cz.registrdigitalizace.soapservices.datasource.ConnectionProvider;
 import cz.registrdigitalizace.soapservices.datasource.DataSourceException;
+import cz.registrdigitalizace.soapservices.datasource.DescriptorRefresher;
 import cz.registrdigitalizace.soapservices.datasource.DigitizationRegistryDao;
+import cz.registrdigitalizace.soapservices.datasource.GetRecordsQuery;
+import cz.registrdigitalizace.soapservices.datasource.IdentifierIndex;
+import cz.registrdigitalizace.soapservices.datasource.IdentifierIndexRefresher;
+import cz.registrdigitalizace.soapservices.datasource.MaterializedDescriptors;
+import cz.registrdigitalizace.soapservices.datasource.QueryRouter;
+import cz.registrdigitalizace.soapservices.datasource.ReplicaLagProbe;
+import cz.registrdigitalizace.soapservices.datasource.TitleIndexRefresher;
+import cz.registrdigitalizace.soapservices.datasource.UnitOfWork;
+import cz.registrdigitalizace.soapservices.datasource.UrnNbnIdAllocator;
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import cz.registrdigitalizace.soapservices.transform.DescriptorCache;
+import cz.registrdigitalizace.soapservices.transform.MarcTransformer;
+import cz.registrdigitalizace.soapservices.transform.TransformExecutor;
+import cz.registrdigitalizace.soapservices.transform.TransformerPool;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
 /**
+ * Initializes the service with context parameters of {@code web.xml}.
  *
  * @author Jan Pokorsky
  */
 public class ServiceConfiguration implements ServletContextListener {
 
+    private static final Logger LOG = Logger.getLogger(ServiceConfiguration.class.getName());
+
+    /** max size in MB of the cache of transformed descriptors; 0 disables the cache */
+    static final String PARAM_DESCRIPTOR_CACHE_SIZE = "descriptorCacheSize";
+    /** max number of pooled XSL transformers per record format */
+    static final String PARAM_TRANSFORMER_POOL_SIZE = "transformerPoolSize";
+    /** max time in milliseconds to wait for a pooled XSL transformer */
+    static final String PARAM_TRANSFORMER_POOL_MAX_WAIT = "transformerPoolMaxWait";
+    /** max number of threads transforming descriptors of all requests */
+    static final String PARAM_TRANSFORM_PARALLELISM = "transformParallelism";
+    /** max number of threads transforming descriptors of a single request */
+    static final String PARAM_TRANSFORM_REQUEST_PARALLELISM = "transformRequestParallelism";
+    /** comma separated record formats to materialize in the DB; empty disables the refresh */
+    static final String PARAM_MATERIALIZED_FORMATS = "materializedFormats";
+    /** delay in seconds between refreshes of materialized descriptors */
+    static final String PARAM_DESCRIPTOR_REFRESH_INTERVAL = "descriptorRefreshInterval";
+    /** number of records processed by a single transaction of the refresh */
+    static final String PARAM_DESCRIPTOR_REFRESH_BATCH_SIZE = "descriptorRefreshBatchSize";
+    /** max number of records of a response with descriptors transformed before the response is written */
+    static final String PARAM_LAZY_TRANSFORM_THRESHOLD = "lazyTransformThreshold";
+    /** transform DC_RDF with the native mapper ({@code true}) or with the XSL stylesheet */
+    static final String PARAM_DC_RDF_MAPPER = "dcRdfMapper";
+    /** send descriptors as MTOM attachments to clients accepting XOP ({@code true}) or always inline them */
+    static final String PARAM_MTOM_ENABLED = "mtomEnabled";
+    /** size in bytes below which descriptors are inlined in MTOM responses */
+    static final String PARAM_MTOM_THRESHOLD = "mtomThreshold";
+    /** {@code eager} creates XSL templates at startup, {@code lazy} on first use */
+    static final String PARAM_TEMPLATE_INIT = "templateInit";
+    /** number of transformations of a sample record per format run at startup */
+    static final String PARAM_TRANSFORM_WARMUP = "transformWarmup";
+    /** max time in milliseconds to acquire a DB connection including retries */
+    static final String PARAM_CONNECTION_TIMEOUT = "connectionTimeout";
+    /** delay in milliseconds before the first retry to get a DB connection */
+    static final String PARAM_CONNECTION_RETRY_DELAY = "connectionRetryDelay";
+    /** JNDI name of the replica data source serving reads; empty disables the replica */
+    static final String PARAM_REPLICA_DATA_SOURCE = "replicaDataSource";
+    /** max lag in seconds of the replica serving reads */
+    static final String PARAM_REPLICA_MAX_LAG = "replicaMaxLag";
+    /** delay in seconds between measurements of the replica lag */
+    static final String PARAM_REPLICA_LAG_PROBE_INTERVAL = "replicaLagProbeInterval";
+    /** number of state updates of setRecordStates run by a single transaction */
+    static final String PARAM_STATE_UPDATE_BATCH_SIZE = "stateUpdateBatchSize";
+    /** number of URNNBN IDs reserved in PLAANT_IDS by a single transaction */
+    static final String PARAM_URNNBN_ID_BLOCK_SIZE = "urnNbnIdBlockSize";
+    /** delay in seconds between refreshes of the in-memory identifier index; 0 disables the index */
+    static final String PARAM_IDENTIFIER_INDEX_REFRESH_INTERVAL = "identifierIndexRefreshInterval";
+    /** seconds the identifier index may lag behind the DB before lookups search recent records too */
+    static final String PARAM_IDENTIFIER_INDEX_MAX_LAG = "identifierIndexMaxLag";
+    /** delay in seconds between refreshes of the in-memory title index; 0 disables prefix and fuzzy title queries */
+    static final String PARAM_TITLE_INDEX_REFRESH_INTERVAL = "titleIndexRefreshInterval";
+    /** maximal number of records matching the title of a query restricted by other parameters */
+    static final String PARAM_TITLE_MAX_CANDIDATES = "titleMaxCandidates";
+    static final long DEFAULT_DESCRIPTOR_REFRESH_INTERVAL = 10 * 60;
+    static final long DEFAULT_TRANSFORM_WARMUP = 20;
+
+    private ScheduledExecutorService refreshScheduler;
+    private ScheduledExecutorService probeScheduler;
+    private ScheduledExecutorService indexScheduler;
+    private DescriptorRefresher refresher;
+    private IdentifierIndexRefresher indexRefresher;
+    private ScheduledExecutorService titleIndexScheduler;
+    private TitleIndexRefresher titleIndexRefresher;
+
     public void contextInitialized(ServletContextEvent sce) {
+        long start = System.currentTimeMillis();
+        ServletContext ctx = sce.getServletContext();
+        initDescriptorCache(ctx);
+        initTransformerPools(ctx);
+        initTransformExecutor(ctx);
+        initDcRdfMapper(ctx);
+        initLazyTransform(ctx);
+        initMtom(ctx);
+        initStateUpdate(ctx);
+        initUrnNbnIdAllocator(ctx);
+        initConnectionProvider(ctx);
+        initReplica(ctx);
+        // templates are created in parallel with the DB init
+        List<Future<?>> templates = initTemplates(ctx);
+        long dbStart = System.currentTimeMillis();
         try {
             initDb();
         } catch (DataSourceException ex) {
             throw new IllegalStateException(ex);
         }
+        long dbTime = System.currentTimeMillis() - dbStart;
+        awaitTemplates(templates);
+        initDescriptorRefresh(ctx);
+        initIdentifierIndex(ctx);
+        initTitleIndex(ctx);
+        LOG.log(Level.INFO, "Service ready in {0} ms, DB init: {1} ms",
+                new Object[] {System.currentTimeMillis() - start, dbTime});
     }
 
     public void contextDestroyed(ServletContextEvent sce) {
+        if (refreshScheduler != null) {
+            refreshScheduler.shutdownNow();
+            LOG.info(refresher.toString());
+        }
+        LOG.info(MaterializedDescriptors.toStatistics());
+        LOG.info(GetRecordsQuery.toStatistics());
+        if (indexScheduler != null) {
+            indexScheduler.shutdownNow();
+            LOG.info(indexRefresher.toString());
+        }
+        if (titleIndexScheduler != null) {
+            titleIndexScheduler.shutdownNow();
+            LOG.info(titleIndexRefresher.toString());
+        }
+        if (probeScheduler != null) {
+            probeScheduler.shutdownNow();
+        }
+        LOG.info(ConnectionProvider.getInstance().toString());
+        if (QueryRouter.getReplica() != null) {
+            LOG.info(QueryRouter.getReplica().toString());
+        }
+        LOG.info(QueryRouter.toStatistics());
+        LOG.info(UrnNbnIdAllocator.getInstance().toString());
+        LOG.info(UnitOfWork.toStatistics());
+        TransformExecutor.getInstance().shutdown();
+        LOG.info(DescriptorCache.getInstance().toString());
+        for (RecordFormat format : RecordFormat.values()) {
+            TransformerPool pool = MarcTransformer.isInitialized(format)
+                    ? MarcTransformer.getTransformerPool(format) : null;
+            if (pool != null) {
+                LOG.log(Level.INFO, "{0}: {1}", new Object[] {format, pool});
+            }
+        }
     }
 
     private void initDb() throws DataSourceException {
@@ -43,4 +194,222 @@ public class ServiceConfiguration implements ServletContextListener {
         dao.init();
     }
 
+    private void initConnectionProvider(ServletContext ctx) {
+        long timeout = getLongParam(ctx, PARAM_CONNECTION_TIMEOUT, ConnectionProvider.DEFAULT_TIMEOUT);
+        long retryDelay = getLongParam(ctx, PARAM_CONNECTION_RETRY_DELAY, ConnectionProvider.DEFAULT_RETRY_DELAY);
+        ConnectionProvider.getInstance().configure(Math.max(0, timeout), Math.max(1, retryDelay));
+    }
+
+    private void initReplica(ServletContext ctx) {
+        String jndiName = ctx.getInitParameter(PARAM_REPLICA_DATA_SOURCE);
+        if (jndiName == null || jndiName.trim().length() == 0) {
+            QueryRouter.configure(null, QueryRouter.DEFAULT_MAX_LAG);
+            return ;
+        }
+        long maxLag = getLongParam(ctx, PARAM_REPLICA_MAX_LAG, QueryRouter.DEFAULT_MAX_LAG / 1000);
+        long interval = getLongParam(ctx, PARAM_REPLICA_LAG_PROBE_INTERVAL, ReplicaLagProbe.DEFAULT_INTERVAL);
+        QueryRouter.configure(jndiName.trim(), Math.max(0, maxLag) * 1000);
+        ConnectionProvider primary = ConnectionProvider.getInstance();
+        QueryRouter.getReplica().configure(primary.getTimeout(), primary.getRetryDelay());
+        probeScheduler = newDaemonScheduler("replica-lag-probe", Thread.NORM_PRIORITY);
+        probeScheduler.scheduleWithFixedDelay(new ReplicaLagProbe(), 0, Math.max(1, interval), TimeUnit.SECONDS);
+        LOG.log(Level.INFO, "Replica: {0}, max lag: {1} s, lag probe interval: {2} s",
+                new Object[] {jndiName, maxLag, interval});
+    }
+
+    private void initDescriptorCache(ServletContext ctx) {
+        long defaultSize = DescriptorCache.DEFAULT_MAX_SIZE / (1024 * 1024);
+        long size = getLongParam(ctx, PARAM_DESCRIPTOR_CACHE_SIZE, defaultSize);
+        DescriptorCache.getInstance().setMaxSize(size * 1024 * 1024);
+    }
+
+    private void initTransformerPools(ServletContext ctx) {
+        long size = getLongParam(ctx, PARAM_TRANSFORMER_POOL_SIZE, TransformerPool.DEFAULT_MAX_SIZE);
+        long maxWait = getLongParam(ctx, PARAM_TRANSFORMER_POOL_MAX_WAIT, TransformerPool.DEFAULT_MAX_WAIT);
+        MarcTransformer.configurePools((int) Math.max(1, Math.min(size, Integer.MAX_VALUE)), maxWait);
+    }
+
+    private void initTransformExecutor(ServletContext ctx) {
+        long parallelism = getLongParam(ctx, PARAM_TRANSFORM_PARALLELISM, TransformExecutor.DEFAULT_PARALLELISM);
+        long requestParallelism = getLongParam(ctx, PARAM_TRANSFORM_REQUEST_PARALLELISM, TransformExecutor.DEFAULT_REQUEST_PARALLELISM);
+        TransformExecutor.getInstance().configure(
+                (int) Math.max(1, Math.min(parallelism, Integer.MAX_VALUE)),
+                (int) Math.max(1, Math.min(requestParallelism, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Starts to create templates of all formats and to warm them up.
+     */
+    private List<Future<?>> initTemplates(ServletContext ctx) {
+        String mode = ctx.getInitParameter(PARAM_TEMPLATE_INIT);
+        if (mode != null && "lazy".equals(mode.trim())) {
+            LOG.info("XSL templates are created on first use.");
+            return Collections.emptyList();
+        }
+        final int warmup = (int) Math.min(Integer.MAX_VALUE,
+                getLongParam(ctx, PARAM_TRANSFORM_WARMUP, DEFAULT_TRANSFORM_WARMUP));
+        List<RecordFormat> formats = new ArrayList<RecordFormat>(EnumSet.complementOf(EnumSet.of(RecordFormat.MARC_XML)));
+        ExecutorService executor = Executors.newFixedThreadPool(formats.size(), new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "template-init");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        List<Future<?>> futures = new ArrayList<Future<?>>(formats.size());
+        for (final RecordFormat format : formats) {
+            futures.add(executor.submit(new Callable<Void>() {
+
+                public Void call() throws Exception {
+                    MarcTransformer.initTemplates(format);
+                    if (warmup > 0) {
+                        long time = MarcTransformer.warmUp(format, warmup);
+                        LOG.log(Level.INFO, "{0} warmed up with {1} transformations in {2} ms",
+                                new Object[] {format, warmup, time});
+                    }
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+        return futures;
+    }
+
+    private void awaitTemplates(List<Future<?>> templates) {
+        for (Future<?> future : templates) {
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return ;
+            } catch (ExecutionException ex) {
+                // the format is not available; other formats can be still used
+                LOG.log(Level.SEVERE, null, ex.getCause());
+            }
+        }
+    }
+
+    private void initDcRdfMapper(ServletContext ctx) {
+        String value = ctx.getInitParameter(PARAM_DC_RDF_MAPPER);
+        boolean enabled = value == null || value.trim().length() == 0 || Boolean.parseBoolean(value.trim());
+        MarcTransformer.setDcRdfMapperEnabled(enabled);
+    }
+
+    private void initLazyTransform(ServletContext ctx) {
+        long threshold = getLongParam(ctx, PARAM_LAZY_TRANSFORM_THRESHOLD,
+                DigitizationRegistry.DEFAULT_LAZY_TRANSFORM_THRESHOLD);
+        DigitizationRegistry.setLazyTransformThreshold((int) Math.min(threshold, Integer.MAX_VALUE));
+    }
+
+    private void initMtom(ServletContext ctx) {
+        String value = ctx.getInitParameter(PARAM_MTOM_ENABLED);
+        boolean enabled = value == null || value.trim().length() == 0 || Boolean.parseBoolean(value.trim());
+        MtomFilter.setEnabled(enabled);
+        long threshold = getLongParam(ctx, PARAM_MTOM_THRESHOLD, MarcTransformer.DEFAULT_MTOM_THRESHOLD);
+        MarcTransformer.setMtomThreshold((int) Math.min(threshold, Integer.MAX_VALUE));
+    }
+
+    private void initStateUpdate(ServletContext ctx) {
+        long batchSize = getLongParam(ctx, PARAM_STATE_UPDATE_BATCH_SIZE,
+                DigitizationRegistryDao.DEFAULT_STATE_UPDATE_BATCH_SIZE);
+        DigitizationRegistryDao.setStateUpdateBatchSize((int) Math.min(batchSize, Integer.MAX_VALUE));
+    }
+
+    private void initUrnNbnIdAllocator(ServletContext ctx) {
+        long blockSize = getLongParam(ctx, PARAM_URNNBN_ID_BLOCK_SIZE, UrnNbnIdAllocator.DEFAULT_BLOCK_SIZE);
+        UrnNbnIdAllocator.getInstance().setBlockSize((int) Math.min(blockSize, Integer.MAX_VALUE));
+    }
+
+    private void initDescriptorRefresh(ServletContext ctx) {
+        Set<RecordFormat> formats = EnumSet.noneOf(RecordFormat.class);
+        String value = ctx.getInitParameter(PARAM_MATERIALIZED_FORMATS);
+        if (value != null) {
+            for (String name : value.split(",")) {
+                name = name.trim();
+                if (name.length() == 0) {
+                    continue;
+                }
+                try {
+                    formats.add(RecordFormat.valueOf(name));
+                } catch (IllegalArgumentException ex) {
+                    LOG.log(Level.WARNING, "Invalid context parameter {0}: {1}",
+                            new Object[] {PARAM_MATERIALIZED_FORMATS, name});
+                }
+            }
+        }
+        MaterializedDescriptors.setFormats(formats);
+        if (MaterializedDescriptors.getFormats().isEmpty()) {
+            return ;
+        }
+        long interval = getLongParam(ctx, PARAM_DESCRIPTOR_REFRESH_INTERVAL, DEFAULT_DESCRIPTOR_REFRESH_INTERVAL);
+        long batchSize = getLongParam(ctx, PARAM_DESCRIPTOR_REFRESH_BATCH_SIZE, DescriptorRefresher.DEFAULT_BATCH_SIZE);
+        refresher = new DescriptorRefresher((int) Math.max(1, Math.min(batchSize, Integer.MAX_VALUE)));
+        refreshScheduler = newDaemonScheduler("descriptor-refresh", Thread.MIN_PRIORITY);
+        refreshScheduler.scheduleWithFixedDelay(refresher, 0, Math.max(1, interval), TimeUnit.SECONDS);
+        LOG.log(Level.INFO, "Materialized formats: {0}, refresh interval: {1} s",
+                new Object[] {MaterializedDescriptors.getFormats(), interval});
+    }
+
+    private void initIdentifierIndex(ServletContext ctx) {
+        long interval = getLongParam(ctx, PARAM_IDENTIFIER_INDEX_REFRESH_INTERVAL, 0);
+        if (interval == 0) {
+            return ;
+        }
+        long maxLag = getLongParam(ctx, PARAM_IDENTIFIER_INDEX_MAX_LAG, 2 * interval);
+        IdentifierIndex.setMaxLag(maxLag * 1000);
+        indexRefresher = new IdentifierIndexRefresher(IdentifierIndexRefresher.DEFAULT_BATCH_SIZE);
+        indexScheduler = newDaemonScheduler("identifier-index", Thread.MIN_PRIORITY);
+        indexScheduler.scheduleWithFixedDelay(indexRefresher, 0, interval, TimeUnit.SECONDS);
+        LOG.log(Level.INFO, "Identifier index refresh interval: {0} s, max lag: {1} s",
+                new Object[] {interval, maxLag});
+    }
+
+    private void initTitleIndex(ServletContext ctx) {
+        long interval = getLongParam(ctx, PARAM_TITLE_INDEX_REFRESH_INTERVAL, 0);
+        if (interval == 0) {
+            return ;
+        }
+        long maxCandidates = getLongParam(ctx, PARAM_TITLE_MAX_CANDIDATES,
+                DigitizationRegistryDao.DEFAULT_MAX_TITLE_CANDIDATES);
+        DigitizationRegistryDao.setMaxTitleCandidates((int) Math.min(maxCandidates, Integer.MAX_VALUE));
+        titleIndexRefresher = new TitleIndexRefresher(TitleIndexRefresher.DEFAULT_BATCH_SIZE);
+        titleIndexScheduler = newDaemonScheduler("title-index", Thread.MIN_PRIORITY);
+        titleIndexScheduler.scheduleWithFixedDelay(titleIndexRefresher, 0, interval, TimeUnit.SECONDS);
+        LOG.log(Level.INFO, "Title index refresh interval: {0} s", interval);
+    }
+
+    /**
+     * @return the scheduler running tasks in a single daemon thread
+     */
+    private static ScheduledExecutorService newDaemonScheduler(final String threadName, final int priority) {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, threadName);
+                t.setDaemon(true);
+                t.setPriority(priority);
+                return t;
+            }
+        });
+    }
+
+    static long getLongParam(ServletContext ctx, String name, long defaultValue) {
+        String value = ctx.getInitParameter(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            long result = Long.parseLong(value.trim());
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException ex) {
+            // logged below
+        }
+        LOG.log(Level.WARNING, "Invalid context parameter {0}: {1}, using {2}",
+                new Object[] {name, value, defaultValue});
+        return defaultValue;
+    }
+
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.RecordUrnNbnResult;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Adds URN:NBNs to many records in a single transaction. Existence of records
+ * and their existing URN:NBNs are read with two set based queries on the primary
+ * data source first. The reads take no locks, so they check the same inside
+ * the transaction or before it. New items are inserted with a single batch.
+ * <p>IDs are allocated just for the new items after the reads and before
+ * the transaction opens. IDs of a failed transaction go back to the
+ * {@link UrnNbnIdAllocator}.
+ *
+ * @author Jan Pokorsky
+ */
+final class AddUrnNbnsQuery implements PreparedQuery<int[]> {
+
+    private static final Logger LOG = Logger.getLogger(AddUrnNbnsQuery.class.getName());
+    /** max number of records of the query */
+    static final int MAX_RECORDS = GetRecordStatesQuery.MAX_IDS;
+
+    private final Map<Integer, Set<String>> record2urnNbns;
+    private final Date allocDate;
+    /** allocates IDs of inserted rows */
+    private UrnNbnIdAllocator idAllocator = UrnNbnIdAllocator.getInstance();
+    /** IDs allocated for inserts */
+    private int[] ids;
+    private Set<Integer> found = Collections.emptySet();
+    private final Map<Integer, Integer> added = new HashMap<Integer, Integer>();
+    private final List<Integer> insertRecords = new ArrayList<Integer>();
+    private final List<String> insertUrnNbns = new ArrayList<String>();
+    private final List<Integer> insertFlags = new ArrayList<Integer>();
+
+    /**
+     * @param record2urnNbns URN:NBNs to add per record, at most {@link #MAX_RECORDS} records
+     * @param allocDate date of allocation or {@code null} for present date
+     */
+    AddUrnNbnsQuery(Map<Integer, Set<String>> record2urnNbns, java.util.Date allocDate) {
+        if (record2urnNbns.isEmpty() || record2urnNbns.size() > MAX_RECORDS) {
+            throw new IllegalArgumentException("records: " + record2urnNbns.size());
+        }
+        this.record2urnNbns = new LinkedHashMap<Integer, Set<String>>(record2urnNbns.size() * 2);
+        for (Map.Entry<Integer, Set<String>> entry : record2urnNbns.entrySet()) {
+            Set<String> urnNbns = new LinkedHashSet<String>(entry.getValue());
+            urnNbns.remove(null);
+            this.record2urnNbns.put(entry.getKey(), urnNbns);
+        }
+        this.allocDate = (allocDate != null)
+                ? new Date(allocDate.getTime()) : new Date(System.currentTimeMillis());
+    }
+
+    void setIdAllocator(UrnNbnIdAllocator idAllocator) {
+        this.idAllocator = idAllocator;
+    }
+
+    /**
+     * Reads existing items and inserts new items with IDs allocated in advance.
+     */
+    void run(RegistryDataSource ds) throws DataSourceException {
+        readExisting(ds);
+        if (insertRecords.isEmpty()) {
+            return ;
+        }
+        ids = idAllocator.allocate(insertRecords.size());
+        try {
+            ds.runQuery(this);
+        } catch (DataSourceException ex) {
+            idAllocator.release(ids, 0);
+            throw ex;
+        } finally {
+            ids = null;
+        }
+    }
+
+    /**
+     * Reads existing records and their URN:NBNs and selects items to insert.
+     */
+    void readExisting(RegistryDataSource ds) throws DataSourceException {
+        // the replica may miss recent records and URN:NBNs
+        ConnectionProvider primary = ConnectionProvider.getInstance();
+        GetRecordStatesQuery recordQuery = new GetRecordStatesQuery(
+                new ArrayList<Integer>(record2urnNbns.keySet()));
+        ds.runQuery(recordQuery, primary);
+        found = recordQuery.getStates().keySet();
+        if (found.isEmpty()) {
+            return ;
+        }
+        GetUrnNbnsQuery urnNbnQuery = new GetUrnNbnsQuery(new ArrayList<Integer>(found));
+        ds.runQuery(urnNbnQuery, primary);
+        Map<Integer, Set<String>> existing = urnNbnQuery.getUrnNbns();
+
+        for (Map.Entry<Integer, Set<String>> entry : record2urnNbns.entrySet()) {
+            int recordId = entry.getKey();
+            if (!found.contains(recordId)) {
+                continue;
+            }
+            Set<String> existingUrnNbns = existing.get(recordId);
+            // reliefFlag signals to set RPredloha_URNNBNMF = 1 for exactly one urnNbn per record
+            int reliefFlag = existingUrnNbns == null ? 1 : 0;
+            int count = 0;
+            for (String urnNbn : entry.getValue()) {
+                if (existingUrnNbns == null || !existingUrnNbns.contains(urnNbn)) {
+                    insertRecords.add(recordId);
+                    insertUrnNbns.add(urnNbn);
+                    insertFlags.add(reliefFlag);
+                    reliefFlag = 0;
+                    count++;
+                }
+            }
+            added.put(recordId, count);
+        }
+    }
+
+    /**
+     * @return results in order of records
+     */
+    List<RecordUrnNbnResult> getResults() {
+        List<RecordUrnNbnResult> results = new ArrayList<RecordUrnNbnResult>(record2urnNbns.size());
+        for (Integer recordId : record2urnNbns.keySet()) {
+            Integer count = added.get(recordId);
+            results.add(new RecordUrnNbnResult(recordId, found.contains(recordId),
+                    count == null ? 0 : count));
+        }
+        return results;
+    }
+
+    public void consumeQuery(int[] results) throws SQLException {
+        for (int i = 0; i < results.length; i++) {
+            int result = results[i];
+            if (result < 1 && result != Statement.SUCCESS_NO_INFO) {
+                throw new SQLException("batch item failed: " + i);
+            }
+        }
+    }
+
+    public PreparedStatement prepareStatement(Connection conn) throws SQLException {
+        if (ids == null || ids.length != insertRecords.size()) {
+            throw new IllegalStateException("IDs not allocated");
+        }
+        String query = "INSERT INTO URNNBN (ID, RPredloha_URNNBN, urnnbn, awardDate, RPredloha_URNNBNMF) VALUES (?,?,?,?,?)";
+        PreparedStatement pstmt = conn.prepareStatement(query);
+        for (int i = 0; i < ids.length; i++) {
+            pstmt.setInt(1, ids[i]);
+            pstmt.setInt(2, insertRecords.get(i));
+            pstmt.setString(3, insertUrnNbns.get(i));
+            pstmt.setDate(4, allocDate);
+            pstmt.setInt(5, insertFlags.get(i));
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine(DbUtils.logQuery(query, ids[i], insertRecords.get(i), insertUrnNbns.get(i),
+                        allocDate, insertFlags.get(i)));
+            }
+            pstmt.addBatch();
+        }
+        return pstmt;
+    }
+
+    public Class<int[]> getQueryType() {
+        return int[].class;
+    }
+
+}
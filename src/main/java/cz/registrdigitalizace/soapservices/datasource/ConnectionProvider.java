@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+/**
+ * Acquires connections of the registry data source. The data source
+ * is looked up in JNDI once and cached. A failed attempt to get a connection
+ * is retried with exponential backoff and random jitter until the timeout
+ * elapses so that concurrent requests do not hammer an overloaded database.
+ * <p>The provider collects histograms of acquisition times and of connections
+ * in use to show saturation of the container pool.
+ *
+ * @author Jan Pokorsky
+ */
+public final class ConnectionProvider {
+
+    static final String JNDI_NAME = "java:/comp/env/jdbc/registrydb";
+    /** max time in milliseconds to acquire a connection */
+    public static final long DEFAULT_TIMEOUT = 10 * 1000;
+    /** delay in milliseconds before the first retry */
+    public static final long DEFAULT_RETRY_DELAY = 50;
+    /** max delay in milliseconds between retries */
+    static final long MAX_RETRY_DELAY = 2 * 1000;
+
+    private static final Logger LOG = Logger.getLogger(ConnectionProvider.class.getName());
+    private static final ConnectionProvider INSTANCE = new ConnectionProvider();
+
+    private final String jndiName;
+    private volatile DataSource dataSource;
+    private volatile long timeout = DEFAULT_TIMEOUT;
+    private volatile long retryDelay = DEFAULT_RETRY_DELAY;
+    private final Random random = new Random();
+
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    /** acquisition times in milliseconds including retries */
+    private final Histogram acquireTime = new Histogram();
+    /** connections in use sampled on acquisition */
+    private final Histogram inUseHistogram = new Histogram();
+
+    public static ConnectionProvider getInstance() {
+        return INSTANCE;
+    }
+
+    ConnectionProvider() {
+        this(JNDI_NAME);
+    }
+
+    /**
+     * @param jndiName JNDI name of the data source
+     */
+    public ConnectionProvider(String jndiName) {
+        this.jndiName = jndiName;
+    }
+
+    /**
+     * Gets a connection. Pass it back with {@link #release}.
+     */
+    public Connection acquire() throws NamingException, SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+        long delay = retryDelay;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Connection connection = getDataSource().getConnection();
+                inUseHistogram.record(inUse.incrementAndGet());
+                acquireCount.incrementAndGet();
+                acquireTime.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                return connection;
+            } catch (SQLException ex) {
+                long remaining = deadline - System.nanoTime();
+                // full jitter spreads retries of concurrent requests
+                long sleep = TimeUnit.MILLISECONDS.toNanos((long) (random.nextDouble() * delay));
+                if (sleep >= remaining) {
+                    failureCount.incrementAndGet();
+                    acquireTime.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    LOG.log(Level.WARNING, "Cannot get connection after {0} attempt(s) in {1} ms",
+                            new Object[] {attempt, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+                    throw ex;
+                }
+                if (LOG.isLoggable(Level.FINE)) {
+                    LOG.log(Level.FINE, "Attempt " + attempt + " failed: " + ex.getMessage());
+                }
+                retryCount.incrementAndGet();
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException iex) {
+                    Thread.currentThread().interrupt();
+                    failureCount.incrementAndGet();
+                    throw ex;
+                }
+                delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection.
+     */
+    public void release(Connection connection) throws SQLException {
+        inUse.decrementAndGet();
+        connection.close();
+    }
+
+    private DataSource getDataSource() throws NamingException {
+        DataSource ds = dataSource;
+        if (ds == null) {
+            // concurrent lookups are harmless; the result is the same
+            ds = InitialContext.doLookup(jndiName);
+            dataSource = ds;
+        }
+        return ds;
+    }
+
+    /**
+     * Replaces the data source looked up in JNDI.
+     */
+    void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @param timeout max time in milliseconds to acquire a connection
+     * @param retryDelay delay in milliseconds before the first retry
+     */
+    public void configure(long timeout, long retryDelay) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout: " + timeout);
+        }
+        if (retryDelay < 1) {
+            throw new IllegalArgumentException("retryDelay: " + retryDelay);
+        }
+        this.timeout = timeout;
+        this.retryDelay = retryDelay;
+    }
+
+    public String getJndiName() {
+        return jndiName;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    public int getInUseCount() {
+        return inUse.get();
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    /**
+     * @return number of failed attempts that were retried
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * @return number of acquisitions that gave up
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    public Histogram getAcquireTime() {
+        return acquireTime;
+    }
+
+    public Histogram getInUse() {
+        return inUseHistogram;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionProvider[%s, acquired: %s, retries: %s, failures: %s, in use: %s;"
+                + " acquire time ms {%s}; in use {%s}]",
+                jndiName, acquireCount.get(), retryCount.get(), failureCount.get(), inUse.get(),
+                acquireTime, inUseHistogram);
+    }
+
+}
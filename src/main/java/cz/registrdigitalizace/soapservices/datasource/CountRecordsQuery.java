@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2011 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.PlainQuery;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Counts records matching the query of {@link GetRecordsQuery}.
+ *
+ * @author Jan Pokorsky
+ */
+final class CountRecordsQuery implements ReadOnlyQuery<ResultSet> {
+
+    private final PlainQuery pquery;
+    /** IDs of candidate records or {@code null} */
+    private final int[] candidateIds;
+    private int count;
+
+    CountRecordsQuery(PlainQuery pquery) {
+        this(pquery, null);
+    }
+
+    /**
+     * Counts candidates matching the query.
+     *
+     * @param candidateIds IDs, at most {@link GetRecordStatesQuery#MAX_IDS},
+     *          or {@code null} to count all records
+     */
+    CountRecordsQuery(PlainQuery pquery, int[] candidateIds) {
+        this.pquery = pquery;
+        this.candidateIds = candidateIds;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void consumeQuery(ResultSet resultSet) throws SQLException {
+        if (resultSet.next()) {
+            count = resultSet.getInt(1);
+        }
+    }
+
+    public PreparedStatement prepareStatement(Connection conn) throws SQLException {
+        int shape = GetRecordsQuery.getColumnShape(pquery) | GetRecordsQuery.getCandidateShape(candidateIds);
+        PreparedStatement pstmt = conn.prepareStatement("select count(*) from predloha p where "
+                + GetRecordsQuery.buildWhere(shape));
+        int column = GetRecordsQuery.setParams(pstmt, 1, pquery);
+        GetRecordsQuery.setCandidateParams(pstmt, column, candidateIds);
+        return pstmt;
+    }
+
+    public Class<ResultSet> getQueryType() {
+        return ResultSet.class;
+    }
+
+}
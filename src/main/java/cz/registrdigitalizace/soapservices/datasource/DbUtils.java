@@ -17,6 +17,7 @@
 package cz.registrdigitalizace.soapservices.datasource;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -35,6 +36,24 @@ final class DbUtils {
         String msg = String.format(query.replace("?", "%s"), params);
         return msg;
     }
+
+    /**
+     * Runs the select query on the connection of an enclosing query.
+     */
+    static void runQuery(Connection conn, PreparedQuery<ResultSet> query) throws SQLException {
+        PreparedStatement pstmt = query.prepareStatement(conn);
+        try {
+            ResultSet rs = pstmt.executeQuery();
+            try {
+                query.consumeQuery(rs);
+            } finally {
+                close(rs);
+            }
+        } finally {
+            close(pstmt);
+        }
+    }
+
     public static void close(Connection c) {
         close(c, null);
     }
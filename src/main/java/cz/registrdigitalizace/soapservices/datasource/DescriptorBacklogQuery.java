@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * Counts records to check by the next descriptor refresh.
+ *
+ * @author Jan Pokorsky
+ */
+final class DescriptorBacklogQuery implements ReadOnlyQuery<ResultSet> {
+
+    private static final Logger LOG = Logger.getLogger(DescriptorBacklogQuery.class.getName());
+    /** edited since; {@code null} counts all records */
+    private final Date since;
+    private long count;
+
+    DescriptorBacklogQuery(Date since) {
+        this.since = since;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    public void consumeQuery(ResultSet resultSet) throws SQLException {
+        count = resultSet.next() ? resultSet.getLong(1) : 0;
+    }
+
+    public PreparedStatement prepareStatement(Connection conn) throws SQLException {
+        String query = since == null
+                ? "select count(*) from predloha where xml is not null"
+                : "select count(*) from predloha where xml is not null and edidate >= ?";
+        PreparedStatement pstmt = conn.prepareStatement(query);
+        if (since != null) {
+            pstmt.setDate(1, since);
+        }
+        LOG.fine(DbUtils.logQuery(query, since));
+        return pstmt;
+    }
+
+    public Class<ResultSet> getQueryType() {
+        return ResultSet.class;
+    }
+
+}
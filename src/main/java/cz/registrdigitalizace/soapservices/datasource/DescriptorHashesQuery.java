@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads source hashes of materialized descriptors for a range of PREDLOHA.ID.
+ *
+ * @author Jan Pokorsky
+ */
+final class DescriptorHashesQuery implements ReadOnlyQuery<ResultSet> {
+
+    private static final Logger LOG = Logger.getLogger(DescriptorHashesQuery.class.getName());
+    /** exclusive */
+    private final int fromId;
+    /** inclusive */
+    private final int toId;
+    private final Map<String, String> hashes = new HashMap<String, String>();
+
+    DescriptorHashesQuery(int fromId, int toId) {
+        this.fromId = fromId;
+        this.toId = toId;
+    }
+
+    /**
+     * @return the hash or {@code null}
+     */
+    String getHash(int recordId, RecordFormat format) {
+        return hashes.get(key(recordId, format.name()));
+    }
+
+    public void consumeQuery(ResultSet resultSet) throws SQLException {
+        while (resultSet.next()) {
+            int recordId = resultSet.getInt(1);
+            String format = resultSet.getString(2);
+            String hash = resultSet.getString(3);
+            hashes.put(key(recordId, format), hash == null ? null : hash.trim());
+        }
+    }
+
+    public PreparedStatement prepareStatement(Connection conn) throws SQLException {
+        String query = "select PREDLOHA_ID, FORMAT, SOURCE_HASH from " + MaterializedDescriptors.TABLE
+                + " where PREDLOHA_ID > ? and PREDLOHA_ID <= ?";
+        PreparedStatement pstmt = conn.prepareStatement(query);
+        pstmt.setInt(1, fromId);
+        pstmt.setInt(2, toId);
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine(DbUtils.logQuery(query, fromId, toId));
+        }
+        return pstmt;
+    }
+
+    public Class<ResultSet> getQueryType() {
+        return ResultSet.class;
+    }
+
+    private static String key(int recordId, String format) {
+        return recordId + ":" + format;
+    }
+
+}
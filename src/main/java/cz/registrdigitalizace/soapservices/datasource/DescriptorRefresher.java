@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import cz.registrdigitalizace.soapservices.transform.DescriptorDataSource;
+import cz.registrdigitalizace.soapservices.transform.MarcSource;
+import cz.registrdigitalizace.soapservices.transform.MarcTransformer;
+import java.sql.Date;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.transform.TransformerException;
+
+/**
+ * Keeps {@link MaterializedDescriptors materialized descriptors} up to date.
+ * <p>The first run checks all records. Subsequent runs check only records
+ * with PREDLOHA.EDIDATE since the day of the last successful run. As EDIDATE
+ * holds just a day the records edited that day are checked repeatedly but
+ * only those with a changed Marc XML are transformed again.
+ * <p>Records are processed in chunks and each chunk is read and stored
+ * in a separate short transaction. Descriptors are transformed outside
+ * of transactions.
+ *
+ * @author Jan Pokorsky
+ */
+public final class DescriptorRefresher implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(DescriptorRefresher.class.getName());
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final RegistryDataSource ds = new RegistryDataSource();
+    private final MarcTransformer transformer = new MarcTransformer();
+    private final int batchSize;
+    /** day of the last successful run; {@code null} before the first run */
+    private Date since;
+
+    private final AtomicLong backlog = new AtomicLong();
+    private final AtomicLong checkedCount = new AtomicLong();
+    private final AtomicLong transformedCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong runCount = new AtomicLong();
+    private volatile long lastRunTime;
+    private volatile long lastRunChecked;
+    private volatile long lastRunTransformed;
+
+    public DescriptorRefresher(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public void run() {
+        long start = System.currentTimeMillis();
+        Date runSince = startOfDay(start);
+        try {
+            refresh(since);
+            since = runSince;
+        } catch (Throwable t) {
+            // do not let the scheduler cancel next runs
+            LOG.log(Level.SEVERE, "Descriptor refresh failed.", t);
+        } finally {
+            lastRunTime = System.currentTimeMillis() - start;
+            runCount.incrementAndGet();
+            LOG.info(toString());
+        }
+    }
+
+    private void refresh(Date since) throws DataSourceException {
+        if (MaterializedDescriptors.getFormats().isEmpty()) {
+            return ;
+        }
+        DescriptorBacklogQuery backlogQuery = new DescriptorBacklogQuery(since);
+        ds.runQuery(backlogQuery);
+        backlog.set(backlogQuery.getCount());
+        lastRunChecked = 0;
+        lastRunTransformed = 0;
+
+        for (int lastId = -1; ;) {
+            DescriptorSourcesQuery sources = new DescriptorSourcesQuery(since, lastId, batchSize);
+            ds.runQuery(sources);
+            List<Integer> ids = sources.getIds();
+            if (ids.isEmpty()) {
+                break;
+            }
+            int toId = ids.get(ids.size() - 1);
+            DescriptorHashesQuery hashes = new DescriptorHashesQuery(lastId, toId);
+            ds.runQuery(hashes);
+            StoreDescriptorsQuery store = new StoreDescriptorsQuery();
+            for (int i = 0; i < ids.size(); i++) {
+                transform(ids.get(i), sources.getXmls().get(i), hashes, store);
+            }
+            ds.runQuery(store);
+
+            lastRunChecked += ids.size();
+            lastRunTransformed += store.size();
+            checkedCount.addAndGet(ids.size());
+            transformedCount.addAndGet(store.size());
+            backlog.set(Math.max(0, backlog.get() - ids.size()));
+            lastId = toId;
+            if (ids.size() < batchSize) {
+                break;
+            }
+        }
+        backlog.set(0);
+    }
+
+    private void transform(int recordId, String xml, DescriptorHashesQuery hashes, StoreDescriptorsQuery store) {
+        MarcSource source = new MarcSource(xml);
+        String digest = source.getDigest();
+        for (RecordFormat format : MaterializedDescriptors.getFormats()) {
+            if (digest.equals(hashes.getHash(recordId, format))) {
+                continue;
+            }
+            try {
+                DescriptorDataSource descriptor = transformer.transformToDataSource(source, format);
+                store.add(recordId, format, digest, descriptor);
+            } catch (TransformerException ex) {
+                // the read path transforms the record on demand
+                failureCount.incrementAndGet();
+                LOG.log(Level.WARNING, String.format("Cannot materialize %s of record %s.", format, recordId), ex);
+            }
+        }
+    }
+
+    private static Date startOfDay(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        c.set(Calendar.HOUR_OF_DAY, 0);
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+        return new Date(c.getTimeInMillis());
+    }
+
+    /**
+     * @return number of records waiting for the check by the running refresh
+     */
+    public long getBacklog() {
+        return backlog.get();
+    }
+
+    /**
+     * @return records checked by the last run per second
+     */
+    public long getThroughput() {
+        return lastRunChecked * 1000 / Math.max(1, lastRunTime);
+    }
+
+    public long getCheckedCount() {
+        return checkedCount.get();
+    }
+
+    public long getTransformedCount() {
+        return transformedCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DescriptorRefresher[runs: %s, since: %s, backlog: %s,"
+                + " last run: %s ms, checked: %s, transformed: %s, throughput: %s rec/s;"
+                + " total checked: %s, transformed: %s, failures: %s]",
+                runCount.get(), since, backlog.get(),
+                lastRunTime, lastRunChecked, lastRunTransformed, getThroughput(),
+                checkedCount.get(), transformedCount.get(), failureCount.get());
+    }
+
+}
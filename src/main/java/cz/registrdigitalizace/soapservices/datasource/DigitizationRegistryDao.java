@@ -20,8 +20,23 @@ package cz.registrdigitalizace.soapservices.datasource;
 import cz.registrdigitalizace.soapservices.model.DigitizationRecord;
 import cz.registrdigitalizace.soapservices.model.DigitizationState;
 import cz.registrdigitalizace.soapservices.model.PlainQuery;
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import cz.registrdigitalizace.soapservices.model.RecordStateUpdate;
+import cz.registrdigitalizace.soapservices.model.RecordStateUpdateResult;
+import cz.registrdigitalizace.soapservices.model.RecordUrnNbnResult;
+import cz.registrdigitalizace.soapservices.model.TitleMatch;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -30,20 +45,266 @@ import java.util.Set;
  */
 public final class DigitizationRegistryDao {
 
+    public static final int DEFAULT_STATE_UPDATE_BATCH_SIZE = 100;
+    /** number of records of a single transaction adding URN:NBNs */
+    static final int URNNBN_CHUNK_SIZE = 100;
+    private static volatile int stateUpdateBatchSize = DEFAULT_STATE_UPDATE_BATCH_SIZE;
+    public static final int DEFAULT_MAX_TITLE_CANDIDATES = 10000;
+    private static volatile int maxTitleCandidates = DEFAULT_MAX_TITLE_CANDIDATES;
+
     public final RegistryDataSource ds = new RegistryDataSource();
 
-    public List<DigitizationRecord> findRecords(PlainQuery pquery, int maxResults) throws DataSourceException {
-        GetRecordsQuery query = new GetRecordsQuery(pquery, maxResults);
+    /**
+     * Sets number of state updates run by a single transaction
+     * of {@link #updateRecordStates}.
+     */
+    public static void setStateUpdateBatchSize(int size) {
+        stateUpdateBatchSize = Math.max(1, Math.min(size, UpdateScanningStatesWork.MAX_UPDATES));
+    }
+
+    /**
+     * Sets the maximal number of records matching the title of
+     * the {@link TitleIndex} that are read to check other parameters
+     * of the query.
+     */
+    public static void setMaxTitleCandidates(int max) {
+        maxTitleCandidates = Math.max(GetRecordStatesQuery.MAX_IDS, max);
+    }
+
+    /**
+     * Finds records. Descriptors are Marc XML sources or descriptors
+     * already materialized in the required format.
+     */
+    public List<DigitizationRecord> findRecords(PlainQuery pquery, RecordFormat format, int maxResults) throws DataSourceException {
+        return findRecords(pquery, format, maxResults, false, null);
+    }
+
+    /**
+     * Finds a page of records ordered by ID.
+     *
+     * @param afterId ID of the last record of the previous page or {@code null}
+     * @since 1.3
+     */
+    public List<DigitizationRecord> findRecordsPage(PlainQuery pquery, RecordFormat format,
+            int maxResults, Integer afterId) throws DataSourceException {
+
+        return findRecords(pquery, format, maxResults, true, afterId);
+    }
+
+    /**
+     * Reads candidates found by the {@link IdentifierIndex} if possible.
+     * In case the index lags behind the DB too much records the index has
+     * not read yet are searched in the DB and merged with matching candidates.
+     */
+    private List<DigitizationRecord> findRecords(PlainQuery pquery, RecordFormat format,
+            int maxResults, boolean page, Integer afterId) throws DataSourceException {
+
+        if (isTitleSearch(pquery)) {
+            return findRecordsByTitle(pquery, format, maxResults, afterId);
+        }
+        IdentifierIndex index = IdentifierIndex.getInstance();
+        int[] candidateIds = index == null ? null : index.lookup(pquery, GetRecordStatesQuery.MAX_IDS);
+        if (candidateIds != null) {
+            GetRecordsQuery query = new GetRecordsQuery(pquery, format, maxResults, page, afterId, candidateIds);
+            ds.runQuery(query);
+            if (query.getRecords().isEmpty()) {
+                IdentifierIndex.countStale();
+            }
+            if (index.isCurrent()) {
+                return query.getRecords();
+            }
+            GetRecordsQuery recentQuery = new GetRecordsQuery(pquery, format, maxResults, page, afterId,
+                    index.getSince(), index.getMaxId());
+            ds.runQuery(recentQuery);
+            return mergeRecords(query.getRecords(), recentQuery.getRecords(), maxResults, page);
+        }
+        GetRecordsQuery query = new GetRecordsQuery(pquery, format, maxResults, page, afterId, null);
         ds.runQuery(query);
         return query.getRecords();
     }
 
+    /**
+     * Merges records of two queries. A record read by both queries is
+     * included once.
+     *
+     * @param page {@code true} if both lists are ordered by ID
+     */
+    static List<DigitizationRecord> mergeRecords(List<DigitizationRecord> records,
+            List<DigitizationRecord> others, int maxResults, boolean page) {
+
+        if (others.isEmpty()) {
+            return records;
+        }
+        List<DigitizationRecord> merged = new ArrayList<DigitizationRecord>(records);
+        Set<Integer> ids = new HashSet<Integer>();
+        for (DigitizationRecord record : records) {
+            ids.add(record.getRecordId());
+        }
+        for (DigitizationRecord record : others) {
+            if (ids.add(record.getRecordId())) {
+                merged.add(record);
+            }
+        }
+        if (page) {
+            Collections.sort(merged, new Comparator<DigitizationRecord>() {
+
+                public int compare(DigitizationRecord o1, DigitizationRecord o2) {
+                    int id1 = o1.getRecordId();
+                    int id2 = o2.getRecordId();
+                    return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+                }
+            });
+        }
+        if (merged.size() > maxResults) {
+            merged = new ArrayList<DigitizationRecord>(merged.subList(0, maxResults));
+        }
+        return merged;
+    }
+
+    /**
+     * Reads records found by the {@link TitleIndex}. Candidates are read
+     * in chunks until there are enough records matching other parameters
+     * of the query.
+     */
+    private List<DigitizationRecord> findRecordsByTitle(PlainQuery pquery, RecordFormat format,
+            int maxResults, Integer afterId) throws DataSourceException {
+
+        int[] candidateIds = searchTitle(pquery);
+        PlainQuery otherQuery = withoutTitle(pquery);
+        checkTitleCandidates(candidateIds, otherQuery);
+        List<DigitizationRecord> records = new ArrayList<DigitizationRecord>();
+        int from = 0;
+        if (afterId != null) {
+            int index = Arrays.binarySearch(candidateIds, afterId);
+            from = index >= 0 ? index + 1 : -index - 1;
+        }
+        while (from < candidateIds.length && records.size() < maxResults) {
+            int to = Math.min(candidateIds.length, from + GetRecordStatesQuery.MAX_IDS);
+            int[] chunk = Arrays.copyOfRange(candidateIds, from, to);
+            // chunks follow afterId already, records of a chunk are just ordered by ID
+            GetRecordsQuery query = new GetRecordsQuery(otherQuery, format,
+                    maxResults - records.size(), true, null, chunk);
+            ds.runQuery(query);
+            records.addAll(query.getRecords());
+            from = to;
+        }
+        return records;
+    }
+
+    /**
+     * @return number of all records matching the query
+     * @since 1.3
+     */
+    public int countRecords(PlainQuery pquery) throws DataSourceException {
+        if (isTitleSearch(pquery)) {
+            return countRecordsByTitle(pquery);
+        }
+        CountRecordsQuery query = new CountRecordsQuery(pquery);
+        ds.runQuery(query);
+        return query.getCount();
+    }
+
+    private int countRecordsByTitle(PlainQuery pquery) throws DataSourceException {
+        int[] candidateIds = searchTitle(pquery);
+        PlainQuery otherQuery = withoutTitle(pquery);
+        if (GetRecordsQuery.getColumnShape(otherQuery) == 0) {
+            // records deleted since the last rebuild of the index are counted too
+            return candidateIds.length;
+        }
+        checkTitleCandidates(candidateIds, otherQuery);
+        int count = 0;
+        for (int from = 0; from < candidateIds.length; from += GetRecordStatesQuery.MAX_IDS) {
+            int to = Math.min(candidateIds.length, from + GetRecordStatesQuery.MAX_IDS);
+            CountRecordsQuery query = new CountRecordsQuery(otherQuery, Arrays.copyOfRange(candidateIds, from, to));
+            ds.runQuery(query);
+            count += query.getCount();
+        }
+        return count;
+    }
+
+    private static boolean isTitleSearch(PlainQuery pquery) {
+        return pquery.getTitleMatch() != null && pquery.getTitleMatch() != TitleMatch.EXACT;
+    }
+
+    /**
+     * @return sorted IDs of records matching the title, the author and the subject
+     */
+    private static int[] searchTitle(PlainQuery pquery) throws DataSourceException {
+        TitleIndex index = TitleIndex.getInstance();
+        if (index == null) {
+            throw new DataSourceException("The title index is not available.");
+        }
+        int[] result = null;
+        String[] texts = {pquery.getTitle(), pquery.getAuthor(), pquery.getSubject()};
+        TitleIndex.Field[] fields = {TitleIndex.Field.TITLE, TitleIndex.Field.AUTHOR, TitleIndex.Field.SUBJECT};
+        for (int i = 0; i < texts.length && (result == null || result.length > 0); i++) {
+            if (texts[i] != null && texts[i].trim().length() > 0) {
+                int[] ids = index.search(texts[i], pquery.getTitleMatch(), fields[i]);
+                result = result == null ? ids : TitleIndex.intersect(result, ids);
+            }
+        }
+        return result == null ? new int[0] : result;
+    }
+
+    /**
+     * Rejects titles matching so many records that checking other parameters
+     * of the query would need too many queries. Candidates of a query without
+     * other parameters match anyway and they are read just up to the limit
+     * of results.
+     */
+    private static void checkTitleCandidates(int[] candidateIds, PlainQuery otherQuery)
+            throws QueryTooBroadException {
+
+        int max = maxTitleCandidates;
+        if (candidateIds.length > max && GetRecordsQuery.getColumnShape(otherQuery) != 0) {
+            throw new QueryTooBroadException(String.format(
+                    "The title matches %s records, more than %s. Use a more specific title.",
+                    candidateIds.length, max));
+        }
+    }
+
+    /**
+     * @return copy of the query without the title, the author and the subject
+     *      searched by the index
+     */
+    static PlainQuery withoutTitle(PlainQuery pquery) {
+        PlainQuery copy = new PlainQuery();
+        copy.setBarcode(pquery.getBarcode());
+        copy.setCcnb(pquery.getCcnb());
+        copy.setIsbn(pquery.getIsbn());
+        copy.setIssn(pquery.getIssn());
+        copy.setIssueDate(pquery.getIssueDate());
+        copy.setSignature(pquery.getSignature());
+        copy.setVolume(pquery.getVolume());
+        copy.setPole001(pquery.getPole001());
+        return copy;
+    }
+
     public DigitizationState getRecordState(int recordId) throws DataSourceException {
         GetRecordStateQuery query = new GetRecordStateQuery(recordId);
         ds.runQuery(query);
         return query.getState();
     }
 
+    /**
+     * Gets scanning states of many records. IDs are queried in chunks.
+     *
+     * @param recordIds record IDs
+     * @return states of found records
+     * @since 1.3
+     */
+    public Map<Integer, DigitizationState> getRecordStates(Collection<Integer> recordIds) throws DataSourceException {
+        List<Integer> ids = new ArrayList<Integer>(new LinkedHashSet<Integer>(recordIds));
+        Map<Integer, DigitizationState> states = new HashMap<Integer, DigitizationState>(ids.size() * 2);
+        for (int from = 0; from < ids.size(); from += GetRecordStatesQuery.MAX_IDS) {
+            int to = Math.min(ids.size(), from + GetRecordStatesQuery.MAX_IDS);
+            GetRecordStatesQuery query = new GetRecordStatesQuery(ids.subList(from, to));
+            ds.runQuery(query);
+            states.putAll(query.getStates());
+        }
+        return states;
+    }
+
     public boolean updateRecordState(int recordId,
             DigitizationState newState, DigitizationState oldState,
             String user, Date date) throws DataSourceException {
@@ -54,16 +315,67 @@ public final class DigitizationRegistryDao {
         return query.isUpdated();
     }
 
+    /**
+     * Updates digitization states of many records. Updates are run in chunks,
+     * each chunk in its own transaction.
+     *
+     * @param updates updates of distinct records
+     * @return results in order of updates
+     * @since 1.3
+     */
+    public List<RecordStateUpdateResult> updateRecordStates(List<RecordStateUpdate> updates) throws DataSourceException {
+        List<RecordStateUpdateResult> results = new ArrayList<RecordStateUpdateResult>(updates.size());
+        int batchSize = stateUpdateBatchSize;
+        for (int from = 0; from < updates.size(); from += batchSize) {
+            int to = Math.min(updates.size(), from + batchSize);
+            UpdateScanningStatesWork work = new UpdateScanningStatesWork(updates.subList(from, to));
+            work.run(ds);
+            results.addAll(work.getResults());
+        }
+        return results;
+    }
+
     public boolean setRecordUrnNbn(int recordId, Set<String> urnNbns, Date date) throws DataSourceException {
-        UpdateUrnNbnQuery query = new UpdateUrnNbnQuery(recordId, urnNbns, date, false);
-        ds.runQuery(query);
-        return query.isUpdated();
+        UpdateUrnNbnWork work = new UpdateUrnNbnWork(recordId, urnNbns, date, false);
+        return work.run(ds);
     }
 
     public boolean addRecordUrnNbn(int recordId, Set<String> urnNbns, Date date) throws DataSourceException {
-        UpdateUrnNbnQuery query = new UpdateUrnNbnQuery(recordId, urnNbns, date, true);
-        ds.runQuery(query);
-        return query.isUpdated();
+        UpdateUrnNbnWork work = new UpdateUrnNbnWork(recordId, urnNbns, date, true);
+        return work.run(ds);
+    }
+
+    /**
+     * Adds URN:NBNs to many records. Records are processed in chunks,
+     * each chunk in its own transaction.
+     *
+     * @param record2urnNbns URN:NBNs to add per record
+     * @param date date of allocation or {@code null} for present date
+     * @return results in order of records
+     * @since 1.3
+     */
+    public List<RecordUrnNbnResult> addRecordsUrnNbn(Map<Integer, Set<String>> record2urnNbns,
+            Date date) throws DataSourceException {
+
+        List<RecordUrnNbnResult> results = new ArrayList<RecordUrnNbnResult>(record2urnNbns.size());
+        Map<Integer, Set<String>> chunk = new LinkedHashMap<Integer, Set<String>>();
+        for (Map.Entry<Integer, Set<String>> entry : record2urnNbns.entrySet()) {
+            chunk.put(entry.getKey(), entry.getValue());
+            if (chunk.size() == URNNBN_CHUNK_SIZE) {
+                results.addAll(addUrnNbns(chunk, date));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            results.addAll(addUrnNbns(chunk, date));
+        }
+        return results;
+    }
+
+    private List<RecordUrnNbnResult> addUrnNbns(Map<Integer, Set<String>> chunk, Date date) throws DataSourceException {
+        AddUrnNbnsQuery query = new AddUrnNbnsQuery(chunk, date);
+        query.run(ds);
+        return query.getResults();
     }
 
     public void init() throws DataSourceException {
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads the heartbeat replicated from the primary database.
+ *
+ * @author Jan Pokorsky
+ * @see ReplicaLagProbe
+ */
+final class GetHeartbeatQuery implements ReadOnlyQuery<ResultSet> {
+
+    private long beat = -1;
+
+    /**
+     * @return time of the heartbeat in milliseconds or {@code -1}
+     */
+    public long getBeat() {
+        return beat;
+    }
+
+    public void consumeQuery(ResultSet resultSet) throws SQLException {
+        if (resultSet.next()) {
+            beat = resultSet.getLong(1);
+        }
+    }
+
+    public PreparedStatement prepareStatement(Connection conn) throws SQLException {
+        return conn.prepareStatement("select BEAT from " + ReplicaLagProbe.TABLE + " where ID = 1");
+    }
+
+    public Class<ResultSet> getQueryType() {
+        return ResultSet.class;
+    }
+
+}
@@ -28,7 +28,7 @@ import java.sql.SQLException;
  *
  * @author Jan Pokorsky
  */
-public final class GetRecordStateQuery implements PreparedQuery<ResultSet> {
+public final class GetRecordStateQuery implements ReadOnlyQuery<ResultSet> {
     private final int recordId;
     private DigitizationState state;
 
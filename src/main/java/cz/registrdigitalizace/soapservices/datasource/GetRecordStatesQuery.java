@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.DigitizationState;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Finds out scanning states of many records with a single
+ * {@code select ... where id in (...)}. The IN list is padded to one of
+ * a few sizes so that the DB and the statement pool see just a few
+ * distinct statements.
+ *
+ * @author Jan Pokorsky
+ */
+final class GetRecordStatesQuery implements ReadOnlyQuery<ResultSet> {
+
+    /** sizes of IN lists; the last one is the max number of IDs of the query */
+    static final int[] BUCKETS = {1, 8, 32, 128, 512};
+    static final int MAX_IDS = BUCKETS[BUCKETS.length - 1];
+    private static final AtomicReferenceArray<String> BUCKET2SQL = new AtomicReferenceArray<String>(BUCKETS.length);
+    private static final AtomicReferenceArray<String> BUCKET2LOCK_SQL = new AtomicReferenceArray<String>(BUCKETS.length);
+
+    private final List<Integer> recordIds;
+    private final Map<Integer, DigitizationState> states;
+
+    /**
+     * @param recordIds unique IDs, at most {@link #MAX_IDS}
+     */
+    GetRecordStatesQuery(List<Integer> recordIds) {
+        if (recordIds.isEmpty() || recordIds.size() > MAX_IDS) {
+            throw new IllegalArgumentException("recordIds: " + recordIds.size());
+        }
+        this.recordIds = recordIds;
+        this.states = new HashMap<Integer, DigitizationState>(recordIds.size() * 2);
+    }
+
+    /**
+     * @return states of found records
+     */
+    public Map<Integer, DigitizationState> getStates() {
+        return states;
+    }
+
+    public void consumeQuery(ResultSet resultSet) throws SQLException {
+        readStates(resultSet, states);
+    }
+
+    public PreparedStatement prepareStatement(Connection conn) throws SQLException {
+        int bucket = getBucket(recordIds.size());
+        PreparedStatement pstmt = conn.prepareStatement(getSql(bucket));
+        pstmt.setPoolable(true);
+        setIds(pstmt, recordIds);
+        return pstmt;
+    }
+
+    /**
+     * Sets IDs padded to the size of their bucket.
+     */
+    static void setIds(PreparedStatement pstmt, List<Integer> recordIds) throws SQLException {
+        pstmt.setFetchSize(recordIds.size());
+        int size = BUCKETS[getBucket(recordIds.size())];
+        for (int i = 0; i < size; i++) {
+            // pad with the last ID
+            pstmt.setInt(i + 1, recordIds.get(Math.min(i, recordIds.size() - 1)));
+        }
+    }
+
+    static void readStates(ResultSet resultSet, Map<Integer, DigitizationState> states) throws SQLException {
+        while (resultSet.next()) {
+            states.put(resultSet.getInt(1), DigitizationState.resolve(resultSet.getString(2)));
+        }
+    }
+
+    public Class<ResultSet> getQueryType() {
+        return ResultSet.class;
+    }
+
+    static int getBucket(int size) {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            if (size <= BUCKETS[i]) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("size: " + size);
+    }
+
+    static String getSql(int bucket) {
+        String sql = BUCKET2SQL.get(bucket);
+        if (sql == null) {
+            StringBuilder sb = new StringBuilder("select id, stavrec from predloha where id in (?");
+            for (int i = 1; i < BUCKETS[bucket]; i++) {
+                sb.append(", ?");
+            }
+            sql = sb.append(')').toString();
+            BUCKET2SQL.set(bucket, sql);
+        }
+        return sql;
+    }
+
+    /**
+     * @return the SQL of the bucket locking selected rows until the end of the transaction
+     */
+    static String getLockSql(int bucket) {
+        String sql = BUCKET2LOCK_SQL.get(bucket);
+        if (sql == null) {
+            sql = getSql(bucket) + " for update";
+            BUCKET2LOCK_SQL.set(bucket, sql);
+        }
+        return sql;
+    }
+
+}
@@ -20,45 +20,173 @@ package cz.registrdigitalizace.soapservices.datasource;
 import cz.registrdigitalizace.soapservices.model.DigitizationRecord;
 import cz.registrdigitalizace.soapservices.model.DigitizationState;
 import cz.registrdigitalizace.soapservices.model.PlainQuery;
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import cz.registrdigitalizace.soapservices.transform.DescriptorDataSource;
+import cz.registrdigitalizace.soapservices.transform.MarcSource;
+import cz.registrdigitalizace.soapservices.transform.MarcTransformer;
 
 import javax.xml.transform.Source;
-import javax.xml.transform.stream.StreamSource;
-import java.io.StringReader;
+import javax.xml.transform.TransformerException;
 import java.sql.Connection;
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public final class GetRecordsQuery implements PreparedQuery<ResultSet> {
+/**
+ * Selects records matching the query. In case the required format is
+ * {@link MaterializedDescriptors materialized} the fresh descriptors are
+ * read from the side table. Other records get Marc XML descriptors
+ * to transform.
+ * <p>The SQL depends just on the set of queried columns (the shape) so it is
+ * built once per shape and the same statement text is prepared by all
+ * requests of the shape. Statements are marked as poolable so a data source
+ * with statement pooling enabled reuses them and the DB does not parse them
+ * again.
+ * <p>The number of rows is limited by the statement. Pages of large
+ * results are ordered by ID and pages following the first one are read
+ * with the keyset {@code p.id > ?} so the DB does not scan skipped rows.
+ * <p>Queries of identifiers may be restricted to candidate IDs found by
+ * the {@link IdentifierIndex}. The DB then reads them by the primary key
+ * and checks the queried columns again. Records the index has not seen yet
+ * are read by a query restricted to records added or edited since
+ * the last rebuild of the index.
+ *
+ * @author Jan Pokorsky
+ */
+public final class GetRecordsQuery implements ReadOnlyQuery<ResultSet> {
     private static final Logger LOGGER = Logger.getLogger(GetRecordsQuery.class.getName());
 
+    /** queried columns; the shape of the query has bit i set if COLUMNS[i] is queried */
+    private static final String[] COLUMNS = {
+        "p.CARKOD", "p.CCNB", "p.ISBN", "p.ISSN", "p.ROKVYD",
+        "p.SIGNATURA", "p.NAZEV", "p.ROCNIKPER", "p.POLE001",
+    };
+    /** shape bit of queries joining materialized descriptors */
+    static final int MATERIALIZED_SHAPE = 1 << COLUMNS.length;
+    /** shape bit of queries reading a page of records ordered by ID */
+    static final int PAGE_SHAPE = MATERIALIZED_SHAPE << 1;
+    /** shape bit of pages following a record ID */
+    static final int AFTER_ID_SHAPE = PAGE_SHAPE << 1;
+    /** shape bit of queries restricted to records not indexed yet */
+    static final int RECENT_SHAPE = AFTER_ID_SHAPE << 1;
+    /**
+     * the lowest bit of the {@link GetRecordStatesQuery#BUCKETS bucket} of
+     * candidate IDs; the shape holds the bucket index + 1 or 0 if there are
+     * no candidates
+     */
+    private static final int IDS_SHAPE_SHIFT = Integer.numberOfTrailingZeros(RECENT_SHAPE) + 1;
+    static final int IDS_SHAPE_MASK = 7 << IDS_SHAPE_SHIFT;
+    private static final int SHAPE_COUNT = 1 << (IDS_SHAPE_SHIFT + 3);
+    /** rows fetched by a single round trip; records are rather large */
+    static final int MAX_FETCH_SIZE = 100;
+    private static final AtomicReferenceArray<String> SHAPE2SQL = new AtomicReferenceArray<String>(SHAPE_COUNT);
+    private static final AtomicLongArray SHAPE_EXECUTIONS = new AtomicLongArray(SHAPE_COUNT);
+    /** nanoseconds from prepare to the last consumed row */
+    private static final AtomicLongArray SHAPE_TIME = new AtomicLongArray(SHAPE_COUNT);
+    private static final AtomicLongArray SHAPE_ROWS = new AtomicLongArray(SHAPE_COUNT);
+
     private final PlainQuery pquery;
     private final List<DigitizationRecord> records = new ArrayList<DigitizationRecord>();
     private final int maxResults;
+    private final RecordFormat format;
+    private final boolean materialized;
+    private final boolean page;
+    private final Integer afterId;
+    /** sorted IDs of candidate records or {@code null} */
+    private final int[] candidateIds;
+    /** edited since; {@code null} if the query is not restricted to recent records */
+    private final Date editedSince;
+    private final int indexedMaxId;
+    private int shape = -1;
+    private long start;
+
+    public GetRecordsQuery(PlainQuery pquery, RecordFormat format, int maxResults) {
+        this(pquery, format, maxResults, false, null, null);
+    }
+
+    /**
+     * Selects a page of records ordered by ID.
+     *
+     * @param afterId ID of the last record of the previous page or {@code null}
+     *          for the first page
+     */
+    public GetRecordsQuery(PlainQuery pquery, RecordFormat format, int maxResults, Integer afterId) {
+        this(pquery, format, maxResults, true, afterId, null);
+    }
+
+    /**
+     * Selects records of candidate IDs matching the query.
+     *
+     * @param page {@code true} to order records by ID
+     * @param afterId ID of the last record of the previous page or {@code null};
+     *          requires {@code page}
+     * @param candidateIds sorted IDs, at most {@link GetRecordStatesQuery#MAX_IDS},
+     *          or {@code null} to search all records
+     */
+    GetRecordsQuery(PlainQuery pquery, RecordFormat format, int maxResults, boolean page,
+            Integer afterId, int[] candidateIds) {
+
+        this(pquery, format, maxResults, page, afterId, candidateIds, null, 0);
+    }
 
-    public GetRecordsQuery(PlainQuery pquery, int maxResults) {
+    /**
+     * Selects records matching the query that were added or edited after
+     * the {@link IdentifierIndex} read them.
+     *
+     * @param editedSince records with PREDLOHA.EDIDATE since the date
+     * @param indexedMaxId records with greater IDs
+     */
+    GetRecordsQuery(PlainQuery pquery, RecordFormat format, int maxResults, boolean page,
+            Integer afterId, Date editedSince, int indexedMaxId) {
+
+        this(pquery, format, maxResults, page, afterId, null, editedSince, indexedMaxId);
+    }
+
+    private GetRecordsQuery(PlainQuery pquery, RecordFormat format, int maxResults, boolean page,
+            Integer afterId, int[] candidateIds, Date editedSince, int indexedMaxId) {
+
+        if (afterId != null && !page) {
+            throw new IllegalArgumentException("afterId requires page: " + afterId);
+        }
+        if (candidateIds != null && (candidateIds.length == 0
+                || candidateIds.length > GetRecordStatesQuery.MAX_IDS)) {
+            throw new IllegalArgumentException("candidateIds: " + candidateIds.length);
+        }
+        this.candidateIds = candidateIds;
+        this.editedSince = editedSince;
+        this.indexedMaxId = indexedMaxId;
         this.pquery = pquery;
+        this.page = page;
+        this.afterId = afterId;
         this.maxResults = maxResults;
+        this.format = format;
+        this.materialized = format != null && MaterializedDescriptors.isMaterialized(format);
     }
 
     public List<DigitizationRecord> getRecords() {
         return records;
     }
 
-    private void addRecord(int recordId, String scanStateStr, String marcXmlStr) {
-        int marcXmlStrLength = (marcXmlStr != null) ? marcXmlStr.length() : -1;
-        LOGGER.fine(String.format("addRecord recordId: %s, scanState: %s, xml.length: %s\n",
-                recordId, scanStateStr, marcXmlStrLength));
-        LOGGER.finest(marcXmlStr);
+    private void addRecord(int recordId, String scanStateStr, String marcXmlStr, Source source) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            int marcXmlStrLength = (marcXmlStr != null) ? marcXmlStr.length() : -1;
+            LOGGER.fine(String.format("addRecord recordId: %s, scanState: %s, xml.length: %s\n",
+                    recordId, scanStateStr, marcXmlStrLength));
+            LOGGER.finest(marcXmlStr);
+        }
         DigitizationRecord record = new DigitizationRecord();
         record.setRecordId(recordId);
         DigitizationState state = DigitizationState.resolve(scanStateStr);
         record.setState(state);
-        Source source = resolveSource(marcXmlStr);
         record.setDescriptor(source);
 
         records.add(record);
@@ -66,60 +194,304 @@ public final class GetRecordsQuery implements PreparedQuery<ResultSet> {
 
     private static Source resolveSource(String marcXmlStr) {
         if (marcXmlStr != null && marcXmlStr.length() > 0) {
-            marcXmlStr = RegistryDataSource.fixMarcXml(marcXmlStr);
-            return new StreamSource(new StringReader(marcXmlStr));
+            return new MarcSource(marcXmlStr);
         }
         return null;
     }
 
+    /**
+     * Gets the materialized descriptor if it was transformed from the current
+     * Marc XML.
+     *
+     * @return the descriptor in the required format or {@code null}
+     */
+    private Source resolveMaterializedSource(MarcSource marcSource, String hash, byte[] descriptor)
+            throws SQLException {
+
+        if (hash == null || descriptor == null) {
+            MaterializedDescriptors.countMissing();
+            return null;
+        }
+        if (!hash.trim().equals(marcSource.getDigest())) {
+            MaterializedDescriptors.countStale();
+            return null;
+        }
+        MaterializedDescriptors.countFresh();
+        try {
+            return MarcTransformer.toSource(new DescriptorDataSource(descriptor));
+        } catch (TransformerException ex) {
+            throw new SQLException(ex.toString());
+        }
+    }
+
     public void consumeQuery(ResultSet resultSet) throws SQLException {
+        try {
+            consumeRows(resultSet);
+        } finally {
+            if (shape >= 0) {
+                SHAPE_EXECUTIONS.incrementAndGet(shape);
+                SHAPE_TIME.addAndGet(shape, System.nanoTime() - start);
+                SHAPE_ROWS.addAndGet(shape, records.size());
+            }
+        }
+    }
+
+    private void consumeRows(ResultSet resultSet) throws SQLException {
         for (int i = 0; resultSet.next() && i < maxResults; i++) {
             String xml = resultSet.getString("xml");
             int id = resultSet.getInt("id");
             String stavrec = resultSet.getString("stavrec");
+            Source source = resolveSource(xml);
+            if (materialized && source != null) {
+                Source descriptor = resolveMaterializedSource((MarcSource) source,
+                        resultSet.getString("SOURCE_HASH"), resultSet.getBytes("DESCRIPTOR"));
+                if (descriptor != null) {
+                    source = descriptor;
+                }
+            }
 
-            addRecord(id, stavrec, xml);
+            addRecord(id, stavrec, xml, source);
         }
     }
 
     public PreparedStatement prepareStatement(Connection conn) throws SQLException {
-        StringBuilder whereBuilder = new StringBuilder();
-        addWhereStringExp(whereBuilder, "CARKOD", pquery.getBarcode());
-        addWhereStringExp(whereBuilder, "CCNB", pquery.getCcnb());
-        addWhereStringExp(whereBuilder, "ISBN", pquery.getIsbn());
-        addWhereStringExp(whereBuilder, "ISSN", pquery.getIssn());
-        addWhereStringExp(whereBuilder, "ROKVYD", pquery.getIssueDate());
-        addWhereStringExp(whereBuilder, "SIGNATURA", pquery.getSignature());
-        addWhereStringExp(whereBuilder, "NAZEV", pquery.getTitle());
-        addWhereStringExp(whereBuilder, "ROCNIKPER", pquery.getVolume());
-        addWhereStringExp(whereBuilder, "POLE001", pquery.getPole001());
-
-        String query = "select id, stavrec, xml from predloha where " + whereBuilder.toString();
-        LOGGER.fine(query);
+        shape = getColumnShape(pquery);
+        if (materialized) {
+            shape |= MATERIALIZED_SHAPE;
+        }
+        if (page) {
+            shape |= PAGE_SHAPE;
+        }
+        if (afterId != null) {
+            shape |= AFTER_ID_SHAPE;
+        }
+        if (editedSince != null) {
+            shape |= RECENT_SHAPE;
+        }
+        shape |= getCandidateShape(candidateIds);
+        String query = getSql(shape);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(query);
+        }
 
+        start = System.nanoTime();
         PreparedStatement pstmt = conn.prepareStatement(query);
+        // the same SQL is prepared again and again; let the pool keep it
+        pstmt.setPoolable(true);
+        // do not let the DB produce rows that would be thrown away
+        pstmt.setMaxRows(maxResults);
+        pstmt.setFetchSize(Math.min(maxResults, MAX_FETCH_SIZE));
 
         int column = 1;
-        column = setStringParam(pstmt, column, pquery.getBarcode());
-        column = setStringParam(pstmt, column, pquery.getCcnb());
-        column = setStringParam(pstmt, column, pquery.getIsbn());
-        column = setStringParam(pstmt, column, pquery.getIssn());
-        column = setStringParam(pstmt, column, pquery.getIssueDate());
-        column = setStringParam(pstmt, column, pquery.getSignature());
-        column = setStringParam(pstmt, column, pquery.getTitle());
-        column = setStringParam(pstmt, column, pquery.getVolume());
-        column = setStringParam(pstmt, column, pquery.getPole001());
+        if (materialized) {
+            pstmt.setString(column++, format.name());
+        }
+        column = setParams(pstmt, column, pquery);
+        column = setCandidateParams(pstmt, column, candidateIds);
+        if (afterId != null) {
+            pstmt.setInt(column++, afterId);
+        }
+        if (editedSince != null) {
+            pstmt.setInt(column++, indexedMaxId);
+            pstmt.setDate(column++, editedSince);
+        }
         return pstmt;
     }
 
-    public Class<ResultSet> getQueryType() {
-        return ResultSet.class;
+    /**
+     * Gets the SQL of the shape. There are just a few shapes used in practice
+     * so they are built once on first use.
+     */
+    static String getSql(int shape) {
+        String sql = SHAPE2SQL.get(shape);
+        if (sql == null) {
+            sql = buildSql(shape);
+            SHAPE2SQL.set(shape, sql);
+        }
+        return sql;
     }
 
-    private static void addWhereStringExp(StringBuilder sb, String name, String value) {
-        if (value != null && value.length() > 0) {
-            addWhereExp(sb, name + "=?");
+    private static String buildSql(int shape) {
+        StringBuilder whereBuilder = buildWhere(shape);
+        if ((shape & AFTER_ID_SHAPE) != 0) {
+            addWhereExp(whereBuilder, "p.id>?");
+        }
+        if ((shape & RECENT_SHAPE) != 0) {
+            addWhereExp(whereBuilder, "(p.id>? or p.edidate>=?)");
         }
+        String sql;
+        if ((shape & MATERIALIZED_SHAPE) != 0) {
+            sql = "select p.id, p.stavrec, p.xml, d.SOURCE_HASH, d.DESCRIPTOR from predloha p"
+                    + " left outer join " + MaterializedDescriptors.TABLE + " d"
+                    + " on d.PREDLOHA_ID = p.id and d.FORMAT = ?"
+                    + " where " + whereBuilder.toString();
+        } else {
+            sql = "select p.id, p.stavrec, p.xml from predloha p where " + whereBuilder.toString();
+        }
+        if ((shape & PAGE_SHAPE) != 0) {
+            sql += " order by p.id";
+        }
+        return sql;
+    }
+
+    /**
+     * @return the bucket of candidate IDs of the shape or -1
+     */
+    private static int getIdsBucket(int shape) {
+        return ((shape & IDS_SHAPE_MASK) >>> IDS_SHAPE_SHIFT) - 1;
+    }
+
+    /**
+     * @return the shape bits of candidate IDs
+     */
+    static int getCandidateShape(int[] candidateIds) {
+        return candidateIds == null
+                ? 0 : (GetRecordStatesQuery.getBucket(candidateIds.length) + 1) << IDS_SHAPE_SHIFT;
+    }
+
+    /**
+     * Builds the condition of queried columns and candidate IDs of the shape.
+     */
+    static StringBuilder buildWhere(int shape) {
+        StringBuilder whereBuilder = new StringBuilder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if ((shape & (1 << i)) != 0) {
+                addWhereExp(whereBuilder, COLUMNS[i] + "=?");
+            }
+        }
+        int idsBucket = getIdsBucket(shape);
+        if (idsBucket >= 0) {
+            StringBuilder in = new StringBuilder("p.id in (?");
+            for (int i = 1; i < GetRecordStatesQuery.BUCKETS[idsBucket]; i++) {
+                in.append(", ?");
+            }
+            addWhereExp(whereBuilder, in.append(')').toString());
+        }
+        return whereBuilder;
+    }
+
+    /**
+     * @return the shape of queried columns
+     */
+    static int getColumnShape(PlainQuery pquery) {
+        String[] values = getValues(pquery);
+        int mask = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null && values[i].length() > 0) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Sets non-empty query values as parameters of the statement.
+     *
+     * @param column index of the first parameter
+     * @return index of the next parameter
+     */
+    static int setParams(PreparedStatement pstmt, int column, PlainQuery pquery) throws SQLException {
+        for (String value : getValues(pquery)) {
+            column = setStringParam(pstmt, column, value);
+        }
+        return column;
+    }
+
+    /**
+     * Sets candidate IDs padded to the size of their bucket.
+     *
+     * @param candidateIds IDs or {@code null}
+     * @param column index of the first parameter
+     * @return index of the next parameter
+     */
+    static int setCandidateParams(PreparedStatement pstmt, int column, int[] candidateIds) throws SQLException {
+        if (candidateIds != null) {
+            int size = GetRecordStatesQuery.BUCKETS[GetRecordStatesQuery.getBucket(candidateIds.length)];
+            for (int i = 0; i < size; i++) {
+                // pad with the last ID
+                pstmt.setInt(column++, candidateIds[Math.min(i, candidateIds.length - 1)]);
+            }
+        }
+        return column;
+    }
+
+    /**
+     * @return query values in order of {@link #COLUMNS}
+     */
+    static String[] getValues(PlainQuery pquery) {
+        return new String[] {
+            pquery.getBarcode(),
+            pquery.getCcnb(),
+            pquery.getIsbn(),
+            pquery.getIssn(),
+            pquery.getIssueDate(),
+            pquery.getSignature(),
+            pquery.getTitle(),
+            pquery.getVolume(),
+            pquery.getPole001(),
+        };
+    }
+
+    /**
+     * Lists executions of used shapes, the most frequent first.
+     */
+    public static String toStatistics() {
+        List<Integer> shapes = new ArrayList<Integer>();
+        for (int i = 0; i < SHAPE_COUNT; i++) {
+            if (SHAPE_EXECUTIONS.get(i) > 0) {
+                shapes.add(i);
+            }
+        }
+        Collections.sort(shapes, new Comparator<Integer>() {
+
+            public int compare(Integer o1, Integer o2) {
+                long c1 = SHAPE_EXECUTIONS.get(o1);
+                long c2 = SHAPE_EXECUTIONS.get(o2);
+                return c1 < c2 ? 1 : (c1 == c2 ? 0 : -1);
+            }
+        });
+        StringBuilder sb = new StringBuilder("GetRecordsQuery shapes[");
+        for (int shape : shapes) {
+            long count = SHAPE_EXECUTIONS.get(shape);
+            sb.append(String.format("%n  %s: executions: %s, avg time: %.2f ms, avg rows: %.1f",
+                    toShapeName(shape), count,
+                    SHAPE_TIME.get(shape) / 1000000d / count,
+                    (double) SHAPE_ROWS.get(shape) / count));
+        }
+        return sb.append(']').toString();
+    }
+
+    static String toShapeName(int shape) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if ((shape & (1 << i)) != 0) {
+                if (sb.length() > 0) {
+                    sb.append('+');
+                }
+                sb.append(COLUMNS[i].substring(2));
+            }
+        }
+        if ((shape & MATERIALIZED_SHAPE) != 0) {
+            sb.append(" materialized");
+        }
+        if ((shape & PAGE_SHAPE) != 0) {
+            sb.append(" page");
+        }
+        if ((shape & AFTER_ID_SHAPE) != 0) {
+            sb.append(" after");
+        }
+        if ((shape & RECENT_SHAPE) != 0) {
+            sb.append(" recent");
+        }
+        int idsBucket = getIdsBucket(shape);
+        if (idsBucket >= 0) {
+            sb.append(" ids:").append(GetRecordStatesQuery.BUCKETS[idsBucket]);
+        }
+        return sb.toString();
+    }
+
+    public Class<ResultSet> getQueryType() {
+        return ResultSet.class;
     }
 
     private static void addWhereExp(StringBuilder sb, String exp) {
@@ -131,7 +503,9 @@ public final class GetRecordsQuery implements PreparedQuery<ResultSet> {
 
     private static int setStringParam(PreparedStatement ps, int col, String value) throws SQLException {
         if (value != null && value.length() > 0) {
-            LOGGER.log(Level.FINE, "PreparedStatement.setString({0}, {1})", new Object[] {col, value});
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "PreparedStatement.setString({0}, {1})", new Object[] {col, value});
+            }
             ps.setString(col++, value);
         }
         return col;
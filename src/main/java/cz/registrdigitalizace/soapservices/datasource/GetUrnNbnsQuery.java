@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Finds out URN:NBNs of many records with a single
+ * {@code select ... where RPredloha_URNNBN in (...)}. The IN list is padded
+ * the same way as of {@link GetRecordStatesQuery}.
+ *
+ * @author Jan Pokorsky
+ */
+final class GetUrnNbnsQuery implements ReadOnlyQuery<ResultSet> {
+
+    private static final AtomicReferenceArray<String> BUCKET2SQL =
+            new AtomicReferenceArray<String>(GetRecordStatesQuery.BUCKETS.length);
+
+    private final List<Integer> recordIds;
+    private final Map<Integer, Set<String>> urnNbns;
+
+    /**
+     * @param recordIds unique IDs, at most {@link GetRecordStatesQuery#MAX_IDS}
+     */
+    GetUrnNbnsQuery(List<Integer> recordIds) {
+        if (recordIds.isEmpty() || recordIds.size() > GetRecordStatesQuery.MAX_IDS) {
+            throw new IllegalArgumentException("recordIds: " + recordIds.size());
+        }
+        this.recordIds = recordIds;
+        this.urnNbns = new HashMap<Integer, Set<String>>(recordIds.size() * 2);
+    }
+
+    /**
+     * @return URN:NBNs of records having any
+     */
+    public Map<Integer, Set<String>> getUrnNbns() {
+        return urnNbns;
+    }
+
+    public void consumeQuery(ResultSet resultSet) throws SQLException {
+        while (resultSet.next()) {
+            int recordId = resultSet.getInt(1);
+            Set<String> recordUrnNbns = urnNbns.get(recordId);
+            if (recordUrnNbns == null) {
+                recordUrnNbns = new LinkedHashSet<String>();
+                urnNbns.put(recordId, recordUrnNbns);
+            }
+            recordUrnNbns.add(resultSet.getString(2));
+        }
+    }
+
+    public PreparedStatement prepareStatement(Connection conn) throws SQLException {
+        int bucket = GetRecordStatesQuery.getBucket(recordIds.size());
+        PreparedStatement pstmt = conn.prepareStatement(getSql(bucket));
+        pstmt.setPoolable(true);
+        int size = GetRecordStatesQuery.BUCKETS[bucket];
+        for (int i = 0; i < size; i++) {
+            // pad with the last ID
+            pstmt.setInt(i + 1, recordIds.get(Math.min(i, recordIds.size() - 1)));
+        }
+        return pstmt;
+    }
+
+    public Class<ResultSet> getQueryType() {
+        return ResultSet.class;
+    }
+
+    static String getSql(int bucket) {
+        String sql = BUCKET2SQL.get(bucket);
+        if (sql == null) {
+            StringBuilder sb = new StringBuilder(
+                    "select RPredloha_URNNBN, urnnbn from URNNBN where RPredloha_URNNBN in (?");
+            for (int i = 1; i < GetRecordStatesQuery.BUCKETS[bucket]; i++) {
+                sb.append(", ?");
+            }
+            sql = sb.append(')').toString();
+            BUCKET2SQL.set(bucket, sql);
+        }
+        return sql;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of non-negative values. Values are counted in
+ * buckets of powers of two so that percentiles are estimated with
+ * the upper bound of the bucket.
+ *
+ * @author Jan Pokorsky
+ */
+public final class Histogram {
+
+    /** bucket 0 holds 0, bucket i holds values from 2^(i-1) to 2^i - 1 */
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        for (long m = max.get(); value > m && !max.compareAndSet(m, value); ) {
+            m = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : (double) sum.get() / c;
+    }
+
+    /**
+     * Estimates the value that is greater than or equal to the given part
+     * of recorded values.
+     *
+     * @param percentile 0 - 100
+     * @return the upper bound of the bucket or {@code 0} if nothing is recorded
+     */
+    public long getPercentile(double percentile) {
+        long c = count.get();
+        if (c == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(c * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return Math.min(max.get(), upperBound(i));
+            }
+        }
+        return max.get();
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count: %s, mean: %.1f, p50: %s, p90: %s, p99: %s, max: %s",
+                getCount(), getMean(), getPercentile(50), getPercentile(90),
+                getPercentile(99), getMax());
+    }
+
+}
@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.PlainQuery;
+import java.sql.Date;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of record identifiers (barcode, ccnb, isbn, issn, pole001).
+ * It maps identifier values to IDs of records so that {@link GetRecordsQuery}
+ * reads matching records by the primary key instead of searching identifier
+ * columns.
+ * <p>Values are kept in open addressing tables with IDs chained in int
+ * arrays so the index needs no objects per entry besides the value strings.
+ * <p>The index is built and kept up to date by {@link IdentifierIndexRefresher}.
+ * The index keeps identifiers of each record so that a refresh replaces
+ * identifiers of edited records. Found IDs are just candidates and
+ * the query checks identifiers of read records again.
+ * <p>Records added or edited since the last refresh may be missing in
+ * the index. While the index lags behind the DB no more than
+ * {@link #setMaxLag max lag} a hit reads just the candidates by the primary
+ * key. Otherwise such records are searched in the DB besides candidates.
+ *
+ * @author Jan Pokorsky
+ */
+public final class IdentifierIndex {
+
+    /** indexed PREDLOHA columns */
+    static final String[] COLUMNS = {"CARKOD", "CCNB", "ISBN", "ISSN", "POLE001"};
+    /** positions of indexed columns in the shape of {@link GetRecordsQuery} */
+    private static final int[] QUERY_COLUMNS = {0, 1, 2, 3, 8};
+
+    private static volatile IdentifierIndex instance;
+    private static final AtomicLong lookupCount = new AtomicLong();
+    private static final AtomicLong hitCount = new AtomicLong();
+    private static final AtomicLong staleCount = new AtomicLong();
+    /** milliseconds; lookups of a lagging index search recent records in the DB */
+    private static volatile long maxLag;
+
+    private final ValueTable[] tables = new ValueTable[COLUMNS.length];
+    /** identifiers of indexed records */
+    private final RecordTable records = new RecordTable(COLUMNS.length);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** the day of the last refresh; records edited before it are indexed */
+    private volatile Date since;
+    /** start of the last refresh; 0 if unknown */
+    private volatile long refreshTime;
+    /** the greatest added ID */
+    private volatile int maxId;
+
+    IdentifierIndex() {
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = new ValueTable();
+        }
+    }
+
+    /**
+     * @return the index or {@code null} if it is disabled or not built yet
+     */
+    public static IdentifierIndex getInstance() {
+        return instance;
+    }
+
+    static void setInstance(IdentifierIndex index) {
+        instance = index;
+    }
+
+    /**
+     * Sets how long the index may lag behind the DB so that lookups do not
+     * search records edited since the last refresh.
+     *
+     * @param millis max lag in milliseconds
+     */
+    public static void setMaxLag(long millis) {
+        maxLag = Math.max(0, millis);
+    }
+
+    /**
+     * Finds candidate IDs of records matching the query.
+     *
+     * @return sorted IDs or {@code null} in case the query should search
+     *          the DB; it is not built, the query does not contain any indexed
+     *          column, nothing is found or too many records are found
+     */
+    int[] lookup(PlainQuery pquery, int maxIds) {
+        String[] values = GetRecordsQuery.getValues(pquery);
+        int[] result = null;
+        boolean indexed = false;
+        for (int i = 0; i < QUERY_COLUMNS.length; i++) {
+            String value = values[QUERY_COLUMNS[i]];
+            if (value == null || value.length() == 0) {
+                continue;
+            }
+            indexed = true;
+            int[] ids = get(i, value);
+            if (result == null || ids.length < result.length) {
+                result = ids;
+            }
+        }
+        if (!indexed) {
+            return null;
+        }
+        lookupCount.incrementAndGet();
+        if (result.length == 0 || result.length > maxIds) {
+            // not refreshed yet or not selective; let the DB decide
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Counts lookups whose candidates did not match when read from the DB.
+     */
+    static void countStale() {
+        staleCount.incrementAndGet();
+    }
+
+    /**
+     * @return the day of the last refresh of the index or {@code null}; records
+     *          edited before the day are indexed
+     */
+    Date getSince() {
+        return since;
+    }
+
+    /**
+     * Marks the index as containing all changes before the time.
+     *
+     * @param day the day of the refresh
+     * @param time start of the refresh
+     */
+    void setRefreshed(Date day, long time) {
+        this.since = day;
+        this.refreshTime = time;
+    }
+
+    /**
+     * @return {@code true} if the index lags behind the DB no more than
+     *          the max lag
+     */
+    boolean isCurrent() {
+        long time = refreshTime;
+        return time > 0 && System.currentTimeMillis() - time <= maxLag;
+    }
+
+    /**
+     * @return the greatest indexed record ID
+     */
+    int getMaxId() {
+        return maxId;
+    }
+
+    /**
+     * Gets IDs of records with the value of the indexed column.
+     *
+     * @param column index of {@link #COLUMNS}
+     * @return sorted IDs
+     */
+    int[] get(int column, String value) {
+        lock.readLock().lock();
+        try {
+            int[] ids = tables[column].get(value);
+            Arrays.sort(ids);
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds identifiers of records. Identifiers indexed with a record before
+     * are replaced.
+     *
+     * @param ids record IDs
+     * @param values identifiers of records in order of {@link #COLUMNS}
+     * @param size number of records to add
+     */
+    void add(int[] ids, String[][] values, int size) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                int id = ids[i];
+                maxId = Math.max(maxId, id);
+                String[] recordValues = values[i];
+                for (int column = 0; column < tables.length; column++) {
+                    String value = recordValues[column];
+                    if (value != null && value.length() == 0) {
+                        value = null;
+                    }
+                    String oldValue = records.put(id, column, value);
+                    if (oldValue == null ? value == null : oldValue.equals(value)) {
+                        continue;
+                    }
+                    if (oldValue != null) {
+                        tables[column].remove(oldValue, id);
+                    }
+                    if (value != null) {
+                        tables[column].add(value, id);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of indexed values
+     */
+    public long getSize() {
+        lock.readLock().lock();
+        try {
+            long size = 0;
+            for (ValueTable table : tables) {
+                size += table.size;
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return estimated heap size of the index in bytes
+     */
+    public long getMemoryUsage() {
+        lock.readLock().lock();
+        try {
+            long bytes = records.getMemoryUsage();
+            for (ValueTable table : tables) {
+                bytes += table.getMemoryUsage();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    /**
+     * @return number of lookups that resolved candidate IDs
+     */
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of hits whose candidates no longer matched the query
+     */
+    public static long getStaleCount() {
+        return staleCount.get();
+    }
+
+    public static String toStatistics() {
+        IdentifierIndex index = instance;
+        return String.format("IdentifierIndex[values: %s, memory: %s kB, lookups: %s, hits: %s, stale: %s]",
+                index == null ? -1 : index.getSize(),
+                index == null ? -1 : index.getMemoryUsage() / 1024,
+                lookupCount.get(), hitCount.get(), staleCount.get());
+    }
+
+    /**
+     * Open addressing table of values. IDs of a value are chained from
+     * the head entry of the slot.
+     */
+    static final class ValueTable {
+
+        private static final int MIN_CAPACITY = 16;
+        /** rough size of a string header and its char array header */
+        private static final int STRING_OVERHEAD = 56;
+        private static final int NO_ENTRY = -1;
+
+        private String[] keys = new String[MIN_CAPACITY];
+        private int[] heads = new int[MIN_CAPACITY];
+        private int[] entryIds = new int[MIN_CAPACITY];
+        private int[] entryNext = new int[MIN_CAPACITY];
+        private int entryCount;
+        /** removed entries to reuse chained by entryNext */
+        private int freeEntry = NO_ENTRY;
+        private int size;
+        private long keyChars;
+
+        void add(String value, int id) {
+            int slot = findSlot(keys, value);
+            if (keys[slot] == null) {
+                if ((size + 1) * 4 > keys.length * 3) {
+                    rehash(keys.length * 2);
+                    slot = findSlot(keys, value);
+                }
+                keys[slot] = value;
+                heads[slot] = NO_ENTRY;
+                size++;
+                keyChars += value.length();
+            } else {
+                for (int e = heads[slot]; e != NO_ENTRY; e = entryNext[e]) {
+                    if (entryIds[e] == id) {
+                        return ;
+                    }
+                }
+            }
+            int entry = freeEntry;
+            if (entry != NO_ENTRY) {
+                freeEntry = entryNext[entry];
+            } else {
+                if (entryCount == entryIds.length) {
+                    entryIds = Arrays.copyOf(entryIds, entryCount * 2);
+                    entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+                }
+                entry = entryCount++;
+            }
+            entryIds[entry] = id;
+            entryNext[entry] = heads[slot];
+            heads[slot] = entry;
+        }
+
+        /**
+         * Removes the ID of the value. The value stays in the table without
+         * IDs until the next rebuild of the index.
+         */
+        void remove(String value, int id) {
+            int slot = findSlot(keys, value);
+            if (keys[slot] == null) {
+                return ;
+            }
+            for (int e = heads[slot], prev = NO_ENTRY; e != NO_ENTRY; prev = e, e = entryNext[e]) {
+                if (entryIds[e] == id) {
+                    if (prev == NO_ENTRY) {
+                        heads[slot] = entryNext[e];
+                    } else {
+                        entryNext[prev] = entryNext[e];
+                    }
+                    entryNext[e] = freeEntry;
+                    freeEntry = e;
+                    return ;
+                }
+            }
+        }
+
+        int[] get(String value) {
+            int slot = findSlot(keys, value);
+            if (keys[slot] == null) {
+                return new int[0];
+            }
+            int count = 0;
+            for (int e = heads[slot]; e != NO_ENTRY; e = entryNext[e]) {
+                count++;
+            }
+            int[] ids = new int[count];
+            int i = 0;
+            for (int e = heads[slot]; e != NO_ENTRY; e = entryNext[e]) {
+                ids[i++] = entryIds[e];
+            }
+            return ids;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long getMemoryUsage() {
+            // references counted as 8 bytes to be on the safe side
+            return keys.length * 12L + entryIds.length * 8L
+                    + size * (long) STRING_OVERHEAD + keyChars * 2;
+        }
+
+        private void rehash(int capacity) {
+            String[] oldKeys = keys;
+            int[] oldHeads = heads;
+            keys = new String[capacity];
+            heads = new int[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = findSlot(keys, oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    heads[slot] = oldHeads[i];
+                }
+            }
+        }
+
+        /**
+         * @return the slot of the value or the empty slot to put it
+         */
+        private static int findSlot(String[] keys, String value) {
+            int mask = keys.length - 1;
+            int h = value.hashCode();
+            // spread higher bits as the capacity is a power of two
+            h ^= (h >>> 16);
+            for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+                String key = keys[slot];
+                if (key == null || key.equals(value)) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    /**
+     * Open addressing table of identifiers of records. Identifiers of
+     * a record are stored in a row of the flat array so the table needs
+     * no objects per record.
+     */
+    static final class RecordTable {
+
+        private static final int MIN_CAPACITY = 16;
+        private static final int NO_ID = Integer.MIN_VALUE;
+
+        private final int columns;
+        private int[] ids;
+        private String[] values;
+        private int size;
+
+        RecordTable(int columns) {
+            this.columns = columns;
+            this.ids = newIds(MIN_CAPACITY);
+            this.values = new String[MIN_CAPACITY * columns];
+        }
+
+        /**
+         * Sets the identifier of the record.
+         *
+         * @return the previous identifier or {@code null}
+         */
+        String put(int id, int column, String value) {
+            int slot = findSlot(ids, id);
+            if (ids[slot] == NO_ID) {
+                if (value == null) {
+                    return null;
+                }
+                if ((size + 1) * 4 > ids.length * 3) {
+                    rehash(ids.length * 2);
+                    slot = findSlot(ids, id);
+                }
+                ids[slot] = id;
+                size++;
+            }
+            int index = slot * columns + column;
+            String old = values[index];
+            values[index] = value;
+            return old;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long getMemoryUsage() {
+            // value strings are shared with value tables
+            return ids.length * 4L + values.length * 8L;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldIds = ids;
+            String[] oldValues = values;
+            ids = newIds(capacity);
+            values = new String[capacity * columns];
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldIds[i] != NO_ID) {
+                    int slot = findSlot(ids, oldIds[i]);
+                    ids[slot] = oldIds[i];
+                    System.arraycopy(oldValues, i * columns, values, slot * columns, columns);
+                }
+            }
+        }
+
+        private static int[] newIds(int capacity) {
+            int[] ids = new int[capacity];
+            Arrays.fill(ids, NO_ID);
+            return ids;
+        }
+
+        /**
+         * @return the slot of the ID or the empty slot to put it
+         */
+        private static int findSlot(int[] ids, int id) {
+            int mask = ids.length - 1;
+            // spread sequential IDs
+            int h = id * 0x9E3779B9;
+            h ^= (h >>> 16);
+            for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+                int key = ids[slot];
+                if (key == NO_ID || key == id) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.Date;
+
+/**
+ * Builds and refreshes the {@link IdentifierIndex}.
+ * <p>Until the first rebuild the query searches the DB. Refreshes replace
+ * identifiers of edited records so that the index stays current within
+ * the refresh interval.
+ *
+ * @author Jan Pokorsky
+ */
+public final class IdentifierIndexRefresher extends IndexRefresher<IdentifierIndex> {
+
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+
+    public IdentifierIndexRefresher(int batchSize) {
+        super(batchSize);
+    }
+
+    @Override
+    IdentifierIndex getIndex() {
+        return IdentifierIndex.getInstance();
+    }
+
+    @Override
+    IdentifierIndex createIndex() {
+        return new IdentifierIndex();
+    }
+
+    @Override
+    void publish(IdentifierIndex index) {
+        IdentifierIndex.setInstance(index);
+    }
+
+    @Override
+    void refreshed(IdentifierIndex index, Date day, long time) {
+        index.setRefreshed(day, time);
+    }
+
+    @Override
+    Chunk indexChunk(IdentifierIndex index, Date since, int lastId, int maxRecords) throws DataSourceException {
+        IdentifierSourcesQuery sources = new IdentifierSourcesQuery(since, lastId, maxRecords);
+        ds.runQuery(sources);
+        index.add(sources.getIds(), sources.getValues(), sources.size());
+        return sources;
+    }
+
+    @Override
+    String getIndexStatistics() {
+        return IdentifierIndex.toStatistics();
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * Selects next chunk of record identifiers to index. Records are ordered
+ * by PREDLOHA.ID so that the refresh can continue after the last read ID.
+ *
+ * @author Jan Pokorsky
+ */
+final class IdentifierSourcesQuery implements ReadOnlyQuery<ResultSet>, IndexRefresher.Chunk {
+
+    private static final Logger LOG = Logger.getLogger(IdentifierSourcesQuery.class.getName());
+    private static final String SQL;
+
+    static {
+        StringBuilder sb = new StringBuilder("select id");
+        for (String column : IdentifierIndex.COLUMNS) {
+            sb.append(", ").append(column);
+        }
+        SQL = sb.append(" from predloha where id > ?").toString();
+    }
+
+    /** edited since; {@code null} selects all records */
+    private final Date since;
+    private final int lastId;
+    private final int maxResults;
+    private final int[] ids;
+    private final String[][] values;
+    private int size;
+
+    IdentifierSourcesQuery(Date since, int lastId, int maxResults) {
+        this.since = since;
+        this.lastId = lastId;
+        this.maxResults = maxResults;
+        this.ids = new int[maxResults];
+        this.values = new String[maxResults][];
+    }
+
+    int[] getIds() {
+        return ids;
+    }
+
+    /**
+     * @return identifiers of read records in order of {@link IdentifierIndex#COLUMNS}
+     */
+    String[][] getValues() {
+        return values;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getLastId() {
+        return ids[size - 1];
+    }
+
+    public void consumeQuery(ResultSet resultSet) throws SQLException {
+        for (size = 0; size < maxResults && resultSet.next(); size++) {
+            ids[size] = resultSet.getInt(1);
+            String[] recordValues = new String[IdentifierIndex.COLUMNS.length];
+            for (int i = 0; i < recordValues.length; i++) {
+                recordValues[i] = resultSet.getString(i + 2);
+            }
+            values[size] = recordValues;
+        }
+    }
+
+    public PreparedStatement prepareStatement(Connection conn) throws SQLException {
+        String query = since == null
+                ? SQL + " order by id"
+                : SQL + " and edidate >= ? order by id";
+        PreparedStatement pstmt = conn.prepareStatement(query);
+        pstmt.setMaxRows(maxResults);
+        pstmt.setFetchSize(maxResults);
+        pstmt.setInt(1, lastId);
+        if (since == null) {
+            LOG.fine(DbUtils.logQuery(query, lastId));
+        } else {
+            pstmt.setDate(2, since);
+            LOG.fine(DbUtils.logQuery(query, lastId, since));
+        }
+        return pstmt;
+    }
+
+    public Class<ResultSet> getQueryType() {
+        return ResultSet.class;
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.Date;
+import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds and refreshes an in-memory index of records.
+ * <p>The first run of a day indexes all records into a new index that
+ * replaces the current one. Subsequent runs index again records with
+ * PREDLOHA.EDIDATE since the day of the last successful run. The daily
+ * rebuild drops changes the refresh cannot see, e.g. deleted records.
+ * <p>Records are read in chunks ordered by ID and each chunk is read by
+ * a separate short transaction.
+ *
+ * @param <I> the index
+ * @author Jan Pokorsky
+ */
+public abstract class IndexRefresher<I> implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(IndexRefresher.class.getName());
+
+    final RegistryDataSource ds = new RegistryDataSource();
+    private final int batchSize;
+    /** day of the last successful run; {@code null} before the first run */
+    private Date since;
+
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong rebuildCount = new AtomicLong();
+    /** start of the last successful run; the index contains all changes before it */
+    private volatile long lastRefresh;
+    private volatile long lastRunTime;
+    private volatile long lastRunRecords;
+
+    IndexRefresher(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * A chunk of records read from the DB.
+     */
+    interface Chunk {
+
+        /**
+         * @return number of read records
+         */
+        int size();
+
+        /**
+         * @return ID of the last read record
+         */
+        int getLastId();
+    }
+
+    /**
+     * @return the current index or {@code null} if it is not built yet
+     */
+    abstract I getIndex();
+
+    abstract I createIndex();
+
+    /**
+     * Replaces the current index with the rebuilt one.
+     */
+    abstract void publish(I index);
+
+    /**
+     * Notifies the index that it contains all changes before the time.
+     * It is called after each successful run before the rebuilt index
+     * is published.
+     *
+     * @param day the day of the run; the next run reads records edited since
+     * @param time start of the run
+     */
+    void refreshed(I index, Date day, long time) {
+    }
+
+    /**
+     * Reads and indexes records following the ID.
+     *
+     * @param since edited since; {@code null} reads all records
+     * @param maxRecords the chunk size
+     */
+    abstract Chunk indexChunk(I index, Date since, int lastId, int maxRecords) throws DataSourceException;
+
+    /**
+     * @return statistics of the index
+     */
+    abstract String getIndexStatistics();
+
+    public final void run() {
+        long start = System.currentTimeMillis();
+        Date runSince = startOfDay(start);
+        try {
+            I index = getIndex();
+            if (index == null || since == null || !since.equals(runSince)) {
+                index = createIndex();
+                refresh(null, index);
+                refreshed(index, runSince, start);
+                publish(index);
+                rebuildCount.incrementAndGet();
+            } else {
+                refresh(since, index);
+                refreshed(index, runSince, start);
+            }
+            since = runSince;
+            lastRefresh = start;
+        } catch (Throwable t) {
+            // do not let the scheduler cancel next runs
+            failureCount.incrementAndGet();
+            LOG.log(Level.SEVERE, getClass().getSimpleName() + " failed.", t);
+        } finally {
+            lastRunTime = System.currentTimeMillis() - start;
+            runCount.incrementAndGet();
+            LOG.fine(toString());
+        }
+    }
+
+    private void refresh(Date since, I index) throws DataSourceException {
+        lastRunRecords = 0;
+        for (int lastId = -1; ;) {
+            Chunk chunk = indexChunk(index, since, lastId, batchSize);
+            int size = chunk.size();
+            if (size == 0) {
+                break;
+            }
+            lastRunRecords += size;
+            lastId = chunk.getLastId();
+            if (size < batchSize) {
+                break;
+            }
+        }
+    }
+
+    static Date startOfDay(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        c.set(Calendar.HOUR_OF_DAY, 0);
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+        return new Date(c.getTimeInMillis());
+    }
+
+    /**
+     * @return milliseconds since the start of the last successful refresh
+     *          or -1 if the index has not been built yet
+     */
+    public long getLag() {
+        long refresh = lastRefresh;
+        return refresh == 0 ? -1 : System.currentTimeMillis() - refresh;
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return records indexed by the last run per second
+     */
+    public long getThroughput() {
+        return lastRunRecords * 1000 / Math.max(1, lastRunTime);
+    }
+
+    /**
+     * @return statistics of the subclass appended to common ones or an empty string
+     */
+    String getDetails() {
+        return "";
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[runs: %s, rebuilds: %s, failures: %s, since: %s,"
+                + " lag: %s ms, last run: %s ms, records: %s, throughput: %s rec/s%s; %s]",
+                getClass().getSimpleName(), runCount.get(), rebuildCount.get(), failureCount.get(), since,
+                getLag(), lastRunTime, lastRunRecords, getThroughput(), getDetails(),
+                getIndexStatistics());
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Descriptors transformed in advance by {@link DescriptorRefresher} and
+ * stored in the side table:
+ * <pre>
+ * create table PREDLOHA_DESCRIPTOR (
+ *     PREDLOHA_ID integer not null,
+ *     FORMAT varchar(20) not null,
+ *     SOURCE_HASH char(40) not null,
+ *     DESCRIPTOR blob not null,
+ *     CREATED timestamp not null,
+ *     primary key (PREDLOHA_ID, FORMAT)
+ * );
+ * </pre>
+ * SOURCE_HASH is the digest of PREDLOHA.XML the descriptor was transformed from.
+ * The stored descriptor is used only when the digest matches the current
+ * PREDLOHA.XML.
+ *
+ * @author Jan Pokorsky
+ */
+public final class MaterializedDescriptors {
+
+    static final String TABLE = "PREDLOHA_DESCRIPTOR";
+
+    private static volatile Set<RecordFormat> formats = Collections.emptySet();
+    private static final AtomicLong freshCount = new AtomicLong();
+    private static final AtomicLong staleCount = new AtomicLong();
+    private static final AtomicLong missingCount = new AtomicLong();
+
+    private MaterializedDescriptors() {
+    }
+
+    /**
+     * Sets formats to materialize. An empty set disables the side table.
+     */
+    public static void setFormats(Set<RecordFormat> formats) {
+        Set<RecordFormat> copy = formats.isEmpty()
+                ? EnumSet.noneOf(RecordFormat.class) : EnumSet.copyOf(formats);
+        copy.remove(RecordFormat.MARC_XML);
+        MaterializedDescriptors.formats = Collections.unmodifiableSet(copy);
+    }
+
+    public static Set<RecordFormat> getFormats() {
+        return formats;
+    }
+
+    public static boolean isMaterialized(RecordFormat format) {
+        return formats.contains(format);
+    }
+
+    static void countFresh() {
+        freshCount.incrementAndGet();
+    }
+
+    static void countStale() {
+        staleCount.incrementAndGet();
+    }
+
+    static void countMissing() {
+        missingCount.incrementAndGet();
+    }
+
+    /**
+     * @return number of descriptors read from the side table
+     */
+    public static long getFreshCount() {
+        return freshCount.get();
+    }
+
+    /**
+     * @return number of descriptors transformed on read as the stored ones were stale
+     */
+    public static long getStaleCount() {
+        return staleCount.get();
+    }
+
+    /**
+     * @return number of descriptors transformed on read as they were not stored yet
+     */
+    public static long getMissingCount() {
+        return missingCount.get();
+    }
+
+    public static String toStatistics() {
+        return String.format("MaterializedDescriptors[formats: %s, fresh: %s, stale: %s, missing: %s]",
+                formats, freshCount.get(), staleCount.get(), missingCount.get());
+    }
+
+}
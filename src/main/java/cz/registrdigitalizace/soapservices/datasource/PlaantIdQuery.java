@@ -76,22 +76,6 @@ public class PlaantIdQuery implements PreparedQuery<Integer> {
         }
     }
 
-    static void updateId(Connection conn, String deskname, int id) throws SQLException {
-        String query = "update PLAANT_IDS set ID = ? where DESKNAME = ?";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        try {
-            stmt.setInt(1, id);
-            stmt.setString(2, deskname);
-            logQuery(query, deskname, id);
-            int result = stmt.executeUpdate();
-            if (result != 1) {
-                throw new IllegalStateException(DbUtils.logQuery(query, deskname, id));
-            }
-        } finally {
-            DbUtils.close(stmt);
-        }
-    }
-
     static void logQuery(String query, Object... params) {
         LOG.fine(DbUtils.logQuery(query, params));
     }
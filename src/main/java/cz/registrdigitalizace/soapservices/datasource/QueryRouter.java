@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Routes {@link ReadOnlyQuery read only queries} to the optional replica of
+ * the registry database. Other queries always run on the primary database.
+ * <p>Reads stay on the primary database
+ * <ul>
+ *   <li>if the replica is not configured,</li>
+ *   <li>if the {@link ReplicaLagProbe replica lag} exceeds
+ *       {@link #getMaxLag() maxLag} or is unknown,</li>
+ *   <li>for {@code maxLag} after the last write so that clients read
+ *       their own writes.</li>
+ * </ul>
+ * <p>The read-your-writes window is a single one for the whole process, not
+ * per client. Any write moves all reads of all clients to the primary database
+ * for {@code maxLag}, so a steady stream of writes more frequent than
+ * {@code maxLag} keeps the replica idle. The service does not identify clients
+ * reliably enough to track their writes separately.
+ *
+ * @author Jan Pokorsky
+ */
+public final class QueryRouter {
+
+    /** max replica lag in milliseconds */
+    public static final long DEFAULT_MAX_LAG = 30 * 1000;
+
+    private static final Logger LOG = Logger.getLogger(QueryRouter.class.getName());
+
+    private static volatile ConnectionProvider replica;
+    private static volatile long maxLag = DEFAULT_MAX_LAG;
+    /** the last lag measured by the probe; negative if unknown */
+    private static volatile long lag = -1;
+    /** time of the last write of any client; opens the read-your-writes window */
+    private static final AtomicLong lastWrite = new AtomicLong();
+
+    private static final AtomicLong replicaReads = new AtomicLong();
+    private static final AtomicLong lagRedirects = new AtomicLong();
+    private static final AtomicLong writeRedirects = new AtomicLong();
+    /** latencies in microseconds */
+    private static final Histogram primaryReadTime = new Histogram();
+    private static final Histogram replicaReadTime = new Histogram();
+    private static final Histogram writeTime = new Histogram();
+
+    private QueryRouter() {
+    }
+
+    /**
+     * Sets the replica.
+     *
+     * @param jndiName JNDI name of the replica data source or {@code null}
+     *          to disable the replica
+     * @param maxLag max replica lag in milliseconds
+     */
+    public static void configure(String jndiName, long maxLag) {
+        replica = jndiName == null ? null : new ConnectionProvider(jndiName);
+        QueryRouter.maxLag = maxLag;
+        lag = -1;
+        lastWrite.set(0);
+    }
+
+    /**
+     * @return the replica or {@code null} if it is not configured
+     */
+    public static ConnectionProvider getReplica() {
+        return replica;
+    }
+
+    public static long getMaxLag() {
+        return maxLag;
+    }
+
+    /**
+     * @return the last measured replica lag in milliseconds or negative number if unknown
+     */
+    public static long getLag() {
+        return lag;
+    }
+
+    /**
+     * Updates the replica lag. The replica serves reads just while
+     * the lag is within limits.
+     *
+     * @param lag the lag in milliseconds or negative number if unknown
+     */
+    static void setLag(long lag) {
+        boolean wasHealthy = isHealthy(QueryRouter.lag);
+        QueryRouter.lag = lag;
+        boolean healthy = isHealthy(lag);
+        if (wasHealthy != healthy) {
+            LOG.log(healthy ? Level.INFO : Level.WARNING,
+                    "Replica {0}, lag: {1} ms", new Object[] {healthy ? "enabled" : "disabled", lag});
+        }
+    }
+
+    private static boolean isHealthy(long lag) {
+        return lag >= 0 && lag <= maxLag;
+    }
+
+    /**
+     * Selects the data source of the query.
+     */
+    static ConnectionProvider route(PreparedQuery<?> query) {
+        ConnectionProvider r = replica;
+        if (r == null || !(query instanceof ReadOnlyQuery)) {
+            return ConnectionProvider.getInstance();
+        }
+        if (!isHealthy(lag)) {
+            lagRedirects.incrementAndGet();
+            return ConnectionProvider.getInstance();
+        }
+        if (System.currentTimeMillis() - lastWrite.get() <= maxLag) {
+            // the replica may not contain the write yet
+            writeRedirects.incrementAndGet();
+            return ConnectionProvider.getInstance();
+        }
+        replicaReads.incrementAndGet();
+        return r;
+    }
+
+    /**
+     * Records the finished query.
+     *
+     * @param time duration in nanoseconds
+     */
+    static void record(PreparedQuery<?> query, ConnectionProvider provider, long time) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(time);
+        if (!(query instanceof ReadOnlyQuery)) {
+            // stale materialized descriptors are detected with the digest on read
+            if (!(query instanceof StoreDescriptorsQuery)) {
+                lastWrite.set(System.currentTimeMillis());
+            }
+            writeTime.record(micros);
+        } else if (provider == ConnectionProvider.getInstance()) {
+            primaryReadTime.record(micros);
+        } else {
+            replicaReadTime.record(micros);
+        }
+    }
+
+    /**
+     * Records the finished unit of work. It always runs on the primary database.
+     *
+     * @param time duration in nanoseconds
+     */
+    static void recordWork(long time) {
+        lastWrite.set(System.currentTimeMillis());
+        writeTime.record(TimeUnit.NANOSECONDS.toMicros(time));
+    }
+
+    public static long getReplicaReadCount() {
+        return replicaReads.get();
+    }
+
+    /**
+     * @return number of reads routed to the primary database due to the replica lag
+     */
+    public static long getLagRedirectCount() {
+        return lagRedirects.get();
+    }
+
+    /**
+     * @return number of reads routed to the primary database due to a recent write
+     */
+    public static long getWriteRedirectCount() {
+        return writeRedirects.get();
+    }
+
+    public static Histogram getPrimaryReadTime() {
+        return primaryReadTime;
+    }
+
+    public static Histogram getReplicaReadTime() {
+        return replicaReadTime;
+    }
+
+    public static Histogram getWriteTime() {
+        return writeTime;
+    }
+
+    public static String toStatistics() {
+        ConnectionProvider r = replica;
+        return String.format("QueryRouter[replica: %s, lag: %s ms, replica reads: %s,"
+                + " redirected due to lag: %s, due to writes: %s;"
+                + "%n  primary reads us {%s}%n  replica reads us {%s}%n  writes us {%s}]",
+                r == null ? null : r.getJndiName(), lag, replicaReads.get(),
+                lagRedirects.get(), writeRedirects.get(),
+                primaryReadTime, replicaReadTime, writeTime);
+    }
+
+}
@@ -21,15 +21,18 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.naming.InitialContext;
-import javax.naming.NamingException;
-import javax.sql.DataSource;
 
 /**
  * Allows to run SQL queries {@link PreparedQuery} for given data source.
- * For now there is the only one hard coded data source.
+ * For now there is the only one hard coded data source acquired with
+ * {@link ConnectionProvider} and its optional replica serving
+ * {@link ReadOnlyQuery read only queries}.
+ * <p>Operations consisting of more statements run as a {@link UnitOfWork}
+ * on the primary data source.
  *
  * @author Jan Pokorsky
  */
@@ -37,15 +40,32 @@ public final class RegistryDataSource {
     private static final Logger LOGGER = Logger.getLogger(RegistryDataSource.class.getName());
 
     public <T> void runQuery(PreparedQuery<T> query) throws DataSourceException {
+        ConnectionProvider provider = QueryRouter.route(query);
+        long start = System.nanoTime();
+        runQuery(query, provider);
+        QueryRouter.record(query, provider, System.nanoTime() - start);
+    }
+
+    /**
+     * Runs the query on the given data source.
+     */
+    <T> void runQuery(PreparedQuery<T> query, ConnectionProvider provider) throws DataSourceException {
+        // reads need no transaction
+        boolean readOnly = query instanceof ReadOnlyQuery;
         Connection connection = null;
         PreparedStatement stmt = null;
         ResultSet resultSet = null;
         try {
-            connection = initConnection();
-            connection.setAutoCommit(false);
+            connection = provider.acquire();
+            connection.setAutoCommit(readOnly);
+            if (readOnly) {
+                connection.setReadOnly(true);
+            }
             stmt = query.prepareStatement(connection);
             if (stmt == null) {
-                connection.rollback();
+                if (!readOnly) {
+                    connection.rollback();
+                }
                 return ;
             }
             T result;
@@ -58,9 +78,11 @@ public final class RegistryDataSource {
                 result = (T) Integer.valueOf(stmt.executeUpdate());
             }
             query.consumeQuery(result);
-            connection.commit();
+            if (!readOnly) {
+                connection.commit();
+            }
         } catch (Throwable t) {
-            if (connection != null) {
+            if (connection != null && !readOnly) {
                 try {
                     connection.rollback();
                 } catch (SQLException ex) {
@@ -83,9 +105,17 @@ public final class RegistryDataSource {
                     LOGGER.log(Level.SEVERE, null, ex);
                 }
             }
+            if (connection != null && readOnly) {
+                try {
+                    // do not pass the read only connection to other users of the pool
+                    connection.setReadOnly(false);
+                } catch (SQLException ex) {
+                    LOGGER.log(Level.SEVERE, null, ex);
+                }
+            }
             if (connection != null) {
                 try {
-                    connection.close();
+                    provider.release(connection);
                 } catch (SQLException ex) {
                     LOGGER.log(Level.SEVERE, null, ex);
                 }
@@ -93,51 +123,60 @@ public final class RegistryDataSource {
         }
     }
 
-    private Connection initConnection() throws NamingException, SQLException {
-        SQLException sex = null;
-        for (int i = 1; i <= 10; i++) {
-            try {
-                return initConnectionImpl();
-            } catch (SQLException ex) {
-                LOGGER.log(Level.SEVERE, "initConnection failed: {0}. attempt.", i);
-                sex = ex;
-            }
-        }
-        throw sex;
-    }
-    private Connection initConnectionImpl() throws NamingException, SQLException {
-        DataSource dataSource = InitialContext.doLookup("java:/comp/env/jdbc/registrydb");
-        Connection connection = dataSource.getConnection();
-        return connection;
+    /**
+     * Runs steps in a single transaction on the primary data source.
+     *
+     * @param name name of the unit used by statistics
+     * @return {@code true} if committed, {@code false} if a step rolled back the work
+     */
+    public boolean runWork(String name, WorkStep... steps) throws DataSourceException {
+        return runWork(name, Arrays.asList(steps));
     }
 
-    private static final String COLLECTION_TAG = "<collection";
-    private static final String MARCXML_NAMESPACE_FIX =
-            " xmlns='http://www.loc.gov/MARC21/slim'"
-            + " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
-            + " xsi:schemaLocation='http://www.loc.gov/MARC21/slim"
-            + " http://www.loc.gov/standards/marcxml/schema/MARC21slim.xsd'";
-
     /**
-     * Tries to fix Marc XML document which may be without proper name space declaration.
-     * @param xml document
-     * @return fixed document or {@code null} in case the passed document is null
+     * @see #runWork(String, WorkStep[])
      */
-    static String fixMarcXml(String xml) {
-        int collectionIdx = xml.indexOf(COLLECTION_TAG);
-        int namespaceIdx = collectionIdx + COLLECTION_TAG.length();
-        if (collectionIdx < 0 || namespaceIdx > xml.length()) {
-            return xml;
-        }
+    public boolean runWork(String name, List<WorkStep> steps) throws DataSourceException {
+        long start = System.nanoTime();
+        boolean committed = runWork(name, steps, ConnectionProvider.getInstance());
+        QueryRouter.recordWork(System.nanoTime() - start);
+        return committed;
+    }
 
-        if (xml.charAt(namespaceIdx) == '>') {
-            StringBuilder sb = new StringBuilder(xml.length() + MARCXML_NAMESPACE_FIX.length());
-            sb.append(xml.substring(0, namespaceIdx));
-            sb.append(MARCXML_NAMESPACE_FIX);
-            sb.append(xml.substring(namespaceIdx));
-            xml = sb.toString();
+    boolean runWork(String name, List<WorkStep> steps, ConnectionProvider provider) throws DataSourceException {
+        Connection connection = null;
+        UnitOfWork work = null;
+        try {
+            connection = provider.acquire();
+            connection.setAutoCommit(false);
+            work = new UnitOfWork(name, connection);
+            if (work.run(steps)) {
+                connection.commit();
+                return true;
+            }
+            connection.rollback();
+            return false;
+        } catch (Throwable t) {
+            if (connection != null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException ex) {
+                    LOGGER.log(Level.SEVERE, null, ex);
+                }
+            }
+            throw new DataSourceException(t);
+        } finally {
+            if (work != null) {
+                work.close();
+            }
+            if (connection != null) {
+                try {
+                    provider.release(connection);
+                } catch (SQLException ex) {
+                    LOGGER.log(Level.SEVERE, null, ex);
+                }
+            }
         }
-        return xml;
     }
 
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures the lag of the replica. It writes the current time to
+ * the heartbeat table of the primary database and reads the replicated
+ * time from the replica:
+ * <pre>
+ * create table REPLICA_HEARTBEAT (
+ *     ID integer not null,
+ *     BEAT numeric(19) not null,
+ *     primary key (ID)
+ * );
+ * insert into REPLICA_HEARTBEAT (ID, BEAT) values (1, 0);
+ * </pre>
+ * The measured lag is accurate to the interval of the probe runs. In case
+ * the probe fails the lag is unknown and {@link QueryRouter} routes all
+ * reads to the primary database.
+ *
+ * @author Jan Pokorsky
+ */
+public final class ReplicaLagProbe implements Runnable {
+
+    static final String TABLE = "REPLICA_HEARTBEAT";
+    /** seconds between probes */
+    public static final long DEFAULT_INTERVAL = 5;
+
+    private static final Logger LOG = Logger.getLogger(ReplicaLagProbe.class.getName());
+
+    private final RegistryDataSource ds = new RegistryDataSource();
+
+    public void run() {
+        ConnectionProvider replica = QueryRouter.getReplica();
+        if (replica == null) {
+            return ;
+        }
+        try {
+            ds.runQuery(new UpdateHeartbeatQuery(System.currentTimeMillis()), ConnectionProvider.getInstance());
+            GetHeartbeatQuery query = new GetHeartbeatQuery();
+            ds.runQuery(query, replica);
+            long beat = query.getBeat();
+            QueryRouter.setLag(beat < 0 ? -1 : Math.max(0, System.currentTimeMillis() - beat));
+        } catch (Throwable t) {
+            // do not let the scheduler cancel next runs
+            LOG.log(Level.WARNING, "Replica lag probe failed.", t);
+            QueryRouter.setLag(-1);
+        }
+    }
+
+}
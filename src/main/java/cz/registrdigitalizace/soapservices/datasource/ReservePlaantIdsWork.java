@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reserves a block of IDs of the PLAANT system. The steps run as a short
+ * {@link UnitOfWork}: the row of {@code PLAANT_IDS} is locked while the last
+ * ID is read and then the ID is moved past the block. The row is locked only
+ * by this transaction.
+ *
+ * @author Jan Pokorsky
+ */
+final class ReservePlaantIdsWork {
+
+    static final String NAME = "reservePlaantIds";
+    static final String SQL_LOCK_ID = "select ID from PLAANT_IDS where DESKNAME=? for update";
+    static final String SQL_UPDATE_ID = "update PLAANT_IDS set ID = ? where DESKNAME = ?";
+
+    private final String deskname;
+    private final int size;
+    private int lastId;
+
+    ReservePlaantIdsWork(String deskname, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        this.deskname = deskname;
+        this.size = size;
+    }
+
+    /**
+     * Runs the reservation.
+     *
+     * @return the first ID of the reserved block
+     */
+    int run(RegistryDataSource ds) throws DataSourceException {
+        ds.runWork(NAME, getSteps());
+        return getFirstId();
+    }
+
+    /**
+     * @return the first ID of the reserved block
+     */
+    int getFirstId() {
+        return lastId + 1;
+    }
+
+    List<WorkStep> getSteps() {
+        return Arrays.asList(
+                new WorkStep("lockId") {
+
+                    @Override
+                    public boolean run(UnitOfWork work) throws SQLException {
+                        lastId = lockId(work);
+                        return true;
+                    }
+                },
+                new WorkStep("updateId") {
+
+                    @Override
+                    public boolean run(UnitOfWork work) throws SQLException {
+                        updateId(work, lastId + size);
+                        return true;
+                    }
+                });
+    }
+
+    private int lockId(UnitOfWork work) throws SQLException {
+        PreparedStatement pstmt = work.prepareStatement(SQL_LOCK_ID);
+        pstmt.setString(1, deskname);
+        PlaantIdQuery.logQuery(SQL_LOCK_ID, deskname);
+        ResultSet rs = pstmt.executeQuery();
+        try {
+            if (!rs.next()) {
+                throw new IllegalStateException("Missing PLAANT_IDS row: " + deskname);
+            }
+            return rs.getInt(1);
+        } finally {
+            DbUtils.close(rs);
+        }
+    }
+
+    private void updateId(UnitOfWork work, int id) throws SQLException {
+        PreparedStatement pstmt = work.prepareStatement(SQL_UPDATE_ID);
+        pstmt.setInt(1, id);
+        pstmt.setString(2, deskname);
+        PlaantIdQuery.logQuery(SQL_UPDATE_ID, id, deskname);
+        if (pstmt.executeUpdate() != 1) {
+            throw new IllegalStateException(deskname);
+        }
+    }
+
+}
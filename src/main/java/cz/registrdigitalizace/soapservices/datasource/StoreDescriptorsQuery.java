@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import cz.registrdigitalizace.soapservices.transform.DescriptorDataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replaces materialized descriptors. Old rows are deleted and new ones
+ * are inserted in a single batch.
+ *
+ * @author Jan Pokorsky
+ */
+final class StoreDescriptorsQuery implements PreparedQuery<int[]> {
+
+    private static final Logger LOG = Logger.getLogger(StoreDescriptorsQuery.class.getName());
+    private final List<Integer> recordIds = new ArrayList<Integer>();
+    private final List<RecordFormat> formats = new ArrayList<RecordFormat>();
+    private final List<String> hashes = new ArrayList<String>();
+    private final List<DescriptorDataSource> descriptors = new ArrayList<DescriptorDataSource>();
+
+    void add(int recordId, RecordFormat format, String hash, DescriptorDataSource descriptor) {
+        recordIds.add(recordId);
+        formats.add(format);
+        hashes.add(hash);
+        descriptors.add(descriptor);
+    }
+
+    int size() {
+        return recordIds.size();
+    }
+
+    public void consumeQuery(int[] results) throws SQLException {
+        for (int i = 0; i < results.length; i++) {
+            int result = results[i];
+            if (result < 1 && result != Statement.SUCCESS_NO_INFO) {
+                throw new SQLException("batch item failed: " + i);
+            }
+        }
+    }
+
+    public PreparedStatement prepareStatement(Connection conn) throws SQLException {
+        if (recordIds.isEmpty()) {
+            return null;
+        }
+        deleteDescriptors(conn);
+        String query = "insert into " + MaterializedDescriptors.TABLE
+                + " (PREDLOHA_ID, FORMAT, SOURCE_HASH, DESCRIPTOR, CREATED) values (?,?,?,?,?)";
+        Timestamp created = new Timestamp(System.currentTimeMillis());
+        PreparedStatement pstmt = conn.prepareStatement(query);
+        for (int i = 0; i < recordIds.size(); i++) {
+            DescriptorDataSource descriptor = descriptors.get(i);
+            pstmt.setInt(1, recordIds.get(i));
+            pstmt.setString(2, formats.get(i).name());
+            pstmt.setString(3, hashes.get(i));
+            try {
+                pstmt.setBinaryStream(4, descriptor.getInputStream(), descriptor.getLength());
+            } catch (IOException ex) {
+                throw new SQLException(ex.toString());
+            }
+            pstmt.setTimestamp(5, created);
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine(DbUtils.logQuery(query, recordIds.get(i), formats.get(i), hashes.get(i),
+                        descriptor.getLength(), created));
+            }
+            pstmt.addBatch();
+        }
+        return pstmt;
+    }
+
+    public Class<int[]> getQueryType() {
+        return int[].class;
+    }
+
+    private void deleteDescriptors(Connection conn) throws SQLException {
+        String query = "delete from " + MaterializedDescriptors.TABLE + " where PREDLOHA_ID=? and FORMAT=?";
+        PreparedStatement pstmt = conn.prepareStatement(query);
+        try {
+            for (int i = 0; i < recordIds.size(); i++) {
+                pstmt.setInt(1, recordIds.get(i));
+                pstmt.setString(2, formats.get(i).name());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        } finally {
+            DbUtils.close(pstmt);
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Splits texts to words of the {@link TitleIndex}. Words are lower case
+ * letters and digits without diacritics.
+ *
+ * @author Jan Pokorsky
+ */
+final class TextNormalizer {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    private TextNormalizer() {
+    }
+
+    /**
+     * @return lower case text without diacritics
+     */
+    static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        String s = DIACRITICS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ENGLISH);
+        // letters without decomposition
+        return s.replace('\u0142', 'l').replace('\u00f8', 'o').replace('\u0111', 'd');
+    }
+
+    /**
+     * @return normalized words in order of the text
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<String>();
+        if (text == null) {
+            return words;
+        }
+        String s = normalize(text);
+        int start = -1;
+        for (int i = 0; i <= s.length(); i++) {
+            boolean wordChar = i < s.length() && Character.isLetterOrDigit(s.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(s.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Computes the Levenshtein distance up to the limit.
+     *
+     * @return the distance or {@code max + 1} if it exceeds the limit
+     */
+    static int distance(String a, String b, int max) {
+        int n = a.length();
+        int m = b.length();
+        if (Math.abs(n - m) > max) {
+            return max + 1;
+        }
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            current[0] = i;
+            int rowMin = i;
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[m], max + 1);
+    }
+
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.TitleMatch;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index of words of PREDLOHA.NAZEV and of authors and
+ * subjects of Marc XML records. It serves {@link TitleMatch#PREFIX prefix}
+ * and {@link TitleMatch#FUZZY fuzzy} queries of titles, authors and subjects
+ * that the DB cannot answer without scanning the table. Each queried text
+ * searches words of its own {@link Field field}.
+ * <p>Words are {@link TextNormalizer normalized} so that case and diacritics
+ * are ignored. Each {@link Field field} has its own words and each word keeps
+ * sorted IDs of its records. Records keep their words so that the index can
+ * replace words of edited records.
+ * <p>The index is built and kept up to date by {@link TitleIndexRefresher}.
+ *
+ * @author Jan Pokorsky
+ */
+public final class TitleIndex {
+
+    private static volatile TitleIndex instance;
+    private static final AtomicLong searchCount = new AtomicLong();
+    /** nanoseconds */
+    private static final AtomicLong searchTime = new AtomicLong();
+
+    private final FieldWords[] tables = new FieldWords[Field.values().length];
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Indexed fields of records.
+     */
+    public enum Field {
+        /** PREDLOHA.NAZEV */
+        TITLE,
+        /** authors of Marc XML records */
+        AUTHOR,
+        /** subjects of Marc XML records */
+        SUBJECT
+    }
+
+    public TitleIndex() {
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = new FieldWords();
+        }
+    }
+
+    /**
+     * @return the index or {@code null} if it is disabled or not built yet
+     */
+    public static TitleIndex getInstance() {
+        return instance;
+    }
+
+    static void setInstance(TitleIndex index) {
+        instance = index;
+    }
+
+    /**
+     * Indexes the record. Words of the record indexed before are replaced.
+     *
+     * @param recordId record ID
+     * @param title PREDLOHA.NAZEV or {@code null}
+     * @param authors authors of the record
+     * @param subjects subjects of the record
+     */
+    public void add(int recordId, String title, Collection<String> authors, Collection<String> subjects) {
+        String[] titleWords = toWords(Collections.singleton(title));
+        String[] authorWords = toWords(authors);
+        String[] subjectWords = toWords(subjects);
+        lock.writeLock().lock();
+        try {
+            tables[Field.TITLE.ordinal()].replace(recordId, titleWords);
+            tables[Field.AUTHOR.ordinal()].replace(recordId, authorWords);
+            tables[Field.SUBJECT.ordinal()].replace(recordId, subjectWords);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return sorted distinct words of texts
+     */
+    private static String[] toWords(Collection<String> texts) {
+        TreeSet<String> words = new TreeSet<String>();
+        for (String text : texts) {
+            words.addAll(TextNormalizer.tokenize(text));
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    /**
+     * Finds records containing all words of the text in the field.
+     *
+     * @return sorted IDs of records
+     */
+    public int[] search(String text, TitleMatch match, Field field) {
+        long start = System.nanoTime();
+        List<String> queryWords = TextNormalizer.tokenize(text);
+        int[] result = queryWords.isEmpty() ? new int[0] : null;
+        TreeMap<String, Postings> words = tables[field.ordinal()].words;
+        lock.readLock().lock();
+        try {
+            for (String queryWord : queryWords) {
+                int[] ids = match == TitleMatch.FUZZY
+                        ? searchFuzzy(words, queryWord) : searchPrefix(words, queryWord);
+                result = result == null ? ids : intersect(result, ids);
+                if (result.length == 0) {
+                    break;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+            searchCount.incrementAndGet();
+            searchTime.addAndGet(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    private static int[] searchPrefix(TreeMap<String, Postings> words, String prefix) {
+        return union(words.subMap(prefix, prefix + Character.MAX_VALUE).values());
+    }
+
+    /**
+     * Finds words within the distance allowed for the length of the word.
+     * Words have to start with the same letter to avoid the scan of all words.
+     */
+    private static int[] searchFuzzy(TreeMap<String, Postings> words, String word) {
+        int maxDistance = getMaxDistance(word.length());
+        if (maxDistance == 0) {
+            Postings postings = words.get(word);
+            return postings == null ? new int[0] : postings.toArray();
+        }
+        char first = word.charAt(0);
+        SortedMap<String, Postings> candidates = first == Character.MAX_VALUE
+                ? words.tailMap(word.substring(0, 1))
+                : words.subMap(word.substring(0, 1), String.valueOf((char) (first + 1)));
+        List<Postings> matches = new ArrayList<Postings>();
+        for (Map.Entry<String, Postings> entry : candidates.entrySet()) {
+            if (TextNormalizer.distance(word, entry.getKey(), maxDistance) <= maxDistance) {
+                matches.add(entry.getValue());
+            }
+        }
+        return union(matches);
+    }
+
+    /**
+     * @return edits allowed for the word length
+     */
+    static int getMaxDistance(int length) {
+        return length < 4 ? 0 : (length < 8 ? 1 : 2);
+    }
+
+    private static int[] union(Collection<Postings> postingsList) {
+        if (postingsList.size() == 1) {
+            return postingsList.iterator().next().toArray();
+        }
+        int length = 0;
+        for (Postings postings : postingsList) {
+            length += postings.size;
+        }
+        int[] ids = new int[length];
+        int offset = 0;
+        for (Postings postings : postingsList) {
+            System.arraycopy(postings.ids, 0, ids, offset, postings.size);
+            offset += postings.size;
+        }
+        Arrays.sort(ids);
+        int size = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (size == 0 || ids[size - 1] != ids[i]) {
+                ids[size++] = ids[i];
+            }
+        }
+        return size == ids.length ? ids : Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * @return sorted IDs contained in both sorted arrays
+     */
+    static int[] intersect(int[] a, int[] b) {
+        int[] ids = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                ids[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * @return number of indexed words
+     */
+    public int getWordCount() {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for (FieldWords table : tables) {
+                count += table.words.size();
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of indexed records
+     */
+    public int getRecordCount() {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for (int i = 0; i < tables.length; i++) {
+                for (Integer recordId : tables[i].records.keySet()) {
+                    if (!isIndexed(recordId, i)) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return {@code true} if the record has words in any of the fields preceding the field
+     */
+    private boolean isIndexed(Integer recordId, int field) {
+        for (int i = 0; i < field; i++) {
+            if (tables[i].records.containsKey(recordId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return estimated heap size of the index in bytes
+     */
+    public long getMemoryUsage() {
+        lock.readLock().lock();
+        try {
+            // map entries, word strings, postings
+            long bytes = 0;
+            for (FieldWords table : tables) {
+                for (Map.Entry<String, Postings> entry : table.words.entrySet()) {
+                    bytes += 40 + 56 + entry.getKey().length() * 2 + 32 + entry.getValue().ids.length * 4;
+                }
+                // map entries, boxed IDs, word arrays sharing strings of the words map
+                for (String[] recordWords : table.records.values()) {
+                    bytes += 48 + 16 + 16 + recordWords.length * 8;
+                }
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static String toStatistics() {
+        TitleIndex index = instance;
+        long count = searchCount.get();
+        return String.format("TitleIndex[records: %s, words: %s, memory: %s kB, searches: %s, avg time: %.2f ms]",
+                index == null ? -1 : index.getRecordCount(),
+                index == null ? -1 : index.getWordCount(),
+                index == null ? -1 : index.getMemoryUsage() / 1024,
+                count, count == 0 ? 0d : searchTime.get() / 1000000d / count);
+    }
+
+    /**
+     * Words of a field and their records.
+     */
+    private static final class FieldWords {
+
+        private final TreeMap<String, Postings> words = new TreeMap<String, Postings>();
+        private final Map<Integer, String[]> records = new HashMap<Integer, String[]>();
+
+        /**
+         * Replaces words of the record.
+         *
+         * @param newWords sorted words
+         */
+        void replace(int recordId, String[] newWords) {
+            String[] oldWords = newWords.length == 0
+                    ? records.remove(recordId) : records.put(recordId, newWords);
+            if (oldWords != null) {
+                for (String word : oldWords) {
+                    if (Arrays.binarySearch(newWords, word) < 0) {
+                        Postings postings = words.get(word);
+                        postings.remove(recordId);
+                        if (postings.size == 0) {
+                            words.remove(word);
+                        }
+                    }
+                }
+            }
+            for (String word : newWords) {
+                if (oldWords == null || Arrays.binarySearch(oldWords, word) < 0) {
+                    Postings postings = words.get(word);
+                    if (postings == null) {
+                        postings = new Postings();
+                        words.put(word, postings);
+                    }
+                    postings.add(recordId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorted IDs of records containing a word.
+     */
+    private static final class Postings {
+
+        private int[] ids = new int[2];
+        private int size;
+
+        void add(int id) {
+            // records are mostly indexed in order of IDs
+            int index = size == 0 || ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0 && index < size) {
+                return ;
+            }
+            if (index < 0) {
+                index = -index - 1;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+                size--;
+            }
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.transform.MarcFields;
+import java.sql.Date;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.transform.TransformerException;
+
+/**
+ * Builds and refreshes the {@link TitleIndex}. The daily rebuild drops
+ * deleted records. Marc XML records are parsed outside of transactions.
+ *
+ * @author Jan Pokorsky
+ */
+public final class TitleIndexRefresher extends IndexRefresher<TitleIndex> {
+
+    private static final Logger LOG = Logger.getLogger(TitleIndexRefresher.class.getName());
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    /** data fields of authors and subjects */
+    @SuppressWarnings("unchecked")
+    private static final List<Set<String>> FIELD_TAGS = Arrays.asList(
+            MarcFields.AUTHOR_TAGS, MarcFields.SUBJECT_TAGS);
+    /** no authors and no subjects */
+    @SuppressWarnings("unchecked")
+    private static final List<List<String>> NO_FIELDS = Arrays.asList(
+            Collections.<String>emptyList(), Collections.<String>emptyList());
+
+    private final AtomicLong invalidXmlCount = new AtomicLong();
+
+    public TitleIndexRefresher(int batchSize) {
+        super(batchSize);
+    }
+
+    @Override
+    TitleIndex getIndex() {
+        return TitleIndex.getInstance();
+    }
+
+    @Override
+    TitleIndex createIndex() {
+        return new TitleIndex();
+    }
+
+    @Override
+    void publish(TitleIndex index) {
+        TitleIndex.setInstance(index);
+    }
+
+    @Override
+    Chunk indexChunk(TitleIndex index, Date since, int lastId, int maxRecords) throws DataSourceException {
+        TitleSourcesQuery sources = new TitleSourcesQuery(since, lastId, maxRecords);
+        ds.runQuery(sources);
+        List<Integer> ids = sources.getIds();
+        for (int i = 0; i < ids.size(); i++) {
+            List<List<String>> fields = getFields(ids.get(i), sources.getXmls().get(i));
+            index.add(ids.get(i), sources.getTitles().get(i), fields.get(0), fields.get(1));
+        }
+        return sources;
+    }
+
+    /**
+     * @return authors and subjects of the record
+     */
+    private List<List<String>> getFields(int recordId, String xml) {
+        if (xml == null || xml.length() == 0) {
+            return NO_FIELDS;
+        }
+        try {
+            return MarcFields.getSubfieldGroups(xml, FIELD_TAGS, 'a');
+        } catch (TransformerException ex) {
+            // index at least the title
+            invalidXmlCount.incrementAndGet();
+            LOG.log(Level.FINE, String.format("Cannot read Marc XML of record %s.", recordId), ex);
+            return NO_FIELDS;
+        }
+    }
+
+    @Override
+    String getDetails() {
+        return String.format(", invalid xml: %s", invalidXmlCount.get());
+    }
+
+    @Override
+    String getIndexStatistics() {
+        return TitleIndex.toStatistics();
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Selects next chunk of titles and Marc XML records to index. Records are
+ * ordered by PREDLOHA.ID so that the refresh can continue after the last
+ * read ID.
+ *
+ * @author Jan Pokorsky
+ */
+final class TitleSourcesQuery implements ReadOnlyQuery<ResultSet>, IndexRefresher.Chunk {
+
+    private static final Logger LOG = Logger.getLogger(TitleSourcesQuery.class.getName());
+    /** edited since; {@code null} selects all records */
+    private final Date since;
+    private final int lastId;
+    private final int maxResults;
+    private final List<Integer> ids;
+    private final List<String> titles;
+    private final List<String> xmls;
+
+    TitleSourcesQuery(Date since, int lastId, int maxResults) {
+        this.since = since;
+        this.lastId = lastId;
+        this.maxResults = maxResults;
+        this.ids = new ArrayList<Integer>(maxResults);
+        this.titles = new ArrayList<String>(maxResults);
+        this.xmls = new ArrayList<String>(maxResults);
+    }
+
+    List<Integer> getIds() {
+        return ids;
+    }
+
+    List<String> getTitles() {
+        return titles;
+    }
+
+    List<String> getXmls() {
+        return xmls;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public int getLastId() {
+        return ids.get(ids.size() - 1);
+    }
+
+    public void consumeQuery(ResultSet resultSet) throws SQLException {
+        for (int i = 0; i < maxResults && resultSet.next(); i++) {
+            ids.add(resultSet.getInt(1));
+            titles.add(resultSet.getString(2));
+            xmls.add(resultSet.getString(3));
+        }
+    }
+
+    public PreparedStatement prepareStatement(Connection conn) throws SQLException {
+        String query = since == null
+                ? "select id, NAZEV, xml from predloha where id > ? order by id"
+                : "select id, NAZEV, xml from predloha where id > ? and edidate >= ? order by id";
+        PreparedStatement pstmt = conn.prepareStatement(query);
+        pstmt.setMaxRows(maxResults);
+        pstmt.setFetchSize(Math.min(maxResults, GetRecordsQuery.MAX_FETCH_SIZE));
+        pstmt.setInt(1, lastId);
+        if (since == null) {
+            LOG.fine(DbUtils.logQuery(query, lastId));
+        } else {
+            pstmt.setDate(2, since);
+            LOG.fine(DbUtils.logQuery(query, lastId, since));
+        }
+        return pstmt;
+    }
+
+    public Class<ResultSet> getQueryType() {
+        return ResultSet.class;
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs {@link WorkStep steps} of a multi-statement operation in a single
+ * transaction. Steps share prepared statements of the transaction so that
+ * a statement used by several steps is prepared just once. Steps may add
+ * rows to a common {@link #batch batch} that is executed once all steps pass.
+ * <p>Durations of steps are collected per unit name and step name.
+ *
+ * @author Jan Pokorsky
+ */
+public final class UnitOfWork {
+
+    private static final Logger LOG = Logger.getLogger(UnitOfWork.class.getName());
+    /** name of the step executing pending batches */
+    static final String FLUSH_STEP = "flush";
+    /** step durations in microseconds */
+    private static final ConcurrentMap<String, Histogram> STEP_TIMES = new ConcurrentHashMap<String, Histogram>();
+
+    private final String name;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>();
+    private final Set<String> batches = new LinkedHashSet<String>();
+
+    UnitOfWork(String name, Connection connection) {
+        this.name = name;
+        this.connection = connection;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Gets the statement prepared for the SQL in this transaction. Parameters
+     * of a reused statement are cleared.
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement pstmt = statements.get(sql);
+        if (pstmt == null) {
+            pstmt = connection.prepareStatement(sql);
+            statements.put(sql, pstmt);
+        } else {
+            pstmt.clearParameters();
+        }
+        return pstmt;
+    }
+
+    /**
+     * Gets the statement of a batch executed after all steps. Batches run
+     * in order of their first use.
+     */
+    public PreparedStatement batch(String sql) throws SQLException {
+        PreparedStatement pstmt = prepareStatement(sql);
+        batches.add(sql);
+        return pstmt;
+    }
+
+    /**
+     * Executes the pending batch now.
+     *
+     * @return update counts
+     */
+    public int[] executeBatch(String sql) throws SQLException {
+        if (!batches.remove(sql)) {
+            throw new IllegalStateException("No batch: " + sql);
+        }
+        return statements.get(sql).executeBatch();
+    }
+
+    /**
+     * Runs steps and pending batches.
+     *
+     * @return {@code false} if any step requires rollback
+     */
+    boolean run(List<WorkStep> steps) throws SQLException {
+        for (WorkStep step : steps) {
+            long start = System.nanoTime();
+            boolean proceed = step.run(this);
+            record(step.getName(), System.nanoTime() - start);
+            if (!proceed) {
+                LOG.log(Level.FINE, "{0}: rollback by {1}", new Object[] {name, step.getName()});
+                return false;
+            }
+        }
+        flush();
+        return true;
+    }
+
+    void flush() throws SQLException {
+        if (batches.isEmpty()) {
+            return ;
+        }
+        long start = System.nanoTime();
+        for (String sql : batches) {
+            statements.get(sql).executeBatch();
+        }
+        batches.clear();
+        record(FLUSH_STEP, System.nanoTime() - start);
+    }
+
+    /**
+     * Closes statements of the transaction.
+     */
+    void close() {
+        for (PreparedStatement pstmt : statements.values()) {
+            DbUtils.close(pstmt);
+        }
+        statements.clear();
+        batches.clear();
+    }
+
+    private void record(String step, long time) {
+        String key = name + '.' + step;
+        Histogram histogram = STEP_TIMES.get(key);
+        if (histogram == null) {
+            Histogram h = new Histogram();
+            histogram = STEP_TIMES.putIfAbsent(key, h);
+            if (histogram == null) {
+                histogram = h;
+            }
+        }
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(time));
+    }
+
+    /**
+     * @return durations of steps in microseconds
+     */
+    public static Histogram getStepTime(String name, String step) {
+        return STEP_TIMES.get(name + '.' + step);
+    }
+
+    public static String toStatistics() {
+        StringBuilder sb = new StringBuilder("UnitOfWork[step times us:");
+        for (Map.Entry<String, Histogram> entry : STEP_TIMES.entrySet()) {
+            sb.append(String.format("%n  %s {%s}", entry.getKey(), entry.getValue()));
+        }
+        return sb.append(']').toString();
+    }
+
+}
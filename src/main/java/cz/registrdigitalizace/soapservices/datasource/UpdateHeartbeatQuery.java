@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Writes the heartbeat to the primary database.
+ *
+ * @author Jan Pokorsky
+ * @see ReplicaLagProbe
+ */
+final class UpdateHeartbeatQuery implements PreparedQuery<Integer> {
+
+    private final long beat;
+
+    UpdateHeartbeatQuery(long beat) {
+        this.beat = beat;
+    }
+
+    public void consumeQuery(Integer result) throws SQLException {
+        if (result == null || result != 1) {
+            throw new SQLException("Missing row of " + ReplicaLagProbe.TABLE);
+        }
+    }
+
+    public PreparedStatement prepareStatement(Connection conn) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(
+                "update " + ReplicaLagProbe.TABLE + " set BEAT = ? where ID = 1");
+        pstmt.setLong(1, beat);
+        return pstmt;
+    }
+
+    public Class<Integer> getQueryType() {
+        return Integer.class;
+    }
+
+}
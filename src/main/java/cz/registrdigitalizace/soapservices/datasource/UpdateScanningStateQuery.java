@@ -22,21 +22,27 @@ import java.sql.Connection;
 import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Updates digitization state.
+ * Updates digitization state. The update passes only if the record
+ * is still in the old state.
  *
  * @author Jan Pokorsky
  */
 public class UpdateScanningStateQuery implements PreparedQuery<Integer> {
     private static final Logger LOGGER = Logger.getLogger(UpdateScanningStateQuery.class.getName());
+    private static final Map<DigitizationState, String> STATE_CONDITIONS = createStateConditions();
 
     private final int recordId;
     private final DigitizationState newState;
     /** old scanning state used to make optimistic synchronization */
     private final DigitizationState oldState;
-    private DigitizationState currentState;
     /** digitization operator */
     private final String finishUser;
     /** date of finished digitization */
@@ -72,77 +78,29 @@ public class UpdateScanningStateQuery implements PreparedQuery<Integer> {
     }
 
     public PreparedStatement prepareStatement(Connection conn) throws SQLException {
-        // get current digitization state
-        GetRecordStateQuery stateQuery = new GetRecordStateQuery(recordId);
-        PreparedStatement stateStmt = stateQuery.prepareStatement(conn);
-        try {
-            stateQuery.consumeQuery(stateStmt.executeQuery());
-            this.currentState = stateQuery.getState();
-        } finally {
-            stateStmt.close();
+        if (oldState == null) {
+            // no state to compare with => update nothing
+            return null;
         }
-
-        PreparedStatement pstmt;
-        if (newState == DigitizationState.FINISHED) {
-            pstmt = prepareFinishedStateStatement(conn);
-        } else {
-            pstmt = preparePlainChangeStatement(conn);
-        }
-        LOGGER.info(pstmt.toString());
-        return pstmt;
-    }
-
-    private PreparedStatement prepareFinishedStateStatement(Connection conn) throws SQLException {
-        final String query =
-                "update predloha set stavrec=?, findate=?, finuser=?, edidate=?, ediuser=?"
-                + " where id=?"
-                // hack: concurrent modification => update nothing => stavrec='xxx'
-                + (oldState != currentState ? " and stavrec='xxx'" : "");
-
+        // compare and set in a single statement
+        final String query = UpdateScanningStatesWork.getSql(
+                UpdateScanningStatesWork.getShape(newState, oldState));
         PreparedStatement pstmt = conn.prepareStatement(query);
+        pstmt.setPoolable(true);
         int col = 1;
-        String newStateTxt = newState.getDbValue();
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("column: %s, val: %s\n", col, newStateTxt));
-        pstmt.setString(col++, newStateTxt);
-        sb.append(String.format("column: %s, val: %s\n", col, finishDate));
-        pstmt.setDate(col++, finishDate);
-        sb.append(String.format("column: %s, val: %s\n", col, finishUser));
-        pstmt.setString(col++, finishUser);
-        sb.append(String.format("column: %s, val: %s\n", col, editDate));
-        pstmt.setDate(col++, editDate);
-        sb.append(String.format("column: %s, val: %s\n", col, editUser));
-        pstmt.setString(col++, editUser);
-        sb.append(String.format("column: %s, val: %s\n", col, recordId));
-        pstmt.setInt(col++, recordId);
-
-        sb.append(query);
-        LOGGER.fine(sb.toString());
-        return pstmt;
-    }
-
-    private PreparedStatement preparePlainChangeStatement(Connection conn) throws SQLException {
-        final String query = "update predloha set stavrec=?, edidate=?, ediuser=?"
-                + " where id=?"
-                // hack: concurrent modification => update nothing => stavrec='xxx'
-                + (oldState != currentState ? " and stavrec='xxx'" : "");
-        
-        PreparedStatement pstmt = conn.prepareStatement(
-                query);
-        int col = 1;
-        String newStateTxt = newState.getDbValue();
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("column: %s, val: %s\n", col, newStateTxt));
-        pstmt.setString(col++, newStateTxt);
-        sb.append(String.format("column: %s, val: %s\n", col, editDate));
+        pstmt.setString(col++, newState.getDbValue());
+        if (newState == DigitizationState.FINISHED) {
+            pstmt.setDate(col++, finishDate);
+            pstmt.setString(col++, finishUser);
+        }
         pstmt.setDate(col++, editDate);
-        sb.append(String.format("column: %s, val: %s\n", col, editUser));
         pstmt.setString(col++, editUser);
-        sb.append(String.format("column: %s, val: %s\n", col, recordId));
         pstmt.setInt(col++, recordId);
-
-        sb.append(query);
-        LOGGER.fine(sb.toString());
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(newState == DigitizationState.FINISHED
+                    ? DbUtils.logQuery(query, newState, finishDate, finishUser, editDate, editUser, recordId)
+                    : DbUtils.logQuery(query, newState, editDate, editUser, recordId));
+        }
         return pstmt;
     }
 
@@ -157,4 +115,39 @@ public class UpdateScanningStateQuery implements PreparedQuery<Integer> {
         return Integer.class;
     }
 
+    /**
+     * Gets the SQL condition matching all DB values mapped to the state.
+     * {@link DigitizationState#UNDEFINED} matches {@code null} and values
+     * not mapped to any other state.
+     */
+    static String getStateCondition(DigitizationState state) {
+        return STATE_CONDITIONS.get(state);
+    }
+
+    private static Map<DigitizationState, String> createStateConditions() {
+        Map<DigitizationState, String> conditions = new EnumMap<DigitizationState, String>(DigitizationState.class);
+        Set<String> known = new TreeSet<String>();
+        for (DigitizationState state : DigitizationState.values()) {
+            if (state != DigitizationState.UNDEFINED) {
+                Set<String> values = new TreeSet<String>(state.getDbValues());
+                known.addAll(values);
+                conditions.put(state, "stavrec in (" + toSqlList(values) + ")");
+            }
+        }
+        conditions.put(DigitizationState.UNDEFINED,
+                "(stavrec is null or stavrec not in (" + toSqlList(known) + "))");
+        return conditions;
+    }
+
+    private static String toSqlList(Set<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append('\'').append(value.replace("'", "''")).append('\'');
+        }
+        return sb.toString();
+    }
+
 }
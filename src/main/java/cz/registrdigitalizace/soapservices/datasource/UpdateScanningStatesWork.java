@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2011 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.DigitizationState;
+import cz.registrdigitalizace.soapservices.model.RecordStateUpdate;
+import cz.registrdigitalizace.soapservices.model.RecordStateUpdateResult;
+import cz.registrdigitalizace.soapservices.model.RecordStateUpdateResult.Status;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Updates digitization states of many records in a single transaction.
+ * The steps run as a {@link UnitOfWork}: the records are locked while
+ * their states are read, then updates are grouped by the statement they
+ * need and each group runs as a single JDBC batch. Every update is
+ * a conditional UPDATE passing only if the record is still in the old state.
+ * The locked states tell conflicts from missing records and from updates
+ * of drivers not counting rows of batch items.
+ *
+ * @author Jan Pokorsky
+ */
+final class UpdateScanningStatesWork {
+
+    static final String NAME = "updateScanningStates";
+    private static final Logger LOG = Logger.getLogger(UpdateScanningStatesWork.class.getName());
+    /** max number of updates of the query */
+    static final int MAX_UPDATES = GetRecordStatesQuery.MAX_IDS;
+    /** hard coded user making the update */
+    private static final String EDIT_USER = "webservice";
+    /** SQL per old state and FINISHED/other new state */
+    private static final AtomicReferenceArray<String> SHAPE2SQL =
+            new AtomicReferenceArray<String>(DigitizationState.values().length * 2);
+
+    private final List<RecordStateUpdate> updates;
+    private final List<Integer> recordIds;
+    private final int[] updateCounts;
+    /** states of records before the update */
+    private final Map<Integer, DigitizationState> states;
+    private List<RecordStateUpdateResult> results;
+
+    /**
+     * @param updates updates of distinct records, at most {@link #MAX_UPDATES}
+     */
+    UpdateScanningStatesWork(List<RecordStateUpdate> updates) {
+        if (updates.isEmpty() || updates.size() > MAX_UPDATES) {
+            throw new IllegalArgumentException("updates: " + updates.size());
+        }
+        List<Integer> recordIds = new ArrayList<Integer>(updates.size());
+        Set<Integer> unique = new HashSet<Integer>(updates.size() * 2);
+        for (RecordStateUpdate update : updates) {
+            if (!unique.add(update.getRecordId())) {
+                throw new IllegalArgumentException("duplicate recordId: " + update.getRecordId());
+            }
+            recordIds.add(update.getRecordId());
+        }
+        this.updates = updates;
+        this.recordIds = recordIds;
+        this.updateCounts = new int[updates.size()];
+        this.states = new HashMap<Integer, DigitizationState>(updates.size() * 2);
+    }
+
+    /**
+     * @return results in order of updates
+     */
+    public List<RecordStateUpdateResult> getResults() {
+        return results;
+    }
+
+    /**
+     * Runs the updates.
+     */
+    public void run(RegistryDataSource ds) throws DataSourceException {
+        ds.runWork(NAME, getSteps());
+    }
+
+    List<WorkStep> getSteps() {
+        return Arrays.asList(
+                new WorkStep("lockStates") {
+
+                    @Override
+                    public boolean run(UnitOfWork work) throws SQLException {
+                        lockStates(work);
+                        return true;
+                    }
+                },
+                new WorkStep("updateStates") {
+
+                    @Override
+                    public boolean run(UnitOfWork work) throws SQLException {
+                        updateStates(work);
+                        results = createResults();
+                        return true;
+                    }
+                });
+    }
+
+    private void lockStates(UnitOfWork work) throws SQLException {
+        String query = GetRecordStatesQuery.getLockSql(GetRecordStatesQuery.getBucket(recordIds.size()));
+        PreparedStatement pstmt = work.prepareStatement(query);
+        GetRecordStatesQuery.setIds(pstmt, recordIds);
+        ResultSet rs = pstmt.executeQuery();
+        try {
+            GetRecordStatesQuery.readStates(rs, states);
+        } finally {
+            DbUtils.close(rs);
+        }
+    }
+
+    private void updateStates(UnitOfWork work) throws SQLException {
+        Map<Integer, List<Integer>> shape2updates = new LinkedHashMap<Integer, List<Integer>>();
+        for (int i = 0; i < updates.size(); i++) {
+            if (!states.containsKey(updates.get(i).getRecordId())) {
+                // missing record, nothing to update
+                continue;
+            }
+            Integer shape = getShape(updates.get(i));
+            List<Integer> group = shape2updates.get(shape);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                shape2updates.put(shape, group);
+            }
+            group.add(i);
+        }
+        Date editDate = new Date(System.currentTimeMillis());
+        for (Map.Entry<Integer, List<Integer>> entry : shape2updates.entrySet()) {
+            executeBatch(work, entry.getKey(), entry.getValue(), editDate);
+        }
+    }
+
+    private List<RecordStateUpdateResult> createResults() {
+        List<RecordStateUpdateResult> list = new ArrayList<RecordStateUpdateResult>(updates.size());
+        for (int i = 0; i < updates.size(); i++) {
+            RecordStateUpdate update = updates.get(i);
+            DigitizationState state = states.get(update.getRecordId());
+            int count = updateCounts[i];
+            Status status;
+            if (state == null) {
+                status = Status.NOT_FOUND;
+            } else if (count == Statement.SUCCESS_NO_INFO) {
+                // the driver does not count rows of batch items; the record is locked
+                // so the update passed just if it was in the old state
+                status = state == update.getOldState() ? Status.UPDATED : Status.CONFLICT;
+            } else {
+                status = count > 0 ? Status.UPDATED : Status.CONFLICT;
+            }
+            list.add(new RecordStateUpdateResult(update.getRecordId(), status,
+                    status == Status.UPDATED ? update.getNewState() : state));
+        }
+        return list;
+    }
+
+    private void executeBatch(UnitOfWork work, int shape, List<Integer> group, Date editDate) throws SQLException {
+        String query = getSql(shape);
+        PreparedStatement pstmt = work.batch(query);
+        for (Integer i : group) {
+            RecordStateUpdate update = updates.get(i);
+            int col = 1;
+            pstmt.setString(col++, update.getNewState().getDbValue());
+            Date finishDate = null;
+            if (update.getNewState() == DigitizationState.FINISHED) {
+                finishDate = update.getDate() == null ? editDate : new Date(update.getDate().getTime());
+                pstmt.setDate(col++, finishDate);
+                pstmt.setString(col++, update.getUser());
+            }
+            pstmt.setDate(col++, editDate);
+            pstmt.setString(col++, EDIT_USER);
+            pstmt.setInt(col++, update.getRecordId());
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine(finishDate != null
+                        ? DbUtils.logQuery(query, update.getNewState(), finishDate, update.getUser(),
+                                editDate, EDIT_USER, update.getRecordId())
+                        : DbUtils.logQuery(query, update.getNewState(), editDate, EDIT_USER,
+                                update.getRecordId()));
+            }
+            pstmt.addBatch();
+        }
+        int[] counts = work.executeBatch(query);
+        for (int i = 0; i < counts.length; i++) {
+            updateCounts[group.get(i)] = counts[i];
+        }
+    }
+
+    static int getShape(RecordStateUpdate update) {
+        return getShape(update.getNewState(), update.getOldState());
+    }
+
+    static int getShape(DigitizationState newState, DigitizationState oldState) {
+        return oldState.ordinal() * 2 + (newState == DigitizationState.FINISHED ? 1 : 0);
+    }
+
+    static String getSql(int shape) {
+        String sql = SHAPE2SQL.get(shape);
+        if (sql == null) {
+            DigitizationState oldState = DigitizationState.values()[shape / 2];
+            boolean finished = shape % 2 == 1;
+            sql = "update predloha set stavrec=?"
+                    + (finished ? ", findate=?, finuser=?" : "")
+                    + ", edidate=?, ediuser=? where id=? and "
+                    + UpdateScanningStateQuery.getStateCondition(oldState);
+            SHAPE2SQL.set(shape, sql);
+        }
+        return sql;
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Updates/Inserts items to URNNBN of given PREDLOHA.ID. The steps run
+ * as a {@link UnitOfWork}: the record check, the exclusion of existing
+ * items (add) or the diff with existing rows (set) and the insert.
+ * Deletes and inserts are batched and executed after all steps.
+ * <p>IDs of all given items are allocated before the transaction opens.
+ * IDs of items that are not inserted go back to the {@link UrnNbnIdAllocator}.
+ *
+ * @author Jan Pokorsky
+ */
+public final class UpdateUrnNbnWork {
+
+    static final String NAME = "updateUrnNbn";
+    static final String SQL_EXIST_RECORD = "select id from predloha where id=?";
+    static final String SQL_SELECT_URNNBN = "select ID, urnnbn, RPredloha_URNNBNMF from URNNBN where RPredloha_URNNBN=?";
+    static final String SQL_DELETE_URNNBN = "DELETE FROM URNNBN WHERE ID=?";
+    static final String SQL_FLAG_URNNBN = "UPDATE URNNBN SET RPredloha_URNNBNMF=1 WHERE ID=?";
+    static final String SQL_INSERT_URNNBN = "INSERT INTO URNNBN (ID, RPredloha_URNNBN, urnnbn, awardDate, RPredloha_URNNBNMF) VALUES (?,?,?,?,?)";
+
+    private static final Logger LOG = Logger.getLogger(UpdateUrnNbnWork.class.getName());
+    private final int predlohaId;
+    private final Set<String> urnNbns;
+    private final Date allocDate;
+    /** add ({@code true}) or set ({@code false}) urnNbns */
+    private final boolean addItems;
+    /** allocates IDs of inserted rows */
+    private UrnNbnIdAllocator idAllocator = UrnNbnIdAllocator.getInstance();
+    /** IDs allocated for all given items */
+    private int[] ids;
+    /** number of IDs used by inserts */
+    private int usedIds;
+    /** reliefFlag of the first inserted item */
+    private int reliefFlag;
+
+    public UpdateUrnNbnWork(int predlohaId, Set<String> urnNbns, java.util.Date allocDate, boolean addItems) {
+        this.predlohaId = predlohaId;
+        this.urnNbns = urnNbns;
+        this.allocDate = (allocDate != null)
+                ? new Date(allocDate.getTime()) : new Date(System.currentTimeMillis());
+        this.addItems = addItems;
+
+        // remove nulls
+        for (Iterator<String> it = urnNbns.iterator(); it.hasNext();) {
+            String u = it.next();
+            if (u == null) {
+                it.remove();
+            }
+        }
+    }
+
+    void setIdAllocator(UrnNbnIdAllocator idAllocator) {
+        this.idAllocator = idAllocator;
+    }
+
+    /**
+     * Runs the update.
+     *
+     * @return {@code true} when the update passes or {@code false} if there is no such record
+     */
+    public boolean run(RegistryDataSource ds) throws DataSourceException {
+        // steps remove existing items so there cannot be more inserts
+        ids = idAllocator.allocate(urnNbns.size());
+        usedIds = 0;
+        try {
+            return ds.runWork(NAME, getSteps());
+        } finally {
+            idAllocator.release(ids, usedIds);
+        }
+    }
+
+    List<WorkStep> getSteps() {
+        return Arrays.asList(
+                new WorkStep("existRecord") {
+
+                    @Override
+                    public boolean run(UnitOfWork work) throws SQLException {
+                        return existRecord(work, predlohaId);
+                    }
+                },
+                new WorkStep(addItems ? "excludeUrnNbns" : "diffUrnNbns") {
+
+                    @Override
+                    public boolean run(UnitOfWork work) throws SQLException {
+                        // reliefFlag signals to set RPredloha_URNNBNMF = 1 for exactly one urnNbn per given predlohaId
+                        if (addItems) {
+                            reliefFlag = exludeUrnNbns(work, predlohaId, urnNbns) ? 0 : 1;
+                        } else {
+                            reliefFlag = diffUrnNbns(work, predlohaId, urnNbns);
+                        }
+                        return true;
+                    }
+                },
+                new WorkStep("insertUrnNbns") {
+
+                    @Override
+                    public boolean run(UnitOfWork work) throws SQLException {
+                        insertUrnNbns(work);
+                        return true;
+                    }
+                });
+    }
+
+    private void insertUrnNbns(UnitOfWork work) throws SQLException {
+        if (urnNbns.isEmpty()) {
+            return ;
+        }
+        if (ids == null || ids.length < urnNbns.size()) {
+            throw new IllegalStateException("IDs not allocated");
+        }
+        int idIndex = 0;
+        usedIds = urnNbns.size();
+        int flag = reliefFlag;
+        PreparedStatement pstmt = work.batch(SQL_INSERT_URNNBN);
+        for (String urnNbn : urnNbns) {
+            int column = 1;
+            int id = ids[idIndex++];
+            pstmt.setInt(column++, id);
+            pstmt.setInt(column++, predlohaId);
+            pstmt.setString(column++, urnNbn);
+            pstmt.setDate(column++, allocDate);
+            pstmt.setInt(column++, flag);
+            logQuery(SQL_INSERT_URNNBN, id, predlohaId, urnNbn, allocDate, flag);
+            flag = 0;
+            pstmt.addBatch();
+        }
+    }
+
+    static boolean exludeUrnNbns(UnitOfWork work, int predlohaId, Set<String> items) throws SQLException {
+        PreparedStatement pstmt = work.prepareStatement(SQL_SELECT_URNNBN);
+        pstmt.setInt(1, predlohaId);
+        logQuery(SQL_SELECT_URNNBN, predlohaId);
+        ResultSet rs = pstmt.executeQuery();
+        try {
+            boolean anyExclude = false;
+            while (rs.next()) {
+                String urnNbn = rs.getString(2);
+                boolean removed = items.remove(urnNbn);
+                LOG.log(Level.FINE, "exclude: {0}, excluded: {1}", new Object[] {urnNbn, removed});
+                anyExclude = true;
+            }
+            return anyExclude;
+        } finally {
+            DbUtils.close(rs);
+        }
+    }
+
+    /**
+     * Reduces items to the ones missing in the DB and deletes rows
+     * not contained in items. The flag RPredloha_URNNBNMF stays where it is
+     * unless its row is deleted. Then it moves to the first item.
+     *
+     * @return reliefFlag of the first inserted item
+     */
+    static int diffUrnNbns(UnitOfWork work, int predlohaId, Set<String> items) throws SQLException {
+        String first = items.isEmpty() ? null : items.iterator().next();
+        Map<String, Integer> existing = new HashMap<String, Integer>();
+        List<Integer> deletes = new ArrayList<Integer>();
+        boolean flagKept = false;
+        PreparedStatement pstmt = work.prepareStatement(SQL_SELECT_URNNBN);
+        pstmt.setInt(1, predlohaId);
+        logQuery(SQL_SELECT_URNNBN, predlohaId);
+        ResultSet rs = pstmt.executeQuery();
+        try {
+            while (rs.next()) {
+                int id = rs.getInt(1);
+                String urnNbn = rs.getString(2);
+                if (items.contains(urnNbn) && !existing.containsKey(urnNbn)) {
+                    existing.put(urnNbn, id);
+                    flagKept |= rs.getInt(3) == 1;
+                } else {
+                    deletes.add(id);
+                }
+            }
+        } finally {
+            DbUtils.close(rs);
+        }
+        deleteUrnNbns(work, deletes);
+        items.removeAll(existing.keySet());
+        LOG.log(Level.FINE, "record: {0}, kept: {1}, deleted: {2}, inserted: {3}",
+                new Object[] {predlohaId, existing.size(), deletes.size(), items.size()});
+        if (flagKept || first == null) {
+            return 0;
+        }
+        Integer firstId = existing.get(first);
+        if (firstId == null) {
+            // the first item is inserted
+            return 1;
+        }
+        flagUrnNbn(work, firstId);
+        return 0;
+    }
+
+    static void deleteUrnNbns(UnitOfWork work, List<Integer> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return ;
+        }
+        PreparedStatement pstmt = work.batch(SQL_DELETE_URNNBN);
+        for (Integer id : ids) {
+            pstmt.setInt(1, id);
+            logQuery(SQL_DELETE_URNNBN, id);
+            pstmt.addBatch();
+        }
+    }
+
+    static void flagUrnNbn(UnitOfWork work, int id) throws SQLException {
+        PreparedStatement pstmt = work.prepareStatement(SQL_FLAG_URNNBN);
+        pstmt.setInt(1, id);
+        logQuery(SQL_FLAG_URNNBN, id);
+        pstmt.executeUpdate();
+    }
+
+    static boolean existRecord(UnitOfWork work, int recordId) throws SQLException {
+        PreparedStatement pstmt = work.prepareStatement(SQL_EXIST_RECORD);
+        pstmt.setInt(1, recordId);
+        ResultSet rs = pstmt.executeQuery();
+        try {
+            return rs.next();
+        } finally {
+            DbUtils.close(rs);
+        }
+    }
+
+    static void logQuery(String query, Object... params) {
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine(DbUtils.logQuery(query, params));
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Allocates IDs of URNNBN rows. IDs are reserved in blocks with a short
+ * transaction locking the {@code PLAANT_IDS} row just for the reservation.
+ * Then they are handed out from memory. Other applications sharing the row
+ * keep working as the row always holds the last reserved ID.
+ * <p>The reservation runs on its own connection so that a query allocating
+ * IDs does not hold the row lock until it commits. Writers allocate IDs
+ * before they open their transaction. A writer holding a pooled connection
+ * while the reservation waits for another one would deadlock a saturated
+ * pool. Writers return IDs they did not use, and those IDs are handed
+ * out again. A request for more IDs than the block holds reserves all
+ * missing IDs with a single transaction.
+ * <p>IDs of a block not handed out before the service stops are lost.
+ * The block size 1 reserves every ID in the DB.
+ *
+ * @author Jan Pokorsky
+ */
+public class UrnNbnIdAllocator {
+
+    public static final int DEFAULT_BLOCK_SIZE = 50;
+
+    private static final Logger LOG = Logger.getLogger(UrnNbnIdAllocator.class.getName());
+    private static final UrnNbnIdAllocator INSTANCE = new UrnNbnIdAllocator();
+
+    private volatile int blockSize = DEFAULT_BLOCK_SIZE;
+    private volatile Block block;
+    /** IDs allocated but not used by writers */
+    private final Queue<Integer> released = new ConcurrentLinkedQueue<Integer>();
+    private final AtomicLong reserveCount = new AtomicLong();
+    private final AtomicLong allocateCount = new AtomicLong();
+
+    public static UrnNbnIdAllocator getInstance() {
+        return INSTANCE;
+    }
+
+    UrnNbnIdAllocator() {
+    }
+
+    /**
+     * Sets number of IDs reserved by a single transaction.
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Allocates unique IDs. The IDs are not necessarily consecutive.
+     *
+     * @param count number of IDs
+     * @return IDs
+     */
+    public int[] allocate(int count) throws DataSourceException {
+        int[] ids = new int[count];
+        int taken = 0;
+        try {
+            for (Integer id; taken < count && (id = released.poll()) != null;) {
+                ids[taken++] = id;
+            }
+            while (taken < count) {
+                Block b = block;
+                if (b != null) {
+                    taken = b.take(ids, taken);
+                }
+                if (taken < count) {
+                    synchronized (this) {
+                        if (block == b) {
+                            taken = reserve(ids, taken);
+                        }
+                    }
+                }
+            }
+        } catch (DataSourceException ex) {
+            // do not lose IDs taken before the reservation failed
+            for (int i = 0; i < taken; i++) {
+                released.add(ids[i]);
+            }
+            throw ex;
+        }
+        allocateCount.addAndGet(count);
+        return ids;
+    }
+
+    /**
+     * Allocates an unique ID.
+     */
+    public int allocate() throws DataSourceException {
+        return allocate(1)[0];
+    }
+
+    /**
+     * Reserves missing IDs and at least the block size. IDs not taken
+     * make the next block.
+     *
+     * @return number of taken IDs
+     */
+    private int reserve(int[] ids, int taken) throws DataSourceException {
+        int missing = ids.length - taken;
+        int size = Math.max(missing, blockSize);
+        int first = reserve(size);
+        int last = first + size - 1;
+        for (int i = 0; i < missing; i++) {
+            ids[taken++] = first + i;
+        }
+        block = new Block(first + missing, last);
+        reserveCount.incrementAndGet();
+        LOG.log(Level.FINE, "Reserved URNNBN IDs {0}-{1}", new Object[] {first, last});
+        return taken;
+    }
+
+    /**
+     * Returns allocated IDs that were not inserted so that they are allocated again.
+     *
+     * @param ids allocated IDs
+     * @param from index of the first unused ID
+     */
+    public void release(int[] ids, int from) {
+        for (int i = from; i < ids.length; i++) {
+            released.add(ids[i]);
+        }
+        allocateCount.addAndGet(from - ids.length);
+    }
+
+    /**
+     * Reserves the block of IDs in the DB.
+     *
+     * @return the first ID of the block
+     */
+    int reserve(int size) throws DataSourceException {
+        ReservePlaantIdsWork work = new ReservePlaantIdsWork(PlaantIdQuery.PLAANT_URNNBN_ID, size);
+        return work.run(new RegistryDataSource());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("UrnNbnIdAllocator[blockSize: %s, reserved blocks: %s, allocated IDs: %s]",
+                blockSize, reserveCount.get(), allocateCount.get());
+    }
+
+    private static final class Block {
+
+        final AtomicInteger next;
+        final int last;
+
+        Block(int first, int last) {
+            this.next = new AtomicInteger(first);
+            this.last = last;
+        }
+
+        /**
+         * Takes free IDs of the block.
+         *
+         * @return number of taken IDs
+         */
+        int take(int[] ids, int taken) {
+            while (taken < ids.length) {
+                int id = next.getAndIncrement();
+                if (id > last) {
+                    break;
+                }
+                ids[taken++] = id;
+            }
+            return taken;
+        }
+    }
+
+}
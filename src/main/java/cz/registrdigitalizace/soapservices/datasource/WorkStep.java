@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.SQLException;
+
+/**
+ * A named step of a {@link UnitOfWork}.
+ *
+ * @author Jan Pokorsky
+ */
+public abstract class WorkStep {
+
+    private final String name;
+
+    protected WorkStep(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Runs the step.
+     *
+     * @return {@code false} to rollback the unit of work and skip remaining steps
+     */
+    public abstract boolean run(UnitOfWork work) throws SQLException;
+
+}
@@ -18,6 +18,7 @@
 package cz.registrdigitalizace.soapservices.model;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -47,7 +48,7 @@ public enum DigitizationState {
         if (fromDbValues == null || fromDbValues.length == 0) {
             throw new IllegalArgumentException();
         }
-        this.dbValues = new HashSet<String>(Arrays.asList(fromDbValues));
+        this.dbValues = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(fromDbValues)));
         this.toDbValue = toDbValue;
     }
 
@@ -59,6 +60,15 @@ public enum DigitizationState {
         return toDbValue;
     }
 
+    /**
+     * Gets all values of Relief DB mapped to the enum constant.
+     * @return unmodifiable set of values
+     * @since 1.3
+     */
+    public Set<String> getDbValues() {
+        return dbValues;
+    }
+
     /**
      * Maps Relief DB states (PREDLOHA.STAVREC) to enum constants.
      */
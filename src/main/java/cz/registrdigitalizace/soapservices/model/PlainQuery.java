@@ -52,6 +52,23 @@ public final class PlainQuery {
 
 
     private String pole001;
+    /**
+     * match of the title; {@code null} stands for {@link TitleMatch#EXACT}
+     * @since 1.3
+     */
+    private TitleMatch titleMatch;
+    /**
+     * words of authors of the Marc XML; searched just with
+     * {@link TitleMatch#PREFIX} or {@link TitleMatch#FUZZY} title match
+     * @since 1.3
+     */
+    private String author;
+    /**
+     * words of subjects of the Marc XML; searched just with
+     * {@link TitleMatch#PREFIX} or {@link TitleMatch#FUZZY} title match
+     * @since 1.3
+     */
+    private String subject;
 
     public String getBarcode() {
         return barcode;
@@ -133,4 +150,46 @@ public final class PlainQuery {
      */
     public void setPole001(String pole001) {this.pole001 = pole001;}
 
+    /**
+     * @since 1.3
+     */
+    public TitleMatch getTitleMatch() {
+        return titleMatch;
+    }
+
+    /**
+     * @since 1.3
+     */
+    public void setTitleMatch(TitleMatch titleMatch) {
+        this.titleMatch = titleMatch;
+    }
+
+    /**
+     * @since 1.3
+     */
+    public String getAuthor() {
+        return author;
+    }
+
+    /**
+     * @since 1.3
+     */
+    public void setAuthor(String author) {
+        this.author = author;
+    }
+
+    /**
+     * @since 1.3
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * @since 1.3
+     */
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Page of records ordered by record ID.
+ *
+ * @author Jan Pokorsky
+ * @since 1.3
+ */
+@XmlType(propOrder={"records", "nextCursor", "totalCount"})
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class RecordPage {
+
+    @XmlElement(name="record")
+    private List<DigitizationRecord> records = new ArrayList<DigitizationRecord>();
+    /** opaque cursor of the next page; {@code null} for the last page */
+    private String nextCursor;
+    /** number of all matching records if requested */
+    private Integer totalCount;
+
+    public List<DigitizationRecord> getRecords() {
+        return records;
+    }
+
+    public void setRecords(List<DigitizationRecord> records) {
+        this.records = records;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public Integer getTotalCount() {
+        return totalCount;
+    }
+
+    public void setTotalCount(Integer totalCount) {
+        this.totalCount = totalCount;
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.model;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Scanning state of a record.
+ *
+ * @author Jan Pokorsky
+ * @since 1.3
+ */
+@XmlType(propOrder={"recordId", "found", "state"})
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class RecordState {
+
+    @XmlElement(required=true)
+    private int recordId;
+    /** {@code false} if there is no such record */
+    @XmlElement(required=true)
+    private boolean found;
+    /** state of the found record */
+    private DigitizationState state;
+
+    public RecordState() {
+    }
+
+    public RecordState(int recordId, DigitizationState state) {
+        this.recordId = recordId;
+        this.found = state != null;
+        this.state = state;
+    }
+
+    public int getRecordId() {
+        return recordId;
+    }
+
+    public void setRecordId(int recordId) {
+        this.recordId = recordId;
+    }
+
+    public boolean isFound() {
+        return found;
+    }
+
+    public void setFound(boolean found) {
+        this.found = found;
+    }
+
+    public DigitizationState getState() {
+        return state;
+    }
+
+    public void setState(DigitizationState state) {
+        this.state = state;
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.model;
+
+import java.util.Date;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Requested change of the digitization state of a record.
+ *
+ * @author Jan Pokorsky
+ * @since 1.3
+ */
+@XmlType(propOrder={"recordId", "newState", "oldState", "user", "date"})
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class RecordStateUpdate {
+
+    @XmlElement(required=true)
+    private int recordId;
+    @XmlElement(required=true)
+    private DigitizationState newState;
+    /** state read by the client; the update passes only if it still holds */
+    @XmlElement(required=true)
+    private DigitizationState oldState;
+    /** scanner operator; required for {@link DigitizationState#FINISHED} */
+    private String user;
+    /** scanning date or {@code null} for the present date */
+    private Date date;
+
+    public RecordStateUpdate() {
+    }
+
+    public RecordStateUpdate(int recordId, DigitizationState newState,
+            DigitizationState oldState, String user, Date date) {
+        this.recordId = recordId;
+        this.newState = newState;
+        this.oldState = oldState;
+        this.user = user;
+        this.date = date;
+    }
+
+    public int getRecordId() {
+        return recordId;
+    }
+
+    public void setRecordId(int recordId) {
+        this.recordId = recordId;
+    }
+
+    public DigitizationState getNewState() {
+        return newState;
+    }
+
+    public void setNewState(DigitizationState newState) {
+        this.newState = newState;
+    }
+
+    public DigitizationState getOldState() {
+        return oldState;
+    }
+
+    public void setOldState(DigitizationState oldState) {
+        this.oldState = oldState;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public void setDate(Date date) {
+        this.date = date;
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.model;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Result of a {@link RecordStateUpdate}.
+ *
+ * @author Jan Pokorsky
+ * @since 1.3
+ */
+@XmlType(propOrder={"recordId", "status", "state"})
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class RecordStateUpdateResult {
+
+    /** Outcome of the update. */
+    public enum Status {
+        /** The state has been changed. */
+        UPDATED,
+        /** The old state has been modified by someone else in the meantime. */
+        CONFLICT,
+        /** There is no such record. */
+        NOT_FOUND
+    }
+
+    @XmlElement(required=true)
+    private int recordId;
+    @XmlElement(required=true)
+    private Status status;
+    /** state of the record after the update; {@code null} if not found */
+    private DigitizationState state;
+
+    public RecordStateUpdateResult() {
+    }
+
+    public RecordStateUpdateResult(int recordId, Status status, DigitizationState state) {
+        this.recordId = recordId;
+        this.status = status;
+        this.state = state;
+    }
+
+    public int getRecordId() {
+        return recordId;
+    }
+
+    public void setRecordId(int recordId) {
+        this.recordId = recordId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public DigitizationState getState() {
+        return state;
+    }
+
+    public void setState(DigitizationState state) {
+        this.state = state;
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * URN:NBNs of a record.
+ *
+ * @author Jan Pokorsky
+ * @since 1.3
+ */
+@XmlType(propOrder={"recordId", "urnNbns"})
+@XmlAccessorType(XmlAccessType.FIELD)
+public final class RecordUrnNbn {
+
+    @XmlElement(required=true)
+    private int recordId;
+    @XmlElement(name="urnNbn")
+    private List<String> urnNbns = new ArrayList<String>();
+
+    public RecordUrnNbn() {
+    }
+
+    public RecordUrnNbn(int recordId, List<String> urnNbns) {
+        this.recordId = recordId;
+        this.urnNbns = urnNbns;
+    }
+
+    public int getRecordId() {
+        return recordId;
+    }
+
+    public void setRecordId(int recordId) {
+        this.recordId = recordId;
+    }
+
+    public List<String> getUrnNbns() {
+        return urnNbns;
+    }
+
+    public void setUrnNbns(List<String> urnNbns) {
+        this.urnNbns = urnNbns;
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2011 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.model;
+
+/**
+ * How {@link PlainQuery#getTitle() title}, {@link PlainQuery#getAuthor() author}
+ * and {@link PlainQuery#getSubject() subject} of the query match records.
+ * Authors and subjects are searched just with {@link #PREFIX} and {@link #FUZZY}.
+ *
+ * @author Jan Pokorsky
+ * @since 1.3
+ */
+public enum TitleMatch {
+    /** PREDLOHA.NAZEV equals the title */
+    EXACT,
+    /**
+     * each word of the text is a prefix of a word of the record field;
+     * case and diacritics are ignored
+     */
+    PREFIX,
+    /**
+     * each word of the text matches a word of the record field with
+     * a typo or two; case and diacritics are ignored
+     */
+    FUZZY;
+}
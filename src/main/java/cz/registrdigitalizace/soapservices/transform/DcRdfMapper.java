@@ -0,0 +1,622 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Maps Marc XML to RDF/DC without XSLT. It reads the document with StAX
+ * and writes the same output as {@code MARC21slim2RDFDC.xsl} serialized
+ * by XSLTC, including the XPath quirks of the stylesheet (numeric
+ * comparison of tags, the first text node of subfields, ...).
+ * <p>The mapper accepts {@link MarcSource} and {@link StreamSource} with
+ * a reader or an input stream. Other sources have to be transformed
+ * with the stylesheet.
+ *
+ * @author Jan Pokorsky
+ */
+final class DcRdfMapper {
+
+    static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+    static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+    private static final String DESCRIPTION_START = "<rdf:Description xmlns:dc=\"" + DC_NS
+            + "\" xmlns:rdf=\"" + RDF_NS + "\">";
+    private static final String DESCRIPTION_END = "</rdf:Description>";
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n");
+
+    private static final int[] CREATOR_TAGS = {100, 110, 111, 700, 710, 711, 720};
+    private static final int[] SUBJECT_TAGS = {600, 610, 611, 630, 650, 653};
+    private static final int[] RELATION_TAGS = {760, 762, 765, 767, 770, 772, 773, 774, 775,
+            776, 777, 780, 785, 786, 787};
+
+    private static final XMLInputFactory INPUT_FACTORY;
+
+    static {
+        INPUT_FACTORY = XMLInputFactory.newInstance();
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    }
+
+    static boolean accepts(Source input) {
+        if (input instanceof MarcSource) {
+            return true;
+        }
+        if (input instanceof StreamSource) {
+            StreamSource stream = (StreamSource) input;
+            return stream.getReader() != null || stream.getInputStream() != null;
+        }
+        return false;
+    }
+
+    /**
+     * Writes RDF/DC of records of the input in UTF-8.
+     */
+    void map(Source input, OutputStream output) throws TransformerException {
+        XMLStreamReader reader = null;
+        try {
+            reader = createReader(input);
+            Writer writer = new OutputStreamWriter(output, "UTF-8");
+            new Mapping(reader, writer).run();
+            writer.flush();
+        } catch (XMLStreamException ex) {
+            throw new TransformerException(ex);
+        } catch (IOException ex) {
+            throw new TransformerException(ex);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static XMLStreamReader createReader(Source input) throws XMLStreamException, TransformerException {
+        if (input instanceof MarcSource) {
+            return INPUT_FACTORY.createXMLStreamReader(
+                    ((MarcSource) input).getInputSource().getCharacterStream());
+        } else if (input instanceof StreamSource) {
+            StreamSource stream = (StreamSource) input;
+            if (stream.getReader() != null) {
+                return INPUT_FACTORY.createXMLStreamReader(stream.getSystemId(), stream.getReader());
+            } else if (stream.getInputStream() != null) {
+                return INPUT_FACTORY.createXMLStreamReader(stream.getSystemId(), stream.getInputStream());
+            }
+        }
+        throw new TransformerException("Unsupported source: " + input);
+    }
+
+    /**
+     * Evaluates XPath {@code number()} of the tag.
+     *
+     * @return the number or {@link Double#NaN}
+     */
+    static double parseTag(String tag) {
+        if (tag == null) {
+            return Double.NaN;
+        }
+        String s = trimXmlWhitespace(tag);
+        int length = s.length();
+        int i = 0;
+        if (i < length && s.charAt(i) == '-') {
+            i++;
+        }
+        boolean digits = false;
+        boolean dot = false;
+        for (; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                return Double.NaN;
+            }
+        }
+        return digits ? Double.parseDouble(s) : Double.NaN;
+    }
+
+    private static String trimXmlWhitespace(String s) {
+        int start = 0;
+        int end = s.length();
+        while (start < end && isXmlWhitespace(s.charAt(start))) {
+            start++;
+        }
+        while (end > start && isXmlWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        return s.substring(start, end);
+    }
+
+    private static boolean isXmlWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    /**
+     * Evaluates XPath {@code substring(s, start, length)} for positive integers.
+     */
+    static String substring(String s, int start, int length) {
+        if (s == null || start > s.length()) {
+            return "";
+        }
+        return s.substring(start - 1, Math.min(s.length(), start - 1 + length));
+    }
+
+    private static boolean contains(int[] tags, double tag) {
+        for (int t : tags) {
+            if (t == tag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marc datafield.
+     */
+    static final class DataField {
+
+        final double tag;
+        /** string value of the field */
+        final StringBuilder value = new StringBuilder();
+        final List<SubField> subfields = new ArrayList<SubField>();
+
+        DataField(double tag) {
+            this.tag = tag;
+        }
+
+        /**
+         * Implements {@code subfieldSelect} template of {@code MARC21slimUtils.xsl}.
+         */
+        String select(String codes) {
+            StringBuilder sb = new StringBuilder();
+            for (SubField subfield : subfields) {
+                if (codes.contains(subfield.code)) {
+                    sb.append(subfield.firstText).append(' ');
+                }
+            }
+            if (sb.length() > 0) {
+                sb.setLength(sb.length() - 1);
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @return string value of the first subfield with the code
+         */
+        String first(String code) {
+            for (SubField subfield : subfields) {
+                if (code.equals(subfield.code)) {
+                    return subfield.value.toString();
+                }
+            }
+            return "";
+        }
+
+        boolean is(int tag) {
+            return this.tag == tag;
+        }
+    }
+
+    /**
+     * Marc subfield.
+     */
+    static final class SubField {
+
+        final String code;
+        /** string value of the subfield */
+        final StringBuilder value = new StringBuilder();
+        /** the first text node; XPath {@code text()} */
+        final StringBuilder firstText = new StringBuilder();
+
+        SubField(String code) {
+            this.code = code == null ? "" : code;
+        }
+    }
+
+    /**
+     * Maps a single document.
+     */
+    private static final class Mapping {
+
+        private final XMLStreamReader reader;
+        private final Writer writer;
+        /** elements without name space are Marc elements; see MarcNamespaceFilter */
+        private boolean fixNamespace;
+        private boolean prevText;
+
+        Mapping(XMLStreamReader reader, Writer writer) {
+            this.reader = reader;
+            this.writer = writer;
+        }
+
+        void run() throws XMLStreamException, IOException {
+            writer.write(XML_DECLARATION);
+            for (int depth = 0; reader.hasNext();) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (depth == 0) {
+                        String localName = reader.getLocalName();
+                        fixNamespace = isEmpty(reader.getNamespaceURI()) && isEmpty(reader.getPrefix())
+                                && ("collection".equals(localName) || "record".equals(localName));
+                    }
+                    if (isMarc("record")) {
+                        writeRecord(readRecord());
+                    } else {
+                        depth++;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                } else if (isText(event) && depth > 0 && reader.getTextLength() > 0) {
+                    // built-in template copies text outside of records
+                    writeText(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    prevText = true;
+                }
+            }
+            if (!prevText) {
+                writer.write(LINE_SEPARATOR);
+            }
+        }
+
+        private boolean isMarc(String localName) {
+            if (!localName.equals(reader.getLocalName())) {
+                return false;
+            }
+            String ns = reader.getNamespaceURI();
+            return MarcNamespaceFilter.MARC_NS.equals(ns) || fixNamespace && isEmpty(ns);
+        }
+
+        private Record readRecord() throws XMLStreamException {
+            Record record = new Record();
+            for (int depth = 1; depth > 0;) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (depth == 1) {
+                        if (isMarc("datafield")) {
+                            record.fields.add(readDataField());
+                            continue;
+                        } else if (isMarc("leader")) {
+                            String leader = readStringValue();
+                            if (record.leader == null) {
+                                record.leader = leader;
+                            }
+                            continue;
+                        } else if (isMarc("controlfield")
+                                && parseTag(reader.getAttributeValue(null, "tag")) == 8) {
+                            String field008 = readStringValue();
+                            if (record.field008 == null) {
+                                record.field008 = field008;
+                            }
+                            continue;
+                        }
+                    }
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+            return record;
+        }
+
+        private DataField readDataField() throws XMLStreamException {
+            DataField field = new DataField(parseTag(reader.getAttributeValue(null, "tag")));
+            for (int depth = 1; depth > 0;) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (depth == 1 && isMarc("subfield")) {
+                        SubField subfield = readSubField();
+                        field.subfields.add(subfield);
+                        field.value.append(subfield.value);
+                    } else {
+                        depth++;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                } else if (isText(event)) {
+                    appendText(field.value);
+                }
+            }
+            return field;
+        }
+
+        private SubField readSubField() throws XMLStreamException {
+            SubField subfield = new SubField(reader.getAttributeValue(null, "code"));
+            // 0: before the first text node, 1: inside, 2: after
+            int firstTextState = 0;
+            for (int depth = 1; depth > 0;) {
+                int event = reader.next();
+                if (isText(event)) {
+                    appendText(subfield.value);
+                    if (depth == 1 && firstTextState < 2) {
+                        appendText(subfield.firstText);
+                        firstTextState = 1;
+                    }
+                } else {
+                    if (firstTextState == 1) {
+                        firstTextState = 2;
+                    }
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+                }
+            }
+            return subfield;
+        }
+
+        /**
+         * Reads the string value of the current element.
+         */
+        private String readStringValue() throws XMLStreamException {
+            StringBuilder sb = new StringBuilder();
+            for (int depth = 1; depth > 0;) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                } else if (isText(event)) {
+                    appendText(sb);
+                }
+            }
+            return sb.toString();
+        }
+
+        private void appendText(StringBuilder sb) {
+            sb.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        }
+
+        private void writeRecord(Record record) throws IOException {
+            writer.write(DESCRIPTION_START);
+            prevText = false;
+            List<DataField> fields = record.fields;
+            for (DataField field : fields) {
+                if (field.is(245)) {
+                    writeElement("dc:title", field.select("abfghk"));
+                }
+            }
+            for (DataField field : fields) {
+                if (contains(CREATOR_TAGS, field.tag)) {
+                    writeElement("dc:creator", field.value);
+                }
+            }
+            writeElement("dc:type", record.getType());
+            for (DataField field : fields) {
+                if (field.is(655)) {
+                    writeElement("dc:type", field.value);
+                }
+            }
+            for (DataField field : fields) {
+                if (field.is(260)) {
+                    writeElement("dc:publisher", field.select("ab"));
+                }
+            }
+            for (DataField field : fields) {
+                if (field.is(260)) {
+                    for (SubField subfield : field.subfields) {
+                        if ("c".equals(subfield.code)) {
+                            writeElement("dc:date", subfield.value);
+                        }
+                    }
+                }
+            }
+            writeElement("dc:language", substring(record.field008, 36, 3));
+            for (DataField field : fields) {
+                if (field.tag >= 500 && field.tag <= 599
+                        && !(field.is(506) || field.is(530) || field.is(540) || field.is(546))) {
+                    writeElement("dc:description", field.first("a"));
+                }
+            }
+            for (int tag : SUBJECT_TAGS) {
+                for (DataField field : fields) {
+                    if (field.is(tag)) {
+                        writeElement("dc:subject", field.select("abcdq"));
+                    }
+                }
+            }
+            for (DataField field : fields) {
+                if (field.is(662)) {
+                    writeElement("dc:coverage", field.select("abcdefgh"));
+                }
+            }
+            for (DataField field : fields) {
+                if (field.is(752)) {
+                    writeElement("dc:coverage", field.select("adcdfgh"));
+                }
+            }
+            for (DataField field : fields) {
+                if (field.is(530)) {
+                    writeElement("dc:relation type=\"original\"", "dc:relation", field.select("abcdu"));
+                }
+            }
+            for (DataField field : fields) {
+                if (contains(RELATION_TAGS, field.tag)) {
+                    writeElement("dc:relation", field.select("ot"));
+                }
+            }
+            for (DataField field : fields) {
+                if (field.is(856)) {
+                    writeElement("dc:identifier", field.first("u"));
+                }
+            }
+            for (DataField field : fields) {
+                if (field.is(20)) {
+                    writeElement("dc:identifier", "URN:ISBN:" + field.first("a"));
+                }
+            }
+            for (DataField field : fields) {
+                if (field.is(506)) {
+                    writeElement("dc:rights", field.first("a"));
+                }
+            }
+            for (DataField field : fields) {
+                if (field.is(540)) {
+                    writeElement("dc:rights", field.first("a"));
+                }
+            }
+            writer.write(LINE_SEPARATOR);
+            writer.write(DESCRIPTION_END);
+            prevText = false;
+        }
+
+        private void writeElement(String name, CharSequence text) throws IOException {
+            writeElement(name, name, text);
+        }
+
+        /**
+         * Writes the indented element like XSLTC with {@code indent="yes"}.
+         */
+        private void writeElement(String startTag, String endTag, CharSequence text) throws IOException {
+            writer.write(LINE_SEPARATOR);
+            writer.write('<');
+            writer.write(startTag);
+            if (text.length() == 0) {
+                writer.write("/>");
+            } else {
+                writer.write('>');
+                String s = text.toString();
+                writeText(s.toCharArray(), 0, s.length());
+                writer.write("</");
+                writer.write(endTag);
+                writer.write('>');
+            }
+        }
+
+        /**
+         * Escapes the text like the XSLTC serializer.
+         */
+        private void writeText(char[] chars, int start, int length) throws IOException {
+            int end = start + length;
+            int last = start;
+            for (int i = start; i < end; i++) {
+                char c = chars[i];
+                String replacement;
+                int skip = 0;
+                if (c == '&') {
+                    replacement = "&amp;";
+                } else if (c == '<') {
+                    replacement = "&lt;";
+                } else if (c == '>') {
+                    replacement = "&gt;";
+                } else if (c == '\n') {
+                    replacement = LINE_SEPARATOR;
+                } else if (c == '\r' || c >= 0x7F && c <= 0x9F) {
+                    replacement = "&#" + (int) c + ';';
+                } else if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(chars[i + 1])) {
+                    replacement = "&#" + Character.toCodePoint(c, chars[i + 1]) + ';';
+                    skip = 1;
+                } else {
+                    continue;
+                }
+                writer.write(chars, last, i - last);
+                writer.write(replacement);
+                i += skip;
+                last = i + 1;
+            }
+            writer.write(chars, last, end - last);
+        }
+
+        private static boolean isText(int event) {
+            return event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE;
+        }
+
+        private static boolean isEmpty(String s) {
+            return s == null || s.length() == 0;
+        }
+    }
+
+    /**
+     * Fields of a Marc record used by the mapping.
+     */
+    private static final class Record {
+
+        String leader;
+        String field008;
+        final List<DataField> fields = new ArrayList<DataField>();
+
+        String getType() {
+            String leader6 = substring(leader, 7, 1);
+            String leader7 = substring(leader, 8, 1);
+            StringBuilder type = new StringBuilder();
+            if ("c".equals(leader7)) {
+                type.append("collection");
+            }
+            if (leader6.length() == 1 && "dfpt".contains(leader6)) {
+                type.append("manuscript");
+            }
+            if (leader6.length() == 1) {
+                switch (leader6.charAt(0)) {
+                    case 'a':
+                    case 't':
+                        type.append("text");
+                        break;
+                    case 'e':
+                    case 'f':
+                        type.append("cartographic");
+                        break;
+                    case 'c':
+                    case 'd':
+                        type.append("notated music");
+                        break;
+                    case 'i':
+                    case 'j':
+                        type.append("sound recording");
+                        break;
+                    case 'k':
+                        type.append("still image");
+                        break;
+                    case 'g':
+                        type.append("moving image");
+                        break;
+                    case 'r':
+                        type.append("three dimensional object");
+                        break;
+                    case 'm':
+                        type.append("software, multimedia");
+                        break;
+                    case 'p':
+                        type.append("mixed material");
+                        break;
+                    default:
+                }
+            }
+            return type.toString();
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of transformed record descriptors. The entry is identified by
+ * the record ID and {@link RecordFormat format}. The digest of the source
+ * document must match on lookup so that a modified record is never served
+ * from the cache.
+ * <p>The cache is bounded with the total size of stored descriptors in bytes.
+ *
+ * @author Jan Pokorsky
+ */
+public final class DescriptorCache {
+
+    /** 32 MB */
+    public static final long DEFAULT_MAX_SIZE = 32L * 1024 * 1024;
+
+    private static final DescriptorCache INSTANCE = new DescriptorCache(DEFAULT_MAX_SIZE);
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(256, 0.75f, true);
+    private long maxSize;
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public static DescriptorCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param maxSize max size in bytes; 0 disables the cache
+     */
+    public DescriptorCache(long maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Gets cached descriptor.
+     *
+     * @param recordId record ID
+     * @param format format of the descriptor
+     * @param digest digest of the source document
+     * @return the descriptor or {@code null}
+     */
+    public synchronized DescriptorDataSource get(int recordId, RecordFormat format, String digest) {
+        Entry entry = entries.get(new Key(recordId, format));
+        if (entry != null && entry.digest.equals(digest)) {
+            hits++;
+            return entry.content;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Stores the descriptor. It replaces any entry of the previous content
+     * of the record.
+     */
+    public synchronized void put(int recordId, RecordFormat format, String digest, DescriptorDataSource content) {
+        if (content.getSize() > maxSize) {
+            return ;
+        }
+        Entry old = entries.put(new Key(recordId, format), new Entry(digest, content));
+        if (old != null) {
+            size -= old.content.getSize();
+        }
+        size += content.getSize();
+        evict();
+    }
+
+    /**
+     * Removes descriptors of the record in all formats.
+     */
+    public synchronized void invalidate(int recordId) {
+        for (RecordFormat format : RecordFormat.values()) {
+            Entry old = entries.remove(new Key(recordId, format));
+            if (old != null) {
+                size -= old.content.getSize();
+                invalidations++;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return size of cached descriptors in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("DescriptorCache[entries: %s, size: %s/%s, hits: %s, misses: %s, evictions: %s, invalidations: %s]",
+                entries.size(), size, maxSize, hits, misses, evictions, invalidations);
+    }
+
+    private void evict() {
+        for (Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator(); size > maxSize && it.hasNext();) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            size -= eldest.content.getSize();
+            evictions++;
+        }
+    }
+
+    private static final class Key {
+
+        private final int recordId;
+        private final RecordFormat format;
+
+        Key(int recordId, RecordFormat format) {
+            this.recordId = recordId;
+            this.format = format;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return recordId == other.recordId && format == other.format;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * recordId + format.hashCode();
+        }
+
+    }
+
+    private static final class Entry {
+
+        private final String digest;
+        private final DescriptorDataSource content;
+
+        Entry(String digest, DescriptorDataSource content) {
+            this.digest = digest;
+            this.content = content;
+        }
+
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import javax.activation.DataSource;
+
+/**
+ * Serialized XML document of a record descriptor. It is immutable and
+ * can be read repeatedly.
+ * <p>JAXB passes the data source straight to the SOAP message
+ * so that the document is not parsed and serialized again. MTOM clients
+ * receive it as a raw XOP attachment unless it is smaller than the MTOM
+ * threshold, others as inlined base64.
+ *
+ * @author Jan Pokorsky
+ */
+public final class DescriptorDataSource implements DataSource {
+
+    /** has to match {@code @XmlMimeType} of {@code DigitizationRecord.descriptor} */
+    public static final String CONTENT_TYPE = "application/xml";
+
+    private final byte[] content;
+    private final int length;
+
+    public DescriptorDataSource(byte[] content) {
+        this(content, content.length);
+    }
+
+    private DescriptorDataSource(byte[] content, int length) {
+        this.content = content;
+        this.length = length;
+    }
+
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    public InputStream getInputStream() throws IOException {
+        return new ByteArrayInputStream(content, 0, length);
+    }
+
+    public String getName() {
+        return "descriptor";
+    }
+
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("read only");
+    }
+
+    /**
+     * @return length of the document in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return allocated memory in bytes
+     */
+    public int getSize() {
+        return content.length;
+    }
+
+    /**
+     * Collects the document. The buffer is presized by the input so that it
+     * does not grow while written. The collected content is not copied unless
+     * more than a quarter of the buffer is unused, as cached documents would
+     * hold the unused memory.
+     */
+    static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer(int size) {
+            super(size);
+        }
+
+        DescriptorDataSource toDataSource() {
+            if (buf.length - count > buf.length / 4) {
+                return new DescriptorDataSource(Arrays.copyOf(buf, count));
+            }
+            return new DescriptorDataSource(buf, count);
+        }
+
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.activation.DataSource;
+import javax.xml.transform.TransformerException;
+
+/**
+ * Record descriptor transformed when it is read. JAXB reads it while
+ * the SOAP message is written so that descriptors of a large response
+ * are transformed, written and released one by one instead of being
+ * held all in memory.
+ * <p>Descriptors of a response may share a {@link TransformExecutor.Window window}
+ * that transforms them in other threads ahead of the writer. Each further
+ * read transforms the record again unless the descriptor is found in
+ * the {@link DescriptorCache cache}.
+ *
+ * @author Jan Pokorsky
+ */
+public final class LazyDescriptorDataSource implements DataSource {
+
+    private static final Logger LOG = Logger.getLogger(LazyDescriptorDataSource.class.getName());
+
+    private final MarcTransformer transformer;
+    private final DescriptorCache cache;
+    private final int recordId;
+    private final MarcSource source;
+    private final RecordFormat format;
+    private final TransformExecutor.Window<DescriptorDataSource> window;
+    private final int windowIndex;
+
+    public LazyDescriptorDataSource(MarcTransformer transformer, DescriptorCache cache,
+            int recordId, MarcSource source, RecordFormat format) {
+
+        this(transformer, cache, recordId, source, format, null, -1);
+    }
+
+    /**
+     * @param window window transforming the descriptor ahead
+     * @param windowIndex index of the descriptor task in the window
+     */
+    public LazyDescriptorDataSource(MarcTransformer transformer, DescriptorCache cache,
+            int recordId, MarcSource source, RecordFormat format,
+            TransformExecutor.Window<DescriptorDataSource> window, int windowIndex) {
+
+        this.transformer = transformer;
+        this.cache = cache;
+        this.recordId = recordId;
+        this.source = source;
+        this.format = format;
+        this.window = window;
+        this.windowIndex = windowIndex;
+    }
+
+    public String getContentType() {
+        return DescriptorDataSource.CONTENT_TYPE;
+    }
+
+    public InputStream getInputStream() throws IOException {
+        try {
+            DescriptorDataSource descriptor = window == null ? null : window.take(windowIndex);
+            if (descriptor == null) {
+                descriptor = transformer.transformToDataSource(cache, recordId, source, format);
+            }
+            return descriptor.getInputStream();
+        } catch (TransformerException ex) {
+            // the response is being written; log the cause as it may get lost
+            LOG.log(Level.SEVERE, String.format("Cannot transform record %s to %s.", recordId, format), ex);
+            IOException ioex = new IOException(ex.getMessage());
+            ioex.initCause(ex);
+            throw ioex;
+        }
+    }
+
+    public String getName() {
+        return "descriptor";
+    }
+
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("read only");
+    }
+
+}
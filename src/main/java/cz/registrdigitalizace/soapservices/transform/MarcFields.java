@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.TransformerException;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads subfields of Marc XML data fields without building the document.
+ * Elements are matched by local names so records stored without the MARC21
+ * name space are read as well.
+ *
+ * @author Jan Pokorsky
+ */
+public final class MarcFields {
+
+    /** main and added entries of personal and corporate names */
+    public static final Set<String> AUTHOR_TAGS = unmodifiableSet("100", "110", "700", "710");
+    /** subject added entries */
+    public static final Set<String> SUBJECT_TAGS = unmodifiableSet("600", "610", "650", "651");
+
+    private static final SAXParserFactory PARSER_FACTORY;
+
+    static {
+        PARSER_FACTORY = SAXParserFactory.newInstance();
+        PARSER_FACTORY.setNamespaceAware(true);
+    }
+
+    private MarcFields() {
+    }
+
+    /**
+     * Gets values of subfields.
+     *
+     * @param xml Marc XML record or collection
+     * @param tags tags of data fields
+     * @param code code of subfields
+     * @return values in document order
+     */
+    public static List<String> getSubfields(String xml, Set<String> tags, char code)
+            throws TransformerException {
+
+        return getSubfieldGroups(xml, Collections.singletonList(tags), code).get(0);
+    }
+
+    /**
+     * Gets values of subfields of several groups of data fields by a single
+     * pass of the record.
+     *
+     * @param xml Marc XML record or collection
+     * @param tagGroups tags of data fields per group
+     * @param code code of subfields
+     * @return values in document order per group
+     */
+    public static List<List<String>> getSubfieldGroups(String xml, List<Set<String>> tagGroups, char code)
+            throws TransformerException {
+
+        SubfieldHandler handler = new SubfieldHandler(tagGroups, String.valueOf(code));
+        try {
+            XMLReader reader = PARSER_FACTORY.newSAXParser().getXMLReader();
+            reader.setContentHandler(handler);
+            reader.parse(new InputSource(new StringReader(xml)));
+        } catch (ParserConfigurationException ex) {
+            throw new IllegalStateException(ex);
+        } catch (SAXException ex) {
+            throw new TransformerException(ex);
+        } catch (IOException ex) {
+            throw new TransformerException(ex);
+        }
+        return handler.values;
+    }
+
+    private static Set<String> unmodifiableSet(String... values) {
+        Set<String> set = new HashSet<String>();
+        Collections.addAll(set, values);
+        return Collections.unmodifiableSet(set);
+    }
+
+    private static final class SubfieldHandler extends DefaultHandler {
+
+        private final List<Set<String>> tagGroups;
+        private final String code;
+        private final List<List<String>> values;
+        private final StringBuilder value = new StringBuilder();
+        /** values of the group of the current field or {@code null} */
+        private List<String> fieldValues;
+        private boolean inSubfield;
+
+        SubfieldHandler(List<Set<String>> tagGroups, String code) {
+            this.tagGroups = tagGroups;
+            this.code = code;
+            this.values = new ArrayList<List<String>>(tagGroups.size());
+            for (int i = 0; i < tagGroups.size(); i++) {
+                values.add(new ArrayList<String>());
+            }
+        }
+
+        private List<String> findFieldValues(String tag) {
+            for (int i = 0; i < tagGroups.size(); i++) {
+                if (tagGroups.get(i).contains(tag)) {
+                    return values.get(i);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            if ("datafield".equals(localName)) {
+                fieldValues = findFieldValues(atts.getValue("tag"));
+            } else if (fieldValues != null && "subfield".equals(localName)) {
+                inSubfield = code.equals(atts.getValue("code"));
+                value.setLength(0);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if ("datafield".equals(localName)) {
+                fieldValues = null;
+            } else if (inSubfield && "subfield".equals(localName)) {
+                inSubfield = false;
+                String s = value.toString().trim();
+                if (s.length() > 0) {
+                    fieldValues.add(s);
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inSubfield) {
+                value.append(ch, start, length);
+            }
+        }
+    }
+
+}
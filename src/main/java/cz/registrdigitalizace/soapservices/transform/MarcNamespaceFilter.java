@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Fixes Marc XML documents stored without the proper name space declaration.
+ * In case the root element {@code <collection>} or {@code <record>} is not
+ * in any name space the filter puts all elements without a name space to
+ * the MARC21 slim name space while the document is parsed.
+ *
+ * @author Jan Pokorsky
+ */
+final class MarcNamespaceFilter extends XMLFilterImpl {
+
+    static final String MARC_NS = "http://www.loc.gov/MARC21/slim";
+    static final String XSI_NS = "http://www.w3.org/2001/XMLSchema-instance";
+    static final String MARC_SCHEMA_LOCATION = MARC_NS
+            + " http://www.loc.gov/standards/marcxml/schema/MARC21slim.xsd";
+
+    private static final SAXParserFactory PARSER_FACTORY;
+    /** parser reused by subsequent documents read by the thread */
+    private static final ThreadLocal<XMLReader> IDLE_PARSER = new ThreadLocal<XMLReader>();
+
+    static {
+        PARSER_FACTORY = SAXParserFactory.newInstance();
+        PARSER_FACTORY.setNamespaceAware(true);
+    }
+
+    private int depth;
+    private boolean fix;
+    private boolean declareXsi;
+    private final Set<String> rootPrefixes = new HashSet<String>();
+
+    MarcNamespaceFilter() {
+        super(borrowParser());
+    }
+
+    @Override
+    public void parse(InputSource input) throws SAXException, IOException {
+        try {
+            super.parse(input);
+        } finally {
+            releaseParser(getParent());
+        }
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        depth = 0;
+        fix = false;
+        declareXsi = false;
+        rootPrefixes.clear();
+        super.startDocument();
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        if (depth == 0) {
+            rootPrefixes.add(prefix);
+        }
+        super.startPrefixMapping(prefix, uri);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        if (depth++ == 0) {
+            fix = uri.length() == 0 && qName.equals(localName)
+                    && ("collection".equals(localName) || "record".equals(localName));
+            if (fix) {
+                super.startPrefixMapping("", MARC_NS);
+                declareXsi = !rootPrefixes.contains("xsi");
+                if (declareXsi) {
+                    super.startPrefixMapping("xsi", XSI_NS);
+                    AttributesImpl fixedAtts = new AttributesImpl(atts);
+                    fixedAtts.addAttribute(XSI_NS, "schemaLocation", "xsi:schemaLocation",
+                            "CDATA", MARC_SCHEMA_LOCATION);
+                    atts = fixedAtts;
+                }
+            }
+        }
+        super.startElement(fixUri(uri), localName, qName, atts);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        super.endElement(fixUri(uri), localName, qName);
+        if (--depth == 0 && fix) {
+            if (declareXsi) {
+                super.endPrefixMapping("xsi");
+            }
+            super.endPrefixMapping("");
+        }
+    }
+
+    private String fixUri(String uri) {
+        return fix && uri.length() == 0 ? MARC_NS : uri;
+    }
+
+    private static XMLReader borrowParser() {
+        XMLReader parser = IDLE_PARSER.get();
+        if (parser != null) {
+            IDLE_PARSER.set(null);
+            return parser;
+        }
+        try {
+            return PARSER_FACTORY.newSAXParser().getXMLReader();
+        } catch (ParserConfigurationException ex) {
+            throw new IllegalStateException(ex);
+        } catch (SAXException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void releaseParser(XMLReader parser) {
+        // do not hold consumers of the parsed document
+        parser.setContentHandler(null);
+        parser.setDTDHandler(null);
+        parser.setEntityResolver(null);
+        parser.setErrorHandler(null);
+        IDLE_PARSER.set(parser);
+    }
+
+}
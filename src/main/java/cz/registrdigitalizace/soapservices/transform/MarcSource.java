@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import javax.xml.transform.sax.SAXSource;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Marc XML document of a digitization record (PREDLOHA.XML).
+ * Unlike plain {@link SAXSource} it can be read repeatedly and it provides
+ * the digest of its content to recognize modified records.
+ * <p>Documents stored without the MARC21 name space are fixed
+ * by {@link MarcNamespaceFilter} as they are parsed.
+ *
+ * @author Jan Pokorsky
+ */
+public final class MarcSource extends SAXSource {
+
+    private final String xml;
+    private String digest;
+
+    public MarcSource(String xml) {
+        if (xml == null) {
+            throw new NullPointerException("xml");
+        }
+        this.xml = xml;
+    }
+
+    /**
+     * @return new reader of the document on each call
+     */
+    @Override
+    public XMLReader getXMLReader() {
+        return new MarcNamespaceFilter();
+    }
+
+    /**
+     * @return new input of the document on each call
+     */
+    @Override
+    public InputSource getInputSource() {
+        return new InputSource(new StringReader(xml));
+    }
+
+    /**
+     * @return length of the document in characters
+     */
+    int getLength() {
+        return xml.length();
+    }
+
+    /**
+     * Gets digest of the document content.
+     * @return hex encoded SHA-1
+     */
+    public String getDigest() {
+        if (digest == null) {
+            digest = digest(xml);
+        }
+        return digest;
+    }
+
+    static String digest(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] hash = md.digest(s.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+}
@@ -17,15 +17,24 @@
 
 package cz.registrdigitalizace.soapservices.transform;
 
+import com.sun.xml.bind.v2.util.DataSourceSource;
 import cz.registrdigitalizace.soapservices.model.RecordFormat;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.activation.DataSource;
+import javax.activation.MimeTypeParseException;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
 import javax.xml.transform.Templates;
@@ -47,31 +56,235 @@ import javax.xml.transform.stream.StreamSource;
 public final class MarcTransformer {
 
     private static final Map<RecordFormat, String> FORMAT2XSL;
-    private static final Map<RecordFormat, Templates> FORMAT2TEMPLATES;
+    /** names of translets precompiled at build time */
+    private static final Map<RecordFormat, String> FORMAT2TRANSLET;
+    /** pools are created on first use or by {@link #initTemplates(RecordFormat)} */
+    private static final Map<RecordFormat, FutureTask<TransformerPool>> FORMAT2POOL;
+    private static volatile int poolMaxSize = TransformerPool.DEFAULT_MAX_SIZE;
+    private static volatile long poolMaxWait = TransformerPool.DEFAULT_MAX_WAIT;
+    /** Marc XML record transformed by {@link #warmUp} */
+    private static final String WARM_UP_RECORD = "warmup_record.xml";
     private static final Logger LOG = Logger.getLogger(MarcTransformer.class.getName());
 
+    private static final int MIN_BUFFER_SIZE = 4 * 1024;
+    private static final DcRdfMapper DC_RDF_MAPPER = new DcRdfMapper();
+    private static volatile boolean dcRdfMapperEnabled = true;
+    /**
+     * Descriptors smaller than this in bytes are written by JAXB as byte arrays
+     * that the SOAP runtime inlines below its {@code mtom-threshold-value}.
+     * Keep in sync with {@code sun-jaxws.xml}.
+     */
+    public static final int DEFAULT_MTOM_THRESHOLD = 1024;
+    private static volatile int mtomThreshold = DEFAULT_MTOM_THRESHOLD;
+    static final String TRANSLET_PACKAGE = "cz.registrdigitalizace.soapservices.transform.translet";
+
     private static final String DC_RDF_XSL_PATH = "http://www.loc.gov/standards/marcxml/xslt/MARC21slim2RDFDC.xsl";
     private static final String MODS_33_XSL_PATH = "http://www.loc.gov/standards/mods/v3/MARC21slim2MODS3-3.xsl";
     private static final String MODS_34_XSL_PATH = "http://www.loc.gov/standards/mods/v3/MARC21slim2MODS3-4.xsl";
 
     static {
-        FORMAT2TEMPLATES = new EnumMap<RecordFormat, Templates>(RecordFormat.class);
+        FORMAT2POOL = new EnumMap<RecordFormat, FutureTask<TransformerPool>>(RecordFormat.class);
         FORMAT2XSL = new EnumMap<RecordFormat, String>(RecordFormat.class);
         FORMAT2XSL.put(RecordFormat.DC_RDF, DC_RDF_XSL_PATH);
         FORMAT2XSL.put(RecordFormat.MODS_33, MODS_33_XSL_PATH);
         FORMAT2XSL.put(RecordFormat.MODS_34, MODS_34_XSL_PATH);
-        initTemplates();
+        FORMAT2TRANSLET = new EnumMap<RecordFormat, String>(RecordFormat.class);
+        FORMAT2TRANSLET.put(RecordFormat.DC_RDF, "MARC21slim2RDFDC");
+        FORMAT2TRANSLET.put(RecordFormat.MODS_33, "MARC21slim2MODS3_3");
+        FORMAT2TRANSLET.put(RecordFormat.MODS_34, "MARC21slim2MODS3_4");
+        for (final RecordFormat format : FORMAT2XSL.keySet()) {
+            FORMAT2POOL.put(format, new FutureTask<TransformerPool>(new Callable<TransformerPool>() {
+
+                public TransformerPool call() throws Exception {
+                    TransformerPool pool = new TransformerPool(createTemplates(format));
+                    pool.setMaxSize(poolMaxSize);
+                    pool.setMaxWait(poolMaxWait);
+                    return pool;
+                }
+            }));
+        }
     }
 
     public Source transform(Source input, RecordFormat format) throws TransformerException {
         if (format == null || format == RecordFormat.MARC_XML) {
             return input;
         }
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        return toSource(transformToDataSource(input, format));
+    }
+
+    /**
+     * Transforms the input to the serialized document of the required format.
+     *
+     * @param input Marc XML document
+     * @param format required format other than {@link RecordFormat#MARC_XML}
+     * @return the transformed document
+     */
+    public DescriptorDataSource transformToDataSource(Source input, RecordFormat format) throws TransformerException {
+        int sizeHint = input instanceof MarcSource ? ((MarcSource) input).getLength() : 0;
+        DescriptorDataSource.Buffer buffer = new DescriptorDataSource.Buffer(Math.max(MIN_BUFFER_SIZE, sizeHint));
+        if (format == RecordFormat.DC_RDF && dcRdfMapperEnabled && DcRdfMapper.accepts(input)) {
+            DC_RDF_MAPPER.map(input, buffer);
+            return buffer.toDataSource();
+        }
         Result output = new StreamResult(buffer);
-        Transformer t = createTransformer(format);
-        t.transform(input, output);
-        return new StreamSource(new ByteArrayInputStream(buffer.toByteArray()));
+        TransformerPool pool = getPool(format);
+        Transformer t = pool.borrow();
+        try {
+            t.transform(input, output);
+        } finally {
+            pool.release(t);
+        }
+        return buffer.toDataSource();
+    }
+
+    /**
+     * Transforms the record or gets its descriptor from the cache.
+     *
+     * @param cache cache of transformed descriptors
+     * @param recordId ID of the record
+     * @param input Marc XML of the record
+     * @param format required format other than {@link RecordFormat#MARC_XML}
+     * @return the transformed document
+     */
+    public DescriptorDataSource transformToDataSource(DescriptorCache cache, int recordId,
+            MarcSource input, RecordFormat format) throws TransformerException {
+
+        if (!cache.isEnabled()) {
+            return transformToDataSource(input, format);
+        }
+        String digest = input.getDigest();
+        DescriptorDataSource descriptor = cache.get(recordId, format, digest);
+        if (descriptor == null) {
+            descriptor = transformToDataSource(input, format);
+            cache.put(recordId, format, digest, descriptor);
+        }
+        return descriptor;
+    }
+
+    /**
+     * Wraps the transformed document to the source that JAXB writes
+     * to the SOAP message as is. Documents smaller than the MTOM threshold
+     * are wrapped as a stream so that MTOM clients get them inlined
+     * instead of as tiny attachments.
+     *
+     * @param descriptor data source with {@link DescriptorDataSource#CONTENT_TYPE}
+     */
+    public static Source toSource(DataSource descriptor) throws TransformerException {
+        try {
+            if (descriptor instanceof DescriptorDataSource
+                    && ((DescriptorDataSource) descriptor).getLength() < mtomThreshold) {
+                return new StreamSource(descriptor.getInputStream());
+            }
+            return new DataSourceSource(descriptor);
+        } catch (IOException ex) {
+            throw new TransformerException(ex);
+        } catch (MimeTypeParseException ex) {
+            throw new TransformerException(ex);
+        }
+    }
+
+    /**
+     * Selects the native mapper ({@code true}) or the XSL stylesheet
+     * to transform {@link RecordFormat#DC_RDF}. Both produce the same output.
+     */
+    public static void setDcRdfMapperEnabled(boolean enabled) {
+        dcRdfMapperEnabled = enabled;
+    }
+
+    /**
+     * Sets the size in bytes below which descriptors are inlined
+     * in MTOM responses. It must not exceed {@code mtom-threshold-value}
+     * of the endpoint.
+     */
+    public static void setMtomThreshold(int bytes) {
+        mtomThreshold = bytes;
+    }
+
+    /**
+     * Sets limits of transformer pools of all formats.
+     *
+     * @param maxSize max number of pooled transformers per format
+     * @param maxWait max time in milliseconds to wait for a pooled transformer
+     */
+    public static void configurePools(int maxSize, long maxWait) {
+        poolMaxSize = maxSize;
+        poolMaxWait = maxWait;
+        for (RecordFormat format : FORMAT2POOL.keySet()) {
+            if (isInitialized(format)) {
+                TransformerPool pool = getTransformerPool(format);
+                pool.setMaxSize(maxSize);
+                pool.setMaxWait(maxWait);
+            }
+        }
+    }
+
+    /**
+     * Gets the pool of transformers of the given format. It creates
+     * templates of the format in case they are not ready yet.
+     *
+     * @return the pool or {@code null} if the format cannot be transformed
+     */
+    public static TransformerPool getTransformerPool(RecordFormat format) {
+        try {
+            return getPool(format);
+        } catch (TransformerException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return {@code true} if templates of the format are ready
+     */
+    public static boolean isInitialized(RecordFormat format) {
+        FutureTask<TransformerPool> task = FORMAT2POOL.get(format);
+        return task != null && task.isDone();
+    }
+
+    /**
+     * Creates templates of the format unless they are ready. Otherwise
+     * templates are created on first use.
+     */
+    public static void initTemplates(RecordFormat format) throws TransformerException {
+        getPool(format);
+    }
+
+    /**
+     * Transforms the sample record repeatedly to compile hot code paths
+     * before the first request.
+     *
+     * @param iterations number of transformations
+     * @return time of the warm-up in milliseconds
+     */
+    public static long warmUp(RecordFormat format, int iterations) throws TransformerException {
+        long start = System.currentTimeMillis();
+        MarcSource source = new MarcSource(readWarmUpRecord());
+        MarcTransformer transformer = new MarcTransformer();
+        for (int i = 0; i < iterations; i++) {
+            transformer.transformToDataSource(source, format);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static String readWarmUpRecord() throws TransformerException {
+        InputStream stream = MarcTransformer.class.getResourceAsStream(WARM_UP_RECORD);
+        if (stream == null) {
+            throw new TransformerConfigurationException("Missing " + WARM_UP_RECORD);
+        }
+        try {
+            try {
+                Reader reader = new InputStreamReader(stream, "UTF-8");
+                StringBuilder sb = new StringBuilder();
+                char[] buffer = new char[4096];
+                for (int length; (length = reader.read(buffer)) > 0;) {
+                    sb.append(buffer, 0, length);
+                }
+                return sb.toString();
+            } finally {
+                stream.close();
+            }
+        } catch (IOException ex) {
+            throw new TransformerConfigurationException(ex);
+        }
     }
 
     static Source getXsl(RecordFormat format, URIResolver resolver) throws TransformerException {
@@ -80,30 +293,105 @@ public final class MarcTransformer {
     }
 
     private static Templates createTemplates(RecordFormat recordFormat) throws TransformerException {
+        long start = System.currentTimeMillis();
+        Templates templates = loadTranslet(recordFormat);
+        String kind = "translet";
+        if (templates == null) {
+            templates = compileTemplates(recordFormat);
+            kind = "stylesheet";
+        }
+        LOG.log(Level.INFO, "{0} {1} ready in {2} ms", new Object[] {
+                recordFormat, kind, System.currentTimeMillis() - start});
+        return templates;
+    }
+
+    /**
+     * Compiles the XSL stylesheet.
+     */
+    static Templates compileTemplates(RecordFormat recordFormat) throws TransformerException {
         TransformerFactory factory = TransformerFactory.newInstance();
-        factory.setAttribute("debug", true);
         SimpleResolver resolver = new SimpleResolver();
         factory.setURIResolver(resolver);
         Templates templates = factory.newTemplates(getXsl(recordFormat, resolver));
         return templates;
     }
 
-    private static Transformer createTransformer(RecordFormat recordFormat) throws TransformerConfigurationException {
-        Templates templates = FORMAT2TEMPLATES.get(recordFormat);
-        if (templates == null) {
-            throw new TransformerConfigurationException("Cannot transform " + recordFormat);
+    /**
+     * Loads the XSLTC translet precompiled at build time by {@link TransletCompiler}.
+     *
+     * @return templates or {@code null} in case the translet is not available
+     *          or it is not compatible with the running XSLT processor
+     */
+    static Templates loadTranslet(RecordFormat recordFormat) {
+        String transletName = FORMAT2TRANSLET.get(recordFormat);
+        try {
+            TransformerFactory factory = TransformerFactory.newInstance();
+            if (!isXsltc(factory)) {
+                return null;
+            }
+            factory.setAttribute("use-classpath", Boolean.TRUE);
+            factory.setAttribute("package-name", TRANSLET_PACKAGE);
+            factory.setAttribute("translet-name", transletName);
+            Templates templates = factory.newTemplates(new StreamSource(FORMAT2XSL.get(recordFormat)));
+            // checks the translet version
+            templates.newTransformer();
+            return templates;
+        } catch (TransformerException ex) {
+            LOG.log(Level.FINE, transletName, ex);
+        } catch (IllegalArgumentException ex) {
+            LOG.log(Level.FINE, transletName, ex);
+        } catch (LinkageError ex) {
+            LOG.log(Level.FINE, transletName, ex);
         }
-        return templates.newTransformer();
+        LOG.log(Level.INFO, "{0}: precompiled translet not available, compiling the stylesheet.", recordFormat);
+        return null;
     }
 
-    private static void initTemplates() {
-        for (Map.Entry<RecordFormat, String> entry : FORMAT2XSL.entrySet()) {
-            try {
-                Templates templates = createTemplates(entry.getKey());
-                FORMAT2TEMPLATES.put(entry.getKey(), templates);
-            } catch (TransformerException ex) {
-                LOG.log(Level.SEVERE, entry.getValue(), ex);
+    /**
+     * Compiles the XSL stylesheet to the translet class.
+     *
+     * @param destination root folder of compiled classes
+     */
+    static void compileTranslet(RecordFormat recordFormat, File destination) throws TransformerException {
+        TransformerFactory factory = TransformerFactory.newInstance();
+        if (!isXsltc(factory)) {
+            throw new TransformerConfigurationException("XSLTC required: " + factory.getClass());
+        }
+        factory.setAttribute("generate-translet", Boolean.TRUE);
+        factory.setAttribute("destination-directory", destination.getAbsolutePath());
+        factory.setAttribute("package-name", TRANSLET_PACKAGE);
+        factory.setAttribute("translet-name", FORMAT2TRANSLET.get(recordFormat));
+        SimpleResolver resolver = new SimpleResolver();
+        factory.setURIResolver(resolver);
+        factory.newTemplates(getXsl(recordFormat, resolver));
+    }
+
+    static Set<RecordFormat> getTransformableFormats() {
+        return FORMAT2XSL.keySet();
+    }
+
+    private static boolean isXsltc(TransformerFactory factory) {
+        return factory.getClass().getName().contains(".xsltc.");
+    }
+
+    private static TransformerPool getPool(RecordFormat recordFormat) throws TransformerException {
+        FutureTask<TransformerPool> task = FORMAT2POOL.get(recordFormat);
+        if (task == null) {
+            throw new TransformerConfigurationException("Cannot transform " + recordFormat);
+        }
+        // runs once; concurrent callers wait for the result
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TransformerConfigurationException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof TransformerException) {
+                throw (TransformerException) cause;
             }
+            throw new TransformerConfigurationException(cause);
         }
     }
 
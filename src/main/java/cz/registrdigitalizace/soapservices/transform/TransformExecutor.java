@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.xml.transform.TransformerException;
+
+/**
+ * Runs transformations of a single request in parallel. The number of
+ * threads is limited globally with {@link #getParallelism() parallelism}
+ * and the number of threads serving a single request is limited with
+ * {@link #getRequestParallelism() requestParallelism}. The request thread
+ * always takes part in the work so that the request makes progress even if
+ * all threads are busy with other requests.
+ * <p>Results consumed one by one, like descriptors of a large response
+ * transformed while the response is written, run in a {@link Window}.
+ *
+ * @author Jan Pokorsky
+ */
+public final class TransformExecutor {
+
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_REQUEST_PARALLELISM = Math.max(1, DEFAULT_PARALLELISM / 2);
+    /** do not bother other threads with small requests */
+    static final int MIN_TASKS_PER_WORKER = 8;
+
+    private static final TransformExecutor INSTANCE = new TransformExecutor();
+
+    private ThreadPoolExecutor executor;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private int requestParallelism = DEFAULT_REQUEST_PARALLELISM;
+
+    public static TransformExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets limits of parallel transformations.
+     *
+     * @param parallelism max number of threads serving all requests
+     * @param requestParallelism max number of threads serving a single request
+     *          including the request thread
+     */
+    public synchronized void configure(int parallelism, int requestParallelism) {
+        if (parallelism < 1 || requestParallelism < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "parallelism: %s, requestParallelism: %s", parallelism, requestParallelism));
+        }
+        this.parallelism = parallelism;
+        this.requestParallelism = requestParallelism;
+        if (executor != null) {
+            executor.setMaximumPoolSize(Math.max(parallelism, executor.getCorePoolSize()));
+            executor.setCorePoolSize(parallelism);
+            executor.setMaximumPoolSize(parallelism);
+        }
+    }
+
+    public synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    public synchronized int getRequestParallelism() {
+        return requestParallelism;
+    }
+
+    /**
+     * Stops all threads.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs the tasks and waits for their results.
+     *
+     * @param tasks tasks to run
+     * @return results in the order of tasks
+     * @throws TransformerException failure of any task
+     */
+    public <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws TransformerException {
+        int workerCount;
+        ThreadPoolExecutor pool;
+        synchronized (this) {
+            workerCount = Math.min(requestParallelism, tasks.size() / MIN_TASKS_PER_WORKER);
+            pool = workerCount > 1 ? getExecutor() : null;
+        }
+
+        Object[] results = new Object[tasks.size()];
+        Worker<T> worker = new Worker<T>(tasks, results);
+        if (pool != null) {
+            List<Future<?>> futures = new ArrayList<Future<?>>(workerCount - 1);
+            for (int i = 1; i < workerCount; i++) {
+                futures.add(pool.submit(worker));
+            }
+            worker.run();
+            // workers that did not start yet have nothing to do
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+        } else {
+            worker.run();
+        }
+        worker.awaitCompletion();
+        return asList(results);
+    }
+
+    /**
+     * Prepares tasks whose results are taken one by one. Up to
+     * {@code requestParallelism - 1} tasks run in other threads ahead of
+     * the consumer.
+     *
+     * @param tasks tasks in order of consumption
+     * @return the window of the tasks
+     */
+    public <T> Window<T> window(List<? extends Callable<T>> tasks) {
+        int ahead;
+        ThreadPoolExecutor pool;
+        synchronized (this) {
+            ahead = Math.min(requestParallelism - 1, tasks.size());
+            pool = ahead > 0 ? getExecutor() : null;
+        }
+        return new Window<T>(tasks, pool, ahead);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> asList(Object[] results) {
+        return (List<T>) Arrays.asList(results);
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(parallelism, parallelism,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new TransformThreadFactory());
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Pulls tasks one by one so that the work is shared by workers evenly
+     * even for records of very different size.
+     */
+    private static final class Worker<T> implements Runnable {
+
+        private final List<? extends Callable<T>> tasks;
+        private final Object[] results;
+        private final AtomicInteger next = new AtomicInteger();
+        private final CountDownLatch completion;
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Worker(List<? extends Callable<T>> tasks, Object[] results) {
+            this.tasks = tasks;
+            this.results = results;
+            this.completion = new CountDownLatch(results.length);
+        }
+
+        public void run() {
+            for (int i; (i = next.getAndIncrement()) < results.length;) {
+                try {
+                    if (failure.get() == null) {
+                        results[i] = tasks.get(i).call();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    completion.countDown();
+                }
+            }
+        }
+
+        /**
+         * Waits for tasks running in other threads.
+         */
+        void awaitCompletion() throws TransformerException {
+            try {
+                completion.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new TransformerException(ex);
+            }
+            Throwable t = failure.get();
+            if (t != null) {
+                rethrow(t);
+            }
+        }
+
+    }
+
+    private static void rethrow(Throwable t) throws TransformerException {
+        if (t instanceof TransformerException) {
+            throw (TransformerException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new TransformerException(t);
+    }
+
+    /**
+     * Runs tasks ahead of the consumer taking their results. Taking a result
+     * starts the task that many positions later so that just a few results
+     * wait for the consumer. The consumer runs the task itself unless other
+     * thread started it already.
+     */
+    public static final class Window<T> {
+
+        private final List<? extends Callable<T>> tasks;
+        private final FutureTask<T>[] futures;
+        private final ThreadPoolExecutor pool;
+        private final int ahead;
+        /** number of tasks with created futures */
+        private int started;
+
+        @SuppressWarnings("unchecked")
+        Window(List<? extends Callable<T>> tasks, ThreadPoolExecutor pool, int ahead) {
+            this.tasks = tasks;
+            this.futures = new FutureTask[tasks.size()];
+            this.pool = pool;
+            this.ahead = ahead;
+        }
+
+        /**
+         * Takes the result of the task. Each result is taken just once
+         * so that the window does not hold it any longer.
+         *
+         * @param index index of the task
+         * @return the result or {@code null} if it was already taken
+         * @throws TransformerException failure of the task
+         */
+        public T take(int index) throws TransformerException {
+            FutureTask<T> future = start(index);
+            if (future == null) {
+                return null;
+            }
+            future.run();
+            try {
+                return future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new TransformerException(ex);
+            } catch (ExecutionException ex) {
+                rethrow(ex.getCause());
+                return null;
+            }
+        }
+
+        private synchronized FutureTask<T> start(int index) {
+            int end = Math.min(tasks.size(), index + 1 + ahead);
+            for (; started < end; started++) {
+                FutureTask<T> future = new FutureTask<T>(tasks.get(started));
+                futures[started] = future;
+                if (started > index && pool != null) {
+                    try {
+                        pool.execute(future);
+                    } catch (RejectedExecutionException ex) {
+                        // the executor is shut down; the consumer runs the task
+                    }
+                }
+            }
+            FutureTask<T> future = futures[index];
+            futures[index] = null;
+            return future;
+        }
+
+    }
+
+    private static final class TransformThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "descriptor-transform-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+
+    }
+}
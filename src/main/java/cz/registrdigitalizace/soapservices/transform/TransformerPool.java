@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+
+/**
+ * Pool of ready {@link Transformer transformers} of compiled templates.
+ * The pool creates at most {@link #getMaxSize() maxSize} transformers.
+ * In case all of them are in use the borrower waits up to
+ * {@link #getMaxWait() maxWait} milliseconds and then it gets a new
+ * transformer that is not kept by the pool.
+ *
+ * @author Jan Pokorsky
+ */
+public final class TransformerPool {
+
+    public static final int DEFAULT_MAX_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+    public static final long DEFAULT_MAX_WAIT = 100;
+
+    private final Templates templates;
+    private final BlockingQueue<Transformer> idle = new LinkedBlockingQueue<Transformer>();
+    private final AtomicInteger created = new AtomicInteger();
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+    private volatile long maxWait = DEFAULT_MAX_WAIT;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+    private final AtomicLong fallbackCount = new AtomicLong();
+
+    public TransformerPool(Templates templates) {
+        this.templates = templates;
+    }
+
+    /**
+     * Gets transformer ready to use. Pass it back with {@link #release}.
+     */
+    public Transformer borrow() throws TransformerConfigurationException {
+        borrowCount.incrementAndGet();
+        Transformer t = idle.poll();
+        if (t != null) {
+            return t;
+        }
+        if (reserve()) {
+            return templates.newTransformer();
+        }
+
+        long start = System.nanoTime();
+        try {
+            t = idle.poll(maxWait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        long wait = System.nanoTime() - start;
+        waitCount.incrementAndGet();
+        waitTime.addAndGet(wait);
+        for (long max = maxWaitTime.get(); wait > max && !maxWaitTime.compareAndSet(max, wait); ) {
+            max = maxWaitTime.get();
+        }
+        if (t == null) {
+            // the pool is exhausted; do not block the request
+            fallbackCount.incrementAndGet();
+            t = templates.newTransformer();
+        }
+        return t;
+    }
+
+    /**
+     * Resets the transformer and makes it available to other borrowers.
+     */
+    public void release(Transformer t) {
+        t.reset();
+        if (idle.size() < maxSize) {
+            idle.offer(t);
+        }
+    }
+
+    private boolean reserve() {
+        for (int c = created.get(); c < maxSize; c = created.get()) {
+            if (created.compareAndSet(c, c + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return max time in milliseconds to wait for a transformer
+     */
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(long maxWait) {
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("maxWait: " + maxWait);
+        }
+        this.maxWait = maxWait;
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * @return number of borrows that had to wait for a released transformer
+     */
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    /**
+     * @return total wait time in nanoseconds
+     */
+    public long getWaitTime() {
+        return waitTime.get();
+    }
+
+    /**
+     * @return the longest wait time in nanoseconds
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    /**
+     * @return number of transformers created out of the pool limits
+     */
+    public long getFallbackCount() {
+        return fallbackCount.get();
+    }
+
+    public int getCreatedCount() {
+        return created.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TransformerPool[created: %s/%s, idle: %s, borrows: %s, waits: %s, waitTime: %s ms, maxWaitTime: %s ms, fallbacks: %s]",
+                created.get(), maxSize, idle.size(), borrowCount.get(), waitCount.get(),
+                TimeUnit.NANOSECONDS.toMillis(waitTime.get()),
+                TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get()),
+                fallbackCount.get());
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import java.io.File;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compiles MARC21 stylesheets to XSLTC translets. It runs in the
+ * {@code process-classes} phase of the build so that the translets
+ * are packaged with other classes and {@link MarcTransformer} does not
+ * have to compile stylesheets at runtime.
+ *
+ * @author Jan Pokorsky
+ */
+public final class TransletCompiler {
+
+    private static final Logger LOG = Logger.getLogger(TransletCompiler.class.getName());
+
+    /**
+     * @param args destination folder of compiled classes
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: TransletCompiler <classes folder>");
+        }
+        File destination = new File(args[0]);
+        for (RecordFormat format : MarcTransformer.getTransformableFormats()) {
+            long start = System.currentTimeMillis();
+            MarcTransformer.compileTranslet(format, destination);
+            LOG.log(Level.INFO, "{0} translet compiled in {1} ms",
+                    new Object[] {format, System.currentTimeMillis() - start});
+        }
+    }
+
+}
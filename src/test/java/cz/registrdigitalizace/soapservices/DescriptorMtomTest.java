@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices;
+
+import cz.registrdigitalizace.soapservices.model.DigitizationRecord;
+import cz.registrdigitalizace.soapservices.model.DigitizationState;
+import cz.registrdigitalizace.soapservices.transform.DescriptorDataSource;
+import cz.registrdigitalizace.soapservices.transform.MarcTransformer;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import javax.jws.WebMethod;
+import javax.jws.WebService;
+import javax.xml.ws.Endpoint;
+import javax.xml.ws.soap.MTOMFeature;
+import junit.framework.TestCase;
+
+/**
+ * Checks descriptors of a MTOM enabled endpoint travel as raw attachments
+ * to clients accepting XOP and inlined to other clients. Small descriptors
+ * are always inlined.
+ *
+ * @author Jan Pokorsky
+ */
+public class DescriptorMtomTest extends TestCase {
+
+    private static final String DESCRIPTOR = "<record xmlns=\"http://www.loc.gov/MARC21/slim\">"
+            + "<leader>     nam a22        4500</leader></record>";
+    private static final String REQUEST = "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+            + "<S:Body><ns:findRecords xmlns:ns=\"http://registrdigitalizace.cz/soapservices\"/></S:Body>"
+            + "</S:Envelope>";
+
+    private Endpoint endpoint;
+    private String address;
+
+    public DescriptorMtomTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        address = "http://localhost:" + port + "/records";
+        endpoint = Endpoint.create(new RecordService(), new MTOMFeature(true, MarcTransformer.DEFAULT_MTOM_THRESHOLD));
+        endpoint.publish(address);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        endpoint.stop();
+        MarcTransformer.setMtomThreshold(MarcTransformer.DEFAULT_MTOM_THRESHOLD);
+        super.tearDown();
+    }
+
+    public void testInlineDescriptor() throws Exception {
+        String response = call("text/xml");
+        assertFalse(response, response.contains("xop:Include"));
+        assertFalse(response, response.contains(DESCRIPTOR));
+        assertTrue(response, response.contains("<descriptor>"));
+    }
+
+    public void testAttachedDescriptor() throws Exception {
+        MarcTransformer.setMtomThreshold(0);
+        String response = call("application/xop+xml, text/xml");
+        assertTrue(response, response.contains("xop:Include"));
+        // the raw descriptor, no base64
+        assertTrue(response, response.contains("Content-Type: " + DescriptorDataSource.CONTENT_TYPE));
+        assertTrue(response, response.contains(DESCRIPTOR));
+    }
+
+    public void testSmallDescriptorInlined() throws Exception {
+        String response = call("application/xop+xml, text/xml");
+        assertFalse(response, response.contains("xop:Include"));
+        assertFalse(response, response.contains(DESCRIPTOR));
+        assertTrue(response, response.contains("<descriptor>"));
+    }
+
+    private String call(String accept) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(address).openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+        connection.setRequestProperty("Accept", accept);
+        connection.setRequestProperty("SOAPAction", "\"\"");
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(REQUEST.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        assertEquals(200, connection.getResponseCode());
+        InputStream in = connection.getInputStream();
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] b = new byte[4096];
+            for (int length; (length = in.read(b)) > 0;) {
+                buffer.write(b, 0, length);
+            }
+            return buffer.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    @WebService(targetNamespace="http://registrdigitalizace.cz/soapservices")
+    public static class RecordService {
+
+        @WebMethod(operationName = "findRecords")
+        public List<DigitizationRecord> findRecords() throws Exception {
+            DigitizationRecord record = new DigitizationRecord();
+            record.setRecordId(1);
+            record.setState(DigitizationState.SCHEDULED);
+            record.setDescriptor(MarcTransformer.toSource(
+                    new DescriptorDataSource(DESCRIPTOR.getBytes("UTF-8"))));
+            List<DigitizationRecord> records = new ArrayList<DigitizationRecord>();
+            records.add(record);
+            return records;
+        }
+
+    }
+
+}
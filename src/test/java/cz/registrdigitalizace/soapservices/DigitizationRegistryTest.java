@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class DigitizationRegistryTest extends TestCase {
+
+    public DigitizationRegistryTest(String testName) {
+        super(testName);
+    }
+
+    public void testCursor() {
+        String cursor = DigitizationRegistry.encodeCursor(123456);
+        assertFalse(cursor, cursor.contains("123456"));
+        assertEquals(Integer.valueOf(123456), DigitizationRegistry.decodeCursor(cursor));
+        assertEquals(Integer.valueOf(0), DigitizationRegistry.decodeCursor(DigitizationRegistry.encodeCursor(0)));
+    }
+
+    public void testInvalidCursor() {
+        assertNull(DigitizationRegistry.decodeCursor("123"));
+        assertNull(DigitizationRegistry.decodeCursor("%%%"));
+        assertNull(DigitizationRegistry.decodeCursor(DigitizationRegistry.encodeCursor(-1)));
+    }
+
+    public void testFindRecordsPageParams() throws Exception {
+        DigitizationRegistry registry = new DigitizationRegistry();
+        try {
+            registry.findRecordsPage(null, null, 0, "bad", null);
+            fail();
+        } catch (DigitizationRegistryException ex) {
+            String msg = ex.getMessage();
+            assertTrue(msg, msg.contains("'query'"));
+            assertTrue(msg, msg.contains("'pageSize'"));
+            assertTrue(msg, msg.contains("'cursor'"));
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class MtomFilterTest extends TestCase {
+
+    public MtomFilterTest(String testName) {
+        super(testName);
+    }
+
+    public void testRemoveXop() {
+        assertEquals("text/xml", MtomFilter.removeXop("application/xop+xml, text/xml"));
+        assertEquals("text/xml", MtomFilter.removeXop("text/xml, application/xop+xml"));
+        assertEquals("text/xml, */*", MtomFilter.removeXop("text/xml, Application/XOP+xml;q=0.9, */*"));
+        assertEquals("", MtomFilter.removeXop("application/xop+xml"));
+        assertEquals("text/xml", MtomFilter.removeXop("text/xml"));
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.RecordUrnNbnResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class AddUrnNbnsQueryTest extends TestCase {
+
+    public AddUrnNbnsQueryTest(String testName) {
+        super(testName);
+    }
+
+    public void testAddUrnNbns() throws Exception {
+        JdbcStub jdbc = new JdbcStub()
+                .addResult("select id, stavrec", new Object[] {1, "progress"}, new Object[] {2, "finished"})
+                .addResult("select RPredloha_URNNBN", new Object[] {2, "urn:nbn:cz:a-2"});
+        Map<Integer, Set<String>> record2urnNbns = new LinkedHashMap<Integer, Set<String>>();
+        record2urnNbns.put(1, set("urn:nbn:cz:a-1", "urn:nbn:cz:b-1"));
+        record2urnNbns.put(2, set("urn:nbn:cz:a-2", "urn:nbn:cz:b-2"));
+        record2urnNbns.put(3, set("urn:nbn:cz:a-3"));
+        AddUrnNbnsQuery query = new AddUrnNbnsQuery(record2urnNbns, null);
+        UrnNbnIdAllocator allocator = new UrnNbnIdAllocator() {
+
+            private int lastId = 10;
+
+            @Override
+            int reserve(int size) {
+                int first = lastId + 1;
+                lastId += size;
+                return first;
+            }
+        };
+        query.setIdAllocator(allocator);
+        ConnectionProvider.getInstance().setDataSource(jdbc.getDataSource());
+        try {
+            query.run(new RegistryDataSource());
+        } finally {
+            ConnectionProvider.getInstance().setDataSource(null);
+        }
+
+        List<List<Object>> inserts = jdbc.getStatements("INSERT").get(0).getBatches();
+        assertEquals(3, inserts.size());
+        // the first URN:NBN of a record without any is flagged
+        assertEquals(Arrays.<Object>asList(11, 1, "urn:nbn:cz:a-1", 1), withoutDate(inserts.get(0)));
+        assertEquals(Arrays.<Object>asList(12, 1, "urn:nbn:cz:b-1", 0), withoutDate(inserts.get(1)));
+        assertEquals(Arrays.<Object>asList(13, 2, "urn:nbn:cz:b-2", 0), withoutDate(inserts.get(2)));
+
+        List<RecordUrnNbnResult> results = query.getResults();
+        assertResult(1, true, 2, results.get(0));
+        assertResult(2, true, 1, results.get(1));
+        assertResult(3, false, 0, results.get(2));
+        // IDs are allocated just for inserts
+        assertEquals(14, allocator.allocate());
+    }
+
+    public void testNothingToAdd() throws Exception {
+        JdbcStub jdbc = new JdbcStub()
+                .addResult("select id, stavrec", new Object[] {2, "finished"})
+                .addResult("select RPredloha_URNNBN", new Object[] {2, "urn:nbn:cz:a-2"});
+        Map<Integer, Set<String>> record2urnNbns = new LinkedHashMap<Integer, Set<String>>();
+        record2urnNbns.put(2, set("urn:nbn:cz:a-2"));
+        record2urnNbns.put(3, set("urn:nbn:cz:a-3"));
+        AddUrnNbnsQuery query = new AddUrnNbnsQuery(record2urnNbns, null);
+        query.setIdAllocator(new UrnNbnIdAllocator() {
+
+            @Override
+            int reserve(int size) {
+                throw new AssertionError("no ID is needed");
+            }
+        });
+        ConnectionProvider.getInstance().setDataSource(jdbc.getDataSource());
+        try {
+            query.run(new RegistryDataSource());
+        } finally {
+            ConnectionProvider.getInstance().setDataSource(null);
+        }
+        assertTrue(jdbc.getStatements("INSERT").isEmpty());
+        assertResult(2, true, 0, query.getResults().get(0));
+        assertResult(3, false, 0, query.getResults().get(1));
+    }
+
+    private static void assertResult(int recordId, boolean found, int added, RecordUrnNbnResult result) {
+        assertEquals(recordId, result.getRecordId());
+        assertEquals(found, result.isFound());
+        assertEquals(added, result.getAdded());
+    }
+
+    private static List<Object> withoutDate(List<Object> params) {
+        List<Object> result = new ArrayList<Object>(params);
+        result.remove(3);
+        return result;
+    }
+
+    private static Set<String> set(String... items) {
+        return new LinkedHashSet<String>(Arrays.asList(items));
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class ConnectionProviderTest extends TestCase {
+
+    public ConnectionProviderTest(String testName) {
+        super(testName);
+    }
+
+    public void testRetry() throws Exception {
+        ConnectionProvider provider = new ConnectionProvider();
+        provider.configure(5000, 1);
+        JdbcStub jdbc = new JdbcStub().setConnectFailures(3);
+        provider.setDataSource(jdbc.getDataSource());
+        Connection connection = provider.acquire();
+        assertNotNull(connection);
+        assertEquals(4, jdbc.getConnectAttempts());
+        assertEquals(3, provider.getRetryCount());
+        assertEquals(1, provider.getAcquireCount());
+        assertEquals(1, provider.getInUseCount());
+        provider.release(connection);
+        assertEquals(0, provider.getInUseCount());
+        assertEquals(Arrays.asList("close"), jdbc.getCalls());
+        assertEquals(0, provider.getFailureCount());
+    }
+
+    public void testTimeout() throws Exception {
+        ConnectionProvider provider = new ConnectionProvider();
+        provider.configure(100, 10);
+        JdbcStub jdbc = new JdbcStub().setConnectFailures(Integer.MAX_VALUE);
+        provider.setDataSource(jdbc.getDataSource());
+        long start = System.currentTimeMillis();
+        try {
+            provider.acquire();
+            fail();
+        } catch (SQLException ex) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(1, provider.getFailureCount());
+        assertEquals(0, provider.getInUseCount());
+        assertEquals(jdbc.getConnectAttempts() - 1, provider.getRetryCount());
+        // backoff bounds the number of attempts
+        assertTrue(String.valueOf(jdbc.getConnectAttempts()), jdbc.getConnectAttempts() < 20);
+    }
+
+    public void testHistogram() {
+        Histogram h = new Histogram();
+        assertEquals(0, h.getPercentile(50));
+        for (int i = 1; i <= 100; i++) {
+            h.record(i);
+        }
+        h.record(0);
+        assertEquals(101, h.getCount());
+        assertEquals(100, h.getMax());
+        assertEquals(50.0, h.getMean(), 0.001);
+        long p50 = h.getPercentile(50);
+        assertTrue(String.valueOf(p50), p50 >= 50 && p50 <= 63);
+        assertEquals(100, h.getPercentile(99));
+        assertEquals(0, h.getPercentile(0.5));
+        h.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, h.getPercentile(100));
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class GetRecordStatesQueryTest extends TestCase {
+
+    public GetRecordStatesQueryTest(String testName) {
+        super(testName);
+    }
+
+    public void testBuckets() {
+        assertEquals(0, GetRecordStatesQuery.getBucket(1));
+        assertEquals(1, GetRecordStatesQuery.getBucket(2));
+        assertEquals(1, GetRecordStatesQuery.getBucket(8));
+        assertEquals(4, GetRecordStatesQuery.getBucket(GetRecordStatesQuery.MAX_IDS));
+        assertEquals("select id, stavrec from predloha where id in (?)", GetRecordStatesQuery.getSql(0));
+        assertSame(GetRecordStatesQuery.getSql(2), GetRecordStatesQuery.getSql(2));
+    }
+
+    public void testPaddedParams() throws Exception {
+        JdbcStub jdbc = new JdbcStub();
+        new GetRecordStatesQuery(Arrays.asList(3, 1, 2)).prepareStatement(jdbc.getConnection());
+        JdbcStub.StubStatement pstmt = jdbc.getStatements().get(0);
+        assertEquals(GetRecordStatesQuery.getSql(1), pstmt.getSql());
+        assertEquals(Arrays.<Object>asList(3, 1, 2, 2, 2, 2, 2, 2), pstmt.getParams());
+    }
+
+}
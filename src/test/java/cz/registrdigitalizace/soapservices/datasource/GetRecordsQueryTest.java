@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.DigitizationRecord;
+import cz.registrdigitalizace.soapservices.model.PlainQuery;
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import cz.registrdigitalizace.soapservices.transform.MarcSource;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.transform.Source;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class GetRecordsQueryTest extends TestCase {
+
+    private static final String XML = "<record><leader/></record>";
+    private static final byte[] DESCRIPTOR = "<mods/>".getBytes();
+
+    public GetRecordsQueryTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        MaterializedDescriptors.setFormats(EnumSet.of(RecordFormat.MODS_34));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        MaterializedDescriptors.setFormats(EnumSet.noneOf(RecordFormat.class));
+        super.tearDown();
+    }
+
+    public void testMaterializedDescriptors() throws Exception {
+        String digest = new MarcSource(XML).getDigest();
+        GetRecordsQuery query = new GetRecordsQuery(new PlainQuery(), RecordFormat.MODS_34, 10);
+        long fresh = MaterializedDescriptors.getFreshCount();
+        long stale = MaterializedDescriptors.getStaleCount();
+        long missing = MaterializedDescriptors.getMissingCount();
+        query.consumeQuery(resultSet(
+                row(1, XML, digest, DESCRIPTOR),
+                row(2, XML, "0000", DESCRIPTOR),
+                row(3, XML, null, null),
+                row(4, null, null, null)));
+
+        List<DigitizationRecord> records = query.getRecords();
+        assertEquals(4, records.size());
+        Source descriptor = records.get(0).getDescriptor();
+        assertNotNull(descriptor);
+        assertFalse(descriptor instanceof MarcSource);
+        assertTrue(records.get(1).getDescriptor() instanceof MarcSource);
+        assertTrue(records.get(2).getDescriptor() instanceof MarcSource);
+        assertNull(records.get(3).getDescriptor());
+        assertEquals(fresh + 1, MaterializedDescriptors.getFreshCount());
+        assertEquals(stale + 1, MaterializedDescriptors.getStaleCount());
+        assertEquals(missing + 1, MaterializedDescriptors.getMissingCount());
+    }
+
+    public void testNotMaterializedFormat() throws Exception {
+        GetRecordsQuery query = new GetRecordsQuery(new PlainQuery(), RecordFormat.DC_RDF, 1);
+        query.consumeQuery(resultSet(row(1, XML, null, null), row(2, XML, null, null)));
+        assertEquals(1, query.getRecords().size());
+        assertTrue(query.getRecords().get(0).getDescriptor() instanceof MarcSource);
+    }
+
+    public void testSqlShape() throws Exception {
+        PlainQuery pquery = new PlainQuery();
+        pquery.setIsbn("80-1");
+        pquery.setPole001("001");
+        pquery.setTitle("");
+        List<Object> params = new ArrayList<Object>();
+        String sql = prepare(new GetRecordsQuery(pquery, RecordFormat.MODS_34, 10), params);
+        assertEquals("select p.id, p.stavrec, p.xml, d.SOURCE_HASH, d.DESCRIPTOR from predloha p"
+                + " left outer join PREDLOHA_DESCRIPTOR d on d.PREDLOHA_ID = p.id and d.FORMAT = ?"
+                + " where p.ISBN=? and p.POLE001=?", sql);
+        assertEquals(Arrays.<Object>asList("MODS_34", "80-1", "001"), params);
+
+        params.clear();
+        pquery.setIsbn("80-2");
+        String sql2 = prepare(new GetRecordsQuery(pquery, RecordFormat.DC_RDF, 10), params);
+        assertEquals("select p.id, p.stavrec, p.xml from predloha p where p.ISBN=? and p.POLE001=?", sql2);
+        assertEquals(Arrays.<Object>asList("80-2", "001"), params);
+        // the SQL is memoized
+        params.clear();
+        assertSame(sql2, prepare(new GetRecordsQuery(pquery, RecordFormat.DC_RDF, 10), params));
+        assertEquals("ISBN+POLE001 materialized",
+                GetRecordsQuery.toShapeName((1 << 2) | (1 << 8) | GetRecordsQuery.MATERIALIZED_SHAPE));
+    }
+
+    public void testPage() throws Exception {
+        PlainQuery pquery = new PlainQuery();
+        pquery.setCcnb("cnb1");
+        List<Object> params = new ArrayList<Object>();
+        int[] maxRows = new int[1];
+        String sql = prepare(new GetRecordsQuery(pquery, RecordFormat.MARC_XML, 51, 1200), params, maxRows);
+        assertEquals("select p.id, p.stavrec, p.xml from predloha p"
+                + " where p.CCNB=? and p.id>? order by p.id", sql);
+        assertEquals(Arrays.<Object>asList("cnb1", 1200), params);
+        assertEquals(51, maxRows[0]);
+        assertEquals("CCNB page after", GetRecordsQuery.toShapeName(
+                2 | GetRecordsQuery.PAGE_SHAPE | GetRecordsQuery.AFTER_ID_SHAPE));
+
+        // the first page has no cursor but has to be ordered too
+        params.clear();
+        sql = prepare(new GetRecordsQuery(pquery, RecordFormat.MARC_XML, 51, null), params, maxRows);
+        assertEquals("select p.id, p.stavrec, p.xml from predloha p"
+                + " where p.CCNB=? order by p.id", sql);
+        assertEquals(Arrays.<Object>asList("cnb1"), params);
+        assertEquals(51, maxRows[0]);
+        assertEquals("CCNB page", GetRecordsQuery.toShapeName(2 | GetRecordsQuery.PAGE_SHAPE));
+    }
+
+    public void testCandidateIds() throws Exception {
+        PlainQuery pquery = new PlainQuery();
+        pquery.setBarcode("b1");
+        List<Object> params = new ArrayList<Object>();
+        String sql = prepare(new GetRecordsQuery(pquery, RecordFormat.MARC_XML, 10, true, 5,
+                new int[] {7, 9}), params);
+        assertEquals("select p.id, p.stavrec, p.xml from predloha p"
+                + " where p.CARKOD=? and p.id in (?, ?, ?, ?, ?, ?, ?, ?) and p.id>? order by p.id", sql);
+        assertEquals(Arrays.<Object>asList("b1", 7, 9, 9, 9, 9, 9, 9, 9, 5), params);
+        assertEquals("CARKOD page after ids:8", GetRecordsQuery.toShapeName(
+                1 | GetRecordsQuery.PAGE_SHAPE | GetRecordsQuery.AFTER_ID_SHAPE | (2 << Integer.numberOfTrailingZeros(GetRecordsQuery.IDS_SHAPE_MASK))));
+    }
+
+    public void testRecent() throws Exception {
+        PlainQuery pquery = new PlainQuery();
+        pquery.setBarcode("b1");
+        List<Object> params = new ArrayList<Object>();
+        Date since = Date.valueOf("2012-05-01");
+        String sql = prepare(new GetRecordsQuery(pquery, RecordFormat.MARC_XML, 10, true, 5,
+                since, 300), params);
+        assertEquals("select p.id, p.stavrec, p.xml from predloha p"
+                + " where p.CARKOD=? and p.id>? and (p.id>? or p.edidate>=?) order by p.id", sql);
+        assertEquals(Arrays.<Object>asList("b1", 5, 300, since), params);
+        assertEquals("CARKOD page after recent", GetRecordsQuery.toShapeName(
+                1 | GetRecordsQuery.PAGE_SHAPE | GetRecordsQuery.AFTER_ID_SHAPE | GetRecordsQuery.RECENT_SHAPE));
+    }
+
+    public void testShapeStatistics() throws Exception {
+        PlainQuery pquery = new PlainQuery();
+        pquery.setVolume("1");
+        GetRecordsQuery query = new GetRecordsQuery(pquery, RecordFormat.DC_RDF, 10);
+        prepare(query, new ArrayList<Object>());
+        query.consumeQuery(resultSet(row(1, XML, null, null)));
+        String stats = GetRecordsQuery.toStatistics();
+        assertTrue(stats, stats.contains("ROCNIKPER: executions: 1,"));
+    }
+
+    private static String prepare(GetRecordsQuery query, List<Object> params) throws Exception {
+        return prepare(query, params, new int[1]);
+    }
+
+    /**
+     * Prepares the statement and collects its parameters.
+     * @return SQL
+     */
+    private static String prepare(GetRecordsQuery query, List<Object> params,
+            int[] maxRows) throws Exception {
+
+        JdbcStub jdbc = new JdbcStub();
+        PreparedStatement prepared = query.prepareStatement(jdbc.getConnection());
+        JdbcStub.StubStatement pstmt = jdbc.getStatements().get(0);
+        assertSame(pstmt.getProxy(), prepared);
+        params.addAll(pstmt.getParams());
+        String setMaxRows = pstmt.getSql() + ".setMaxRows(";
+        for (String call : jdbc.getCalls()) {
+            if (call.startsWith(setMaxRows)) {
+                maxRows[0] = Integer.parseInt(call.substring(setMaxRows.length(), call.length() - 1));
+            }
+        }
+        return pstmt.getSql();
+    }
+
+    private static Map<String, Object> row(int id, String xml, String hash, byte[] descriptor) {
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("ID", id);
+        row.put("STAVREC", "plan");
+        row.put("XML", xml);
+        row.put("SOURCE_HASH", hash);
+        row.put("DESCRIPTOR", descriptor);
+        return row;
+    }
+
+    private static ResultSet resultSet(Map<String, Object>... rows) {
+        return JdbcStub.resultSet(Arrays.asList(rows));
+    }
+
+}
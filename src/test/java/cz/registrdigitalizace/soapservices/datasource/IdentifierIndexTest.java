@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.DigitizationRecord;
+import cz.registrdigitalizace.soapservices.model.PlainQuery;
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class IdentifierIndexTest extends TestCase {
+
+    public IdentifierIndexTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        IdentifierIndex.setInstance(null);
+        super.tearDown();
+    }
+
+    public void testAdd() throws Exception {
+        IdentifierIndex index = new IdentifierIndex();
+        index.add(new int[] {3, 1, 2, 1}, new String[][] {
+            {"b1", "cnb1", null, "", "001"},
+            {"b1", null, "80-1", null, null},
+            {"b2", null, "80-1", null, null},
+            {"b1", null, null, null, null},
+        }, 4);
+        assertTrue(Arrays.equals(new int[] {1, 3}, index.get(0, "b1")));
+        assertTrue(Arrays.equals(new int[] {2}, index.get(0, "b2")));
+        assertTrue(Arrays.equals(new int[] {3}, index.get(1, "cnb1")));
+        // the second row of record 1 replaced its identifiers
+        assertTrue(Arrays.equals(new int[] {2}, index.get(2, "80-1")));
+        assertEquals(0, index.get(3, "").length);
+        assertEquals(0, index.get(4, "b1").length);
+        assertEquals(5, index.getSize());
+        assertTrue(index.getMemoryUsage() > 0);
+    }
+
+    public void testReplace() throws Exception {
+        IdentifierIndex index = new IdentifierIndex();
+        for (int i = 0; i < 100; i++) {
+            index.add(new int[] {i}, new String[][] {{"b" + i, "cnb", null, null, null}}, 1);
+        }
+        index.add(new int[] {7, 8}, new String[][] {
+            {"b7x", "cnb", null, null, null},
+            {"b8", null, "80-8", null, null},
+        }, 2);
+        assertEquals(0, index.get(0, "b7").length);
+        assertTrue(Arrays.equals(new int[] {7}, index.get(0, "b7x")));
+        assertTrue(Arrays.equals(new int[] {8}, index.get(0, "b8")));
+        assertTrue(Arrays.equals(new int[] {8}, index.get(2, "80-8")));
+        assertEquals(99, index.get(1, "cnb").length);
+        // removed entries are reused
+        index.add(new int[] {200}, new String[][] {{"b7", null, null, null, null}}, 1);
+        assertTrue(Arrays.equals(new int[] {200}, index.get(0, "b7")));
+    }
+
+    public void testCurrent() throws Exception {
+        IdentifierIndex index = new IdentifierIndex();
+        assertFalse(index.isCurrent());
+        IdentifierIndex.setMaxLag(60 * 1000);
+        try {
+            index.setRefreshed(IndexRefresher.startOfDay(System.currentTimeMillis()), System.currentTimeMillis());
+            assertTrue(index.isCurrent());
+            index.setRefreshed(index.getSince(), System.currentTimeMillis() - 61 * 1000);
+            assertFalse(index.isCurrent());
+        } finally {
+            IdentifierIndex.setMaxLag(0);
+        }
+    }
+
+    /**
+     * A hit of a current index reads candidates by a single statement.
+     */
+    public void testLookupStatements() throws Exception {
+        IdentifierIndex index = new IdentifierIndex();
+        index.add(new int[] {3, 5}, new String[][] {
+            {"b1", null, null, null, null},
+            {"b1", null, null, null, null},
+        }, 2);
+        IdentifierIndex.setInstance(index);
+        PlainQuery pquery = new PlainQuery();
+        pquery.setBarcode("b1");
+        JdbcStub jdbc = new JdbcStub();
+        ConnectionProvider.getInstance().setDataSource(jdbc.getDataSource());
+        IdentifierIndex.setMaxLag(60 * 1000);
+        try {
+            index.setRefreshed(IndexRefresher.startOfDay(System.currentTimeMillis()), System.currentTimeMillis());
+            new DigitizationRegistryDao().findRecords(pquery, RecordFormat.MARC_XML, 10);
+            assertEquals(1, jdbc.getStatements().size());
+            assertTrue(jdbc.getStatements().get(0).getSql(),
+                    jdbc.getStatements().get(0).getSql().contains("where p.CARKOD=? and p.id in (?, "));
+
+            // a lagging index searches recent records too
+            index.setRefreshed(index.getSince(), System.currentTimeMillis() - 61 * 1000);
+            new DigitizationRegistryDao().findRecords(pquery, RecordFormat.MARC_XML, 10);
+            assertEquals(3, jdbc.getStatements().size());
+            assertTrue(jdbc.getStatements().get(2).getSql(),
+                    jdbc.getStatements().get(2).getSql().endsWith("(p.id>? or p.edidate>=?)"));
+        } finally {
+            IdentifierIndex.setMaxLag(0);
+            ConnectionProvider.getInstance().setDataSource(null);
+        }
+    }
+
+    public void testRehash() throws Exception {
+        IdentifierIndex.ValueTable table = new IdentifierIndex.ValueTable();
+        for (int i = 0; i < 10000; i++) {
+            table.add("b" + i, i);
+            table.add("b" + (i / 2), i);
+        }
+        assertEquals(10000, table.size());
+        assertTrue(Arrays.equals(new int[] {9999}, table.get("b9999")));
+        int[] ids = table.get("b10");
+        Arrays.sort(ids);
+        assertTrue(Arrays.toString(ids), Arrays.equals(new int[] {10, 20, 21}, ids));
+        assertEquals(0, table.get("b10000").length);
+    }
+
+    public void testLookup() throws Exception {
+        PlainQuery pquery = new PlainQuery();
+        pquery.setBarcode("b1");
+        IdentifierIndex index = new IdentifierIndex();
+        index.add(new int[] {1, 2, 3}, new String[][] {
+            {"b1", "cnb1", null, null, null},
+            {"b1", "cnb1", null, null, null},
+            {"b1", "cnb2", null, null, null},
+        }, 3);
+        assertEquals(3, index.getMaxId());
+        long hits = IdentifierIndex.getHitCount();
+        assertTrue(Arrays.equals(new int[] {1, 2, 3}, index.lookup(pquery, 512)));
+        // the most selective column
+        pquery.setCcnb("cnb2");
+        assertTrue(Arrays.equals(new int[] {3}, index.lookup(pquery, 512)));
+        assertEquals(hits + 2, IdentifierIndex.getHitCount());
+        // too many candidates
+        pquery.setCcnb(null);
+        assertNull(index.lookup(pquery, 2));
+        // unknown value
+        pquery.setBarcode("b9");
+        assertNull(index.lookup(pquery, 512));
+        // not indexed column
+        pquery = new PlainQuery();
+        pquery.setTitle("b1");
+        assertNull(index.lookup(pquery, 512));
+    }
+
+    public void testMergeRecords() throws Exception {
+        List<DigitizationRecord> candidates = records(2, 5);
+        List<DigitizationRecord> recent = records(3, 5, 9);
+        assertEquals(Arrays.asList(2, 3, 5, 9), ids(DigitizationRegistryDao.mergeRecords(candidates, recent, 10, true)));
+        assertEquals(Arrays.asList(2, 3, 5), ids(DigitizationRegistryDao.mergeRecords(candidates, recent, 3, true)));
+        assertEquals(Arrays.asList(5, 2, 9), ids(DigitizationRegistryDao.mergeRecords(
+                records(5, 2), records(2, 9), 10, false)));
+        assertSame(candidates, DigitizationRegistryDao.mergeRecords(candidates, records(), 10, true));
+    }
+
+    private static List<DigitizationRecord> records(int... ids) {
+        List<DigitizationRecord> records = new ArrayList<DigitizationRecord>();
+        for (int id : ids) {
+            DigitizationRecord record = new DigitizationRecord();
+            record.setRecordId(id);
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static List<Integer> ids(List<DigitizationRecord> records) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (DigitizationRecord record : records) {
+            ids.add(record.getRecordId());
+        }
+        return ids;
+    }
+
+}
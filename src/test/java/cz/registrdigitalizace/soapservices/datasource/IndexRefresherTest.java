@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class IndexRefresherTest extends TestCase {
+
+    public IndexRefresherTest(String testName) {
+        super(testName);
+    }
+
+    public void testRebuildAndRefresh() throws Exception {
+        ListRefresher refresher = new ListRefresher(2, 5);
+        refresher.run();
+        // chunks of 2 records until a short one
+        assertEquals("[null after -1, null after 2, null after 4]", refresher.reads.toString());
+        assertEquals(5, refresher.index.size());
+        assertEquals(IndexRefresher.startOfDay(System.currentTimeMillis()), refresher.refreshedDay);
+        assertTrue(refresher.getLag() >= 0);
+
+        refresher.reads.clear();
+        List<Integer> index = refresher.index;
+        refresher.run();
+        // the same day refreshes the published index
+        assertSame(index, refresher.index);
+        assertEquals("[" + refresher.refreshedDay + " after -1, " + refresher.refreshedDay + " after 2, "
+                + refresher.refreshedDay + " after 4]", refresher.reads.toString());
+        assertEquals(0, refresher.getFailureCount());
+        assertTrue(refresher.toString(), refresher.toString().startsWith("ListRefresher[runs: 2, rebuilds: 1, failures: 0,"));
+    }
+
+    public void testFailure() throws Exception {
+        ListRefresher refresher = new ListRefresher(2, -1);
+        refresher.run();
+        assertEquals(1, refresher.getFailureCount());
+        assertNull(refresher.index);
+        assertEquals(-1, refresher.getLag());
+    }
+
+    /**
+     * Indexes IDs 1..records into a list.
+     */
+    private static final class ListRefresher extends IndexRefresher<List<Integer>> {
+
+        private final int records;
+        private final List<String> reads = new ArrayList<String>();
+        private List<Integer> index;
+        private Date refreshedDay;
+
+        ListRefresher(int batchSize, int records) {
+            super(batchSize);
+            this.records = records;
+        }
+
+        @Override
+        List<Integer> getIndex() {
+            return index;
+        }
+
+        @Override
+        List<Integer> createIndex() {
+            return new ArrayList<Integer>();
+        }
+
+        @Override
+        void publish(List<Integer> index) {
+            this.index = index;
+        }
+
+        @Override
+        void refreshed(List<Integer> index, Date day, long time) {
+            this.refreshedDay = day;
+        }
+
+        @Override
+        Chunk indexChunk(List<Integer> index, Date since, int lastId, int maxRecords) throws DataSourceException {
+            if (records < 0) {
+                throw new DataSourceException("test");
+            }
+            reads.add(since + " after " + lastId);
+            final List<Integer> chunk = new ArrayList<Integer>();
+            for (int id = lastId + 1; id <= records && chunk.size() < maxRecords; id++) {
+                if (id > 0) {
+                    chunk.add(id);
+                }
+            }
+            if (!index.containsAll(chunk)) {
+                index.addAll(chunk);
+            }
+            return new Chunk() {
+
+                public int size() {
+                    return chunk.size();
+                }
+
+                public int getLastId() {
+                    return chunk.get(chunk.size() - 1);
+                }
+            };
+        }
+
+        @Override
+        String getIndexStatistics() {
+            return "ListIndex";
+        }
+    }
+
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.sql.DataSource;
+
+/**
+ * JDBC stubs for query tests. The stub connection answers queries with
+ * canned rows and records calls, statement parameters and written rows.
+ * <p>Calls are recorded as {@code method(args)} for the connection and
+ * as {@code sql.method(args)} for statements. Parameter setters are not
+ * recorded as calls; see {@link StubStatement#getParams()}.
+ *
+ * @author Jan Pokorsky
+ */
+final class JdbcStub {
+
+    /**
+     * Tells the number of rows updated by an update or by an item of a batch.
+     */
+    interface UpdateCounter {
+        int count(String sql, List<Object> params);
+    }
+
+    private final List<String> calls = new ArrayList<String>();
+    private final List<StubStatement> statements = new ArrayList<StubStatement>();
+    /** SQL prefix to rows */
+    private final Map<String, List<?>> results = new LinkedHashMap<String, List<?>>();
+    private final List<String> writes = new ArrayList<String>();
+    private UpdateCounter updateCounter = new UpdateCounter() {
+
+        public int count(String sql, List<Object> params) {
+            return 1;
+        }
+    };
+    private int connectFailures;
+    private int connectAttempts;
+    private final Connection connection = (Connection) proxy(Connection.class, new InvocationHandler() {
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("prepareStatement".equals(name)) {
+                calls.add(name + ' ' + args[0]);
+                StubStatement statement = new StubStatement((String) args[0]);
+                statements.add(statement);
+                return statement.proxy;
+            }
+            calls.add(toCall(name, args));
+            return defaultValue(method.getReturnType());
+        }
+    });
+
+    /**
+     * Queries starting with the SQL prefix select the rows.
+     *
+     * @param rows {@code Object[]} read by column index
+     *          or {@code Map<String, Object>} read by upper case column name
+     */
+    public JdbcStub addResult(String sqlPrefix, List<?> rows) {
+        results.put(sqlPrefix, rows);
+        return this;
+    }
+
+    public JdbcStub addResult(String sqlPrefix, Object[]... rows) {
+        return addResult(sqlPrefix, Arrays.asList(rows));
+    }
+
+    public JdbcStub setUpdateCounter(UpdateCounter updateCounter) {
+        this.updateCounter = updateCounter;
+        return this;
+    }
+
+    /**
+     * Makes the data source fail to get the connection the given number of times.
+     */
+    public JdbcStub setConnectFailures(int connectFailures) {
+        this.connectFailures = connectFailures;
+        return this;
+    }
+
+    public int getConnectAttempts() {
+        return connectAttempts;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public DataSource getDataSource() {
+        return (DataSource) proxy(DataSource.class, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (!"getConnection".equals(method.getName())) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                if (connectAttempts++ < connectFailures) {
+                    throw new SQLException("pool exhausted");
+                }
+                return connection;
+            }
+        });
+    }
+
+    public List<String> getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return prepared statements in order of preparation
+     */
+    public List<StubStatement> getStatements() {
+        return statements;
+    }
+
+    /**
+     * @return statements with the SQL prefix in order of preparation
+     */
+    public List<StubStatement> getStatements(String sqlPrefix) {
+        List<StubStatement> result = new ArrayList<StubStatement>();
+        for (StubStatement statement : statements) {
+            if (statement.getSql().startsWith(sqlPrefix)) {
+                result.add(statement);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return executed updates and batch items as {@code sql[params]}
+     */
+    public List<String> getWrites() {
+        return writes;
+    }
+
+    /**
+     * Creates a result set of the rows.
+     *
+     * @param rows {@code Object[]} read by column index
+     *          or {@code Map<String, Object>} read by upper case column name
+     */
+    public static ResultSet resultSet(List<?> rows) {
+        final Iterator<?> it = rows.iterator();
+        return (ResultSet) proxy(ResultSet.class, new InvocationHandler() {
+
+            private Object row;
+            private boolean wasNull;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("next".equals(name)) {
+                    row = it.hasNext() ? it.next() : null;
+                    return row != null;
+                } else if ("wasNull".equals(name)) {
+                    return wasNull;
+                } else if (name.startsWith("get") && args != null && args.length == 1) {
+                    Object value = row instanceof Map
+                            ? ((Map<?, ?>) row).get(((String) args[0]).toUpperCase())
+                            : ((Object[]) row)[(Integer) args[0] - 1];
+                    wasNull = value == null;
+                    if (value == null) {
+                        return defaultValue(method.getReturnType());
+                    }
+                    return method.getReturnType() == String.class ? value.toString() : value;
+                }
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    public static ResultSet resultSet(Object[]... rows) {
+        return resultSet(Arrays.asList(rows));
+    }
+
+    private List<?> getRows(String sql) {
+        for (Map.Entry<String, List<?>> entry : results.entrySet()) {
+            if (sql.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return new ArrayList<Object>();
+    }
+
+    private static String toCall(String name, Object[] args) {
+        if (args == null) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(name).append('(');
+        for (int i = 0; i < args.length; i++) {
+            sb.append(i > 0 ? ", " : "").append(args[i]);
+        }
+        return sb.append(')').toString();
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == Boolean.TYPE) {
+            return false;
+        } else if (type == Integer.TYPE) {
+            return 0;
+        } else if (type == Long.TYPE) {
+            return 0L;
+        } else if (type.isPrimitive() && type != Void.TYPE) {
+            throw new UnsupportedOperationException(type.getName());
+        }
+        return null;
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(JdbcStub.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    /**
+     * Statement prepared by the stub connection.
+     */
+    final class StubStatement implements InvocationHandler {
+
+        private final String sql;
+        private final List<Object> params = new ArrayList<Object>();
+        /** parameters of all batch items */
+        private final List<List<Object>> batches = new ArrayList<List<Object>>();
+        /** batch items waiting for execution */
+        private final List<List<Object>> batch = new ArrayList<List<Object>>();
+        private final PreparedStatement proxy = (PreparedStatement) proxy(PreparedStatement.class, this);
+
+        StubStatement(String sql) {
+            this.sql = sql;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * @return the current parameters in order of their indexes
+         */
+        public List<Object> getParams() {
+            return params;
+        }
+
+        /**
+         * @return parameters of all items added to batches
+         */
+        public List<List<Object>> getBatches() {
+            return batches;
+        }
+
+        public PreparedStatement getProxy() {
+            return proxy;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                int index = (Integer) args[0];
+                while (params.size() < index) {
+                    params.add(null);
+                }
+                params.set(index - 1, "setNull".equals(name) ? null : args[1]);
+                return null;
+            }
+            calls.add(sql + '.' + toCall(name, args));
+            if ("clearParameters".equals(name)) {
+                params.clear();
+            } else if ("addBatch".equals(name)) {
+                writes.add(sql + params);
+                batch.add(new ArrayList<Object>(params));
+                batches.add(batch.get(batch.size() - 1));
+            } else if ("executeBatch".equals(name)) {
+                int[] counts = new int[batch.size()];
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = updateCounter.count(sql, batch.get(i));
+                }
+                batch.clear();
+                return counts;
+            } else if ("executeUpdate".equals(name)) {
+                writes.add(sql + params);
+                return updateCounter.count(sql, params);
+            } else if ("executeQuery".equals(name)) {
+                return resultSet(getRows(sql));
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+    }
+
+}
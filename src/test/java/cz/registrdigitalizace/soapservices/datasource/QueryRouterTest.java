@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.DigitizationState;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class QueryRouterTest extends TestCase {
+
+    private final GetRecordStateQuery read = new GetRecordStateQuery(1);
+    private final UpdateScanningStateQuery write = new UpdateScanningStateQuery(
+            1, DigitizationState.FINISHED, DigitizationState.IN_PROGRESS, "user", null);
+
+    public QueryRouterTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        QueryRouter.configure(null, QueryRouter.DEFAULT_MAX_LAG);
+        super.tearDown();
+    }
+
+    public void testNoReplica() {
+        QueryRouter.configure(null, 1000);
+        assertSame(ConnectionProvider.getInstance(), QueryRouter.route(read));
+        assertSame(ConnectionProvider.getInstance(), QueryRouter.route(write));
+    }
+
+    public void testReplicaLag() {
+        QueryRouter.configure("java:/comp/env/jdbc/replica", 1000);
+        ConnectionProvider replica = QueryRouter.getReplica();
+        // unknown lag
+        long lagRedirects = QueryRouter.getLagRedirectCount();
+        assertSame(ConnectionProvider.getInstance(), QueryRouter.route(read));
+        assertEquals(lagRedirects + 1, QueryRouter.getLagRedirectCount());
+
+        QueryRouter.setLag(10);
+        assertSame(replica, QueryRouter.route(read));
+        assertSame(ConnectionProvider.getInstance(), QueryRouter.route(write));
+
+        QueryRouter.setLag(1001);
+        assertSame(ConnectionProvider.getInstance(), QueryRouter.route(read));
+    }
+
+    public void testReadYourWrites() {
+        QueryRouter.configure("java:/comp/env/jdbc/replica", 1000);
+        QueryRouter.setLag(0);
+        ConnectionProvider replica = QueryRouter.getReplica();
+        assertSame(replica, QueryRouter.route(read));
+
+        // refreshed descriptors need no read your writes
+        QueryRouter.record(new StoreDescriptorsQuery(), ConnectionProvider.getInstance(), 1000);
+        assertSame(replica, QueryRouter.route(read));
+
+        long writeRedirects = QueryRouter.getWriteRedirectCount();
+        QueryRouter.record(write, ConnectionProvider.getInstance(), 1000);
+        assertSame(ConnectionProvider.getInstance(), QueryRouter.route(read));
+        assertEquals(writeRedirects + 1, QueryRouter.getWriteRedirectCount());
+    }
+
+    public void testReadOnlyConnection() throws Exception {
+        QueryRouter.configure("java:/comp/env/jdbc/replica", 1000);
+        QueryRouter.setLag(0);
+        ConnectionProvider replica = QueryRouter.getReplica();
+        JdbcStub jdbc = new JdbcStub();
+        replica.setDataSource(jdbc.getDataSource());
+        long replicaReads = QueryRouter.getReplicaReadTime().getCount();
+
+        new RegistryDataSource().runQuery(read);
+        String sql = "select stavrec from predloha where id=?";
+        assertEquals(Arrays.asList("setAutoCommit(true)", "setReadOnly(true)", "prepareStatement " + sql,
+                sql + ".executeQuery", sql + ".close", "setReadOnly(false)", "close"), jdbc.getCalls());
+        assertEquals(replicaReads + 1, QueryRouter.getReplicaReadTime().getCount());
+        assertEquals(0, replica.getInUseCount());
+    }
+
+}
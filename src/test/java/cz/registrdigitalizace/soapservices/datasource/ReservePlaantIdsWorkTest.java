@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class ReservePlaantIdsWorkTest extends TestCase {
+
+    public ReservePlaantIdsWorkTest(String testName) {
+        super(testName);
+    }
+
+    public void testReserve() throws Exception {
+        JdbcStub jdbc = new JdbcStub().addResult(ReservePlaantIdsWork.SQL_LOCK_ID, new Object[] {41});
+        ReservePlaantIdsWork work = new ReservePlaantIdsWork("desk", 10);
+        assertTrue(new UnitOfWork("test", jdbc.getConnection()).run(work.getSteps()));
+        assertEquals(42, work.getFirstId());
+        assertEquals(Arrays.asList(ReservePlaantIdsWork.SQL_UPDATE_ID + "[51, desk]"), jdbc.getWrites());
+        // the row is locked before the update
+        assertEquals(ReservePlaantIdsWork.SQL_LOCK_ID, jdbc.getStatements().get(0).getSql());
+    }
+
+    public void testMissingRow() throws Exception {
+        JdbcStub jdbc = new JdbcStub();
+        ReservePlaantIdsWork work = new ReservePlaantIdsWork("desk", 10);
+        try {
+            new UnitOfWork("test", jdbc.getConnection()).run(work.getSteps());
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        assertTrue(jdbc.getWrites().isEmpty());
+    }
+
+}
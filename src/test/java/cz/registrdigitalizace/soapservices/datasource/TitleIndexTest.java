@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.datasource.TitleIndex.Field;
+import cz.registrdigitalizace.soapservices.model.PlainQuery;
+import cz.registrdigitalizace.soapservices.model.TitleMatch;
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class TitleIndexTest extends TestCase {
+
+    private TitleIndex index;
+
+    public TitleIndexTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        index = new TitleIndex();
+        index.add(1, "Babi\u010dka", Arrays.asList("N\u011bmcov\u00e1, Bo\u017eena,"), Collections.<String>emptyList());
+        index.add(2, "Obraz Jednoty \u010ceskobratrsk\u00e9", Arrays.asList("Komensk\u00fd, Jan Amos,"),
+                Arrays.asList("c\u00edrkevn\u00ed d\u011bjiny"));
+        index.add(3, "Babi\u010dka : obrazy venkovsk\u00e9ho \u017eivota", Collections.<String>emptyList(),
+                Arrays.asList("venkov"));
+    }
+
+    public void testNormalize() throws Exception {
+        assertEquals(Arrays.asList("ceska", "kniha", "lasicki", "1869"),
+                TextNormalizer.tokenize("\u010cesk\u00e1 KNIHA, \u0141asicki - 1869."));
+        assertTrue(TextNormalizer.tokenize(" .,- ").isEmpty());
+    }
+
+    public void testDistance() throws Exception {
+        assertEquals(0, TextNormalizer.distance("babicka", "babicka", 2));
+        assertEquals(1, TextNormalizer.distance("babicka", "babika", 2));
+        assertEquals(2, TextNormalizer.distance("babicka", "bbaicka", 2));
+        assertEquals(3, TextNormalizer.distance("babicka", "obraz", 2));
+        assertEquals(2, TextNormalizer.distance("abc", "abcdef", 1));
+    }
+
+    public void testPrefix() throws Exception {
+        assertTrue(Arrays.equals(new int[] {1, 3}, index.search("BABI", TitleMatch.PREFIX, Field.TITLE)));
+        assertTrue(Arrays.equals(new int[] {2, 3}, index.search("obraz", TitleMatch.PREFIX, Field.TITLE)));
+        assertTrue(Arrays.equals(new int[] {3}, index.search("ob babi", TitleMatch.PREFIX, Field.TITLE)));
+        // authors and subjects are not title words
+        assertEquals(0, index.search("bozena nem", TitleMatch.PREFIX, Field.TITLE).length);
+        assertEquals(0, index.search("babi nemcova", TitleMatch.PREFIX, Field.TITLE).length);
+        assertTrue(Arrays.equals(new int[] {1}, index.search("bozena nem", TitleMatch.PREFIX, Field.AUTHOR)));
+        assertTrue(Arrays.equals(new int[] {2}, index.search("C\u00edrkevn\u00ed", TitleMatch.PREFIX, Field.SUBJECT)));
+        assertEquals(0, index.search("C\u00edrkevn\u00ed", TitleMatch.PREFIX, Field.AUTHOR).length);
+        assertEquals(0, index.search("babi", TitleMatch.PREFIX, Field.AUTHOR).length);
+        assertEquals(0, index.search("babi komensky", TitleMatch.PREFIX, Field.TITLE).length);
+        assertEquals(0, index.search("--", TitleMatch.PREFIX, Field.TITLE).length);
+    }
+
+    public void testFuzzy() throws Exception {
+        assertTrue(Arrays.equals(new int[] {1, 3}, index.search("babicka", TitleMatch.FUZZY, Field.TITLE)));
+        assertTrue(Arrays.equals(new int[] {1, 3}, index.search("babika", TitleMatch.FUZZY, Field.TITLE)));
+        assertTrue(Arrays.equals(new int[] {2}, index.search("komenskyho", TitleMatch.FUZZY, Field.AUTHOR)));
+        // short words have to match exactly
+        assertTrue(Arrays.equals(new int[] {2}, index.search("jan", TitleMatch.FUZZY, Field.AUTHOR)));
+        assertEquals(0, index.search("jen", TitleMatch.FUZZY, Field.AUTHOR).length);
+        // not a prefix search
+        assertEquals(0, index.search("babi", TitleMatch.FUZZY, Field.TITLE).length);
+    }
+
+    public void testUpdate() throws Exception {
+        assertEquals(3, index.getRecordCount());
+        int words = index.getWordCount();
+        index.add(1, "D\u011bde\u010dek", Collections.<String>emptyList(), Collections.<String>emptyList());
+        assertTrue(Arrays.equals(new int[] {3}, index.search("babicka", TitleMatch.PREFIX, Field.TITLE)));
+        assertTrue(Arrays.equals(new int[] {1}, index.search("dedecek", TitleMatch.PREFIX, Field.TITLE)));
+        assertEquals(0, index.search("nemcova", TitleMatch.PREFIX, Field.AUTHOR).length);
+        // nemcova, bozena replaced with dedecek; babicka is left to record 3
+        assertEquals(words - 1, index.getWordCount());
+
+        index.add(1, null, Collections.<String>emptyList(), Collections.<String>emptyList());
+        assertEquals(2, index.getRecordCount());
+        assertEquals(0, index.search("dedecek", TitleMatch.PREFIX, Field.TITLE).length);
+        assertTrue(index.getMemoryUsage() > 0);
+    }
+
+    public void testSearchFields() throws Exception {
+        TitleIndex.setInstance(index);
+        try {
+            PlainQuery pquery = new PlainQuery();
+            pquery.setTitleMatch(TitleMatch.PREFIX);
+            pquery.setAuthor("komensky");
+            assertEquals(1, new DigitizationRegistryDao().countRecords(pquery));
+            pquery.setAuthor(null);
+            pquery.setTitle("babi");
+            pquery.setSubject("venkov");
+            assertEquals(1, new DigitizationRegistryDao().countRecords(pquery));
+            pquery.setAuthor("nemcova");
+            assertEquals(0, new DigitizationRegistryDao().countRecords(pquery));
+        } finally {
+            TitleIndex.setInstance(null);
+        }
+    }
+
+    public void testTooBroadQuery() throws Exception {
+        TitleIndex broadIndex = new TitleIndex();
+        for (int i = 1; i <= 600; i++) {
+            broadIndex.add(i, "Kalend\u00e1\u0159 " + i, Collections.<String>emptyList(),
+                    Collections.<String>emptyList());
+        }
+        TitleIndex.setInstance(broadIndex);
+        DigitizationRegistryDao.setMaxTitleCandidates(1);
+        try {
+            PlainQuery pquery = new PlainQuery();
+            pquery.setTitle("kalendar");
+            pquery.setTitleMatch(TitleMatch.PREFIX);
+            pquery.setIssueDate("1869");
+            new DigitizationRegistryDao().countRecords(pquery);
+            fail();
+        } catch (QueryTooBroadException ex) {
+            assertEquals("The title matches 600 records, more than 512. Use a more specific title.", ex.getMessage());
+        } finally {
+            TitleIndex.setInstance(null);
+            DigitizationRegistryDao.setMaxTitleCandidates(DigitizationRegistryDao.DEFAULT_MAX_TITLE_CANDIDATES);
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class UnitOfWorkTest extends TestCase {
+
+    private JdbcStub jdbc;
+
+    public UnitOfWorkTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        jdbc = new JdbcStub();
+    }
+
+    public void testStatementReuseAndBatches() throws Exception {
+        ConnectionProvider provider = new ConnectionProvider();
+        provider.setDataSource(jdbc.getDataSource());
+        boolean committed = new RegistryDataSource().runWork("test", Arrays.asList(
+                new WorkStep("first") {
+
+                    @Override
+                    public boolean run(UnitOfWork work) throws SQLException {
+                        work.batch("insert A").addBatch();
+                        work.prepareStatement("select").executeQuery();
+                        return true;
+                    }
+                },
+                new WorkStep("second") {
+
+                    @Override
+                    public boolean run(UnitOfWork work) throws SQLException {
+                        work.prepareStatement("select").executeQuery();
+                        work.batch("insert B").addBatch();
+                        work.batch("insert A").addBatch();
+                        return true;
+                    }
+                }), provider);
+        assertTrue(committed);
+        assertEquals(Arrays.asList("setAutoCommit(false)", "prepareStatement insert A", "insert A.addBatch",
+                "prepareStatement select", "select.executeQuery",
+                "select.clearParameters", "select.executeQuery",
+                "prepareStatement insert B", "insert B.addBatch",
+                "insert A.clearParameters", "insert A.addBatch",
+                "insert A.executeBatch", "insert B.executeBatch", "commit",
+                "insert A.close", "select.close", "insert B.close", "close"), jdbc.getCalls());
+        assertTrue(UnitOfWork.getStepTime("test", "second").getCount() > 0);
+        assertNotNull(UnitOfWork.getStepTime("test", UnitOfWork.FLUSH_STEP));
+    }
+
+    public void testRollbackByStep() throws Exception {
+        ConnectionProvider provider = new ConnectionProvider();
+        provider.setDataSource(jdbc.getDataSource());
+        final boolean[] skipped = {true};
+        boolean committed = new RegistryDataSource().runWork("rollback", Arrays.asList(
+                new WorkStep("check") {
+
+                    @Override
+                    public boolean run(UnitOfWork work) throws SQLException {
+                        work.batch("delete").addBatch();
+                        return false;
+                    }
+                },
+                new WorkStep("skipped") {
+
+                    @Override
+                    public boolean run(UnitOfWork work) {
+                        skipped[0] = false;
+                        return true;
+                    }
+                }), provider);
+        assertFalse(committed);
+        assertTrue(skipped[0]);
+        assertEquals(Arrays.asList("setAutoCommit(false)", "prepareStatement delete", "delete.addBatch",
+                "rollback", "delete.close", "close"), jdbc.getCalls());
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.DigitizationState;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class UpdateScanningStateQueryTest extends TestCase {
+
+    public UpdateScanningStateQueryTest(String testName) {
+        super(testName);
+    }
+
+    public void testSingleStatement() throws Exception {
+        JdbcStub jdbc = new JdbcStub();
+        UpdateScanningStateQuery query = new UpdateScanningStateQuery(
+                5, DigitizationState.REVISION, DigitizationState.FINISHED, null, null);
+        assertSame(query.prepareStatement(jdbc.getConnection()), jdbc.getStatements().get(0).getProxy());
+        assertEquals(1, jdbc.getStatements().size());
+        assertEquals("update predloha set stavrec=?, edidate=?, ediuser=?"
+                + " where id=? and stavrec in ('archived', 'finished')", jdbc.getStatements().get(0).getSql());
+        List<Object> params = jdbc.getStatements().get(0).getParams();
+        assertEquals(4, params.size());
+        assertEquals("revize", params.get(0));
+        assertEquals("webservice", params.get(2));
+        assertEquals(5, params.get(3));
+
+        query.consumeQuery(0);
+        assertFalse(query.isUpdated());
+        query.consumeQuery(1);
+        assertTrue(query.isUpdated());
+    }
+
+    public void testMissingOldState() throws Exception {
+        UpdateScanningStateQuery query = new UpdateScanningStateQuery(
+                5, DigitizationState.REVISION, null, null, null);
+        assertNull(query.prepareStatement(null));
+        assertFalse(query.isUpdated());
+    }
+
+}
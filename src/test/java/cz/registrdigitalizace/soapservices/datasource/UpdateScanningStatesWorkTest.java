@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import cz.registrdigitalizace.soapservices.model.DigitizationState;
+import cz.registrdigitalizace.soapservices.model.RecordStateUpdate;
+import cz.registrdigitalizace.soapservices.model.RecordStateUpdateResult;
+import cz.registrdigitalizace.soapservices.model.RecordStateUpdateResult.Status;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class UpdateScanningStatesWorkTest extends TestCase {
+
+    public UpdateScanningStatesWorkTest(String testName) {
+        super(testName);
+    }
+
+    public void testStateCondition() {
+        assertEquals("stavrec in ('archived', 'finished')",
+                UpdateScanningStateQuery.getStateCondition(DigitizationState.FINISHED));
+        String undefined = UpdateScanningStateQuery.getStateCondition(DigitizationState.UNDEFINED);
+        assertTrue(undefined, undefined.startsWith("(stavrec is null or stavrec not in ("));
+        assertTrue(undefined, undefined.contains("'pripravenoProMf'"));
+        assertTrue(undefined, undefined.contains("'vyrazeno'"));
+    }
+
+    public void testSql() {
+        RecordStateUpdate finish = new RecordStateUpdate(1, DigitizationState.FINISHED,
+                DigitizationState.IN_PROGRESS, "user", null);
+        String sql = UpdateScanningStatesWork.getSql(UpdateScanningStatesWork.getShape(finish));
+        assertEquals("update predloha set stavrec=?, findate=?, finuser=?, edidate=?, ediuser=?"
+                + " where id=? and stavrec in ('active', 'predanoZpracovateli', 'pripravenoProMf', 'progress')",
+                sql);
+        assertSame(sql, UpdateScanningStatesWork.getSql(UpdateScanningStatesWork.getShape(finish)));
+    }
+
+    public void testDuplicateRecord() {
+        try {
+            new UpdateScanningStatesWork(Arrays.asList(
+                    new RecordStateUpdate(1, DigitizationState.REVISION, DigitizationState.FINISHED, null, null),
+                    new RecordStateUpdate(1, DigitizationState.CANCELED, DigitizationState.FINISHED, null, null)));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    public void testResults() throws Exception {
+        final Map<Integer, Integer> updateCounts = new HashMap<Integer, Integer>();
+        updateCounts.put(1, 1);
+        updateCounts.put(2, 0);
+        updateCounts.put(4, Statement.SUCCESS_NO_INFO);
+        updateCounts.put(5, Statement.SUCCESS_NO_INFO);
+        JdbcStub jdbc = new JdbcStub().setUpdateCounter(new JdbcStub.UpdateCounter() {
+
+            public int count(String sql, List<Object> params) {
+                // the record ID is the last parameter
+                return updateCounts.get(params.get(params.size() - 1));
+            }
+        });
+        jdbc.addResult("select id, stavrec", new Object[] {1, "planovane"}, new Object[] {2, "finished"},
+                new Object[] {4, null}, new Object[] {5, "progress"});
+        UpdateScanningStatesWork work = new UpdateScanningStatesWork(Arrays.asList(
+                new RecordStateUpdate(1, DigitizationState.IN_PROGRESS, DigitizationState.SCHEDULED, null, null),
+                new RecordStateUpdate(2, DigitizationState.IN_PROGRESS, DigitizationState.SCHEDULED, null, null),
+                new RecordStateUpdate(3, DigitizationState.FINISHED, DigitizationState.IN_PROGRESS, "user", null),
+                new RecordStateUpdate(4, DigitizationState.REVISION, DigitizationState.UNDEFINED, null, null),
+                new RecordStateUpdate(5, DigitizationState.IN_PROGRESS, DigitizationState.SCHEDULED, null, null)));
+        assertTrue(new UnitOfWork("test", jdbc.getConnection()).run(work.getSteps()));
+
+        // records are locked before updates
+        JdbcStub.StubStatement lock = jdbc.getStatements().get(0);
+        assertEquals(GetRecordStatesQuery.getLockSql(1), lock.getSql());
+        assertTrue(lock.getSql(), lock.getSql().endsWith(" for update"));
+        assertEquals(Arrays.<Object>asList(1, 2, 3, 4, 5, 5, 5, 5), lock.getParams());
+        // updates of the same statement share a batch, missing records are not updated
+        List<String> batches = new ArrayList<String>();
+        for (JdbcStub.StubStatement pstmt : jdbc.getStatements("update")) {
+            List<Object> recordIds = new ArrayList<Object>();
+            for (List<Object> params : pstmt.getBatches()) {
+                recordIds.add(params.get(params.size() - 1));
+            }
+            batches.add(recordIds.toString());
+        }
+        assertEquals(Arrays.asList("[1, 2, 5]", "[4]"), batches);
+
+        List<RecordStateUpdateResult> results = work.getResults();
+        assertEquals(5, results.size());
+        assertResult(1, Status.UPDATED, DigitizationState.IN_PROGRESS, results.get(0));
+        assertResult(2, Status.CONFLICT, DigitizationState.FINISHED, results.get(1));
+        assertResult(3, Status.NOT_FOUND, null, results.get(2));
+        // the driver did not count rows, the old state tells the result
+        assertResult(4, Status.UPDATED, DigitizationState.REVISION, results.get(3));
+        assertResult(5, Status.CONFLICT, DigitizationState.IN_PROGRESS, results.get(4));
+    }
+
+    public void testLoggedParams() throws Exception {
+        final List<String> messages = new ArrayList<String>();
+        Handler handler = new Handler() {
+
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(UpdateScanningStatesWork.class.getName());
+        Level level = logger.getLevel();
+        logger.setLevel(Level.FINE);
+        logger.addHandler(handler);
+        try {
+            JdbcStub jdbc = new JdbcStub().addResult("select id, stavrec",
+                    new Object[] {1, "progress"}, new Object[] {2, "planovane"});
+            UpdateScanningStatesWork work = new UpdateScanningStatesWork(Arrays.asList(
+                    new RecordStateUpdate(1, DigitizationState.FINISHED, DigitizationState.IN_PROGRESS, "user", null),
+                    new RecordStateUpdate(2, DigitizationState.IN_PROGRESS, DigitizationState.SCHEDULED, null, null)));
+            assertTrue(new UnitOfWork("test", jdbc.getConnection()).run(work.getSteps()));
+
+            // the log shows the parameters bound to the statement
+            List<String> expected = new ArrayList<String>();
+            for (JdbcStub.StubStatement pstmt : jdbc.getStatements("update")) {
+                for (List<Object> params : pstmt.getBatches()) {
+                    params.set(0, DigitizationState.resolve((String) params.get(0)));
+                    expected.add(DbUtils.logQuery(pstmt.getSql(), params.toArray()));
+                }
+            }
+            assertEquals(2, expected.size());
+            assertEquals(expected, messages);
+        } finally {
+            logger.removeHandler(handler);
+            logger.setLevel(level);
+        }
+    }
+
+    private static void assertResult(int recordId, Status status, DigitizationState state,
+            RecordStateUpdateResult result) {
+        assertEquals(recordId, result.getRecordId());
+        assertEquals(status, result.getStatus());
+        assertEquals(state, result.getState());
+    }
+
+}
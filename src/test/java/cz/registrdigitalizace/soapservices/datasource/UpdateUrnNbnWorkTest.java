@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class UpdateUrnNbnWorkTest extends TestCase {
+
+    private JdbcStub jdbc;
+
+    public UpdateUrnNbnWorkTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        jdbc = new JdbcStub();
+    }
+
+    public void testDiffMovesFlag() throws Exception {
+        Set<String> items = set("c", "a", "d");
+        int reliefFlag = UpdateUrnNbnWork.diffUrnNbns(work(
+                new Object[] {1, "a", 0}, new Object[] {2, "b", 1}, new Object[] {3, "c", 0}), 5, items);
+        assertEquals(0, reliefFlag);
+        assertEquals(set("d"), items);
+        assertEquals(Arrays.asList("DELETE FROM URNNBN WHERE ID=?[2]",
+                "UPDATE URNNBN SET RPredloha_URNNBNMF=1 WHERE ID=?[3]"), jdbc.getWrites());
+    }
+
+    public void testDiffKeepsFlag() throws Exception {
+        Set<String> items = set("a", "b", "x");
+        int reliefFlag = UpdateUrnNbnWork.diffUrnNbns(work(
+                new Object[] {1, "a", 0}, new Object[] {2, "b", 1}), 5, items);
+        assertEquals(0, reliefFlag);
+        assertEquals(set("x"), items);
+        assertTrue(jdbc.getWrites().toString(), jdbc.getWrites().isEmpty());
+    }
+
+    public void testDiffInsertsFlag() throws Exception {
+        Set<String> items = set("x", "a");
+        int reliefFlag = UpdateUrnNbnWork.diffUrnNbns(work(
+                new Object[] {1, "a", 0}, new Object[] {2, "b", 1}), 5, items);
+        assertEquals(1, reliefFlag);
+        assertEquals(set("x"), items);
+        assertEquals(Arrays.asList("DELETE FROM URNNBN WHERE ID=?[2]"), jdbc.getWrites());
+
+        items = set();
+        reliefFlag = UpdateUrnNbnWork.diffUrnNbns(work(new Object[] {1, "a", 1}), 5, items);
+        assertEquals(0, reliefFlag);
+        assertEquals(Arrays.asList("DELETE FROM URNNBN WHERE ID=?[2]", "DELETE FROM URNNBN WHERE ID=?[1]"),
+                jdbc.getWrites());
+    }
+
+    public void testIdsAllocatedBeforeTransaction() throws Exception {
+        jdbc.addResult(UpdateUrnNbnWork.SQL_EXIST_RECORD, new Object[] {5})
+                .addResult(UpdateUrnNbnWork.SQL_SELECT_URNNBN, new Object[] {1, "a", 1});
+        UrnNbnIdAllocator allocator = new UrnNbnIdAllocator() {
+
+            private int lastId = 10;
+
+            @Override
+            int reserve(int size) {
+                // the reservation must not wait for a connection while the work holds one
+                assertTrue(jdbc.getCalls().toString(), jdbc.getCalls().isEmpty());
+                int first = lastId + 1;
+                lastId += size;
+                return first;
+            }
+        };
+        UpdateUrnNbnWork work = new UpdateUrnNbnWork(5, set("a", "b"), null, true);
+        work.setIdAllocator(allocator);
+        ConnectionProvider.getInstance().setDataSource(jdbc.getDataSource());
+        try {
+            assertTrue(work.run(new RegistryDataSource()));
+        } finally {
+            ConnectionProvider.getInstance().setDataSource(null);
+        }
+        List<List<Object>> inserts = jdbc.getStatements(UpdateUrnNbnWork.SQL_INSERT_URNNBN).get(0).getBatches();
+        assertEquals(1, inserts.size());
+        assertEquals(Arrays.<Object>asList(11, 5, "b"), inserts.get(0).subList(0, 3));
+        // the ID of the existing item is allocated again
+        assertEquals(12, allocator.allocate());
+    }
+
+    private static Set<String> set(String... items) {
+        return new LinkedHashSet<String>(Arrays.asList(items));
+    }
+
+    private UnitOfWork work(Object[]... rows) {
+        jdbc.addResult(UpdateUrnNbnWork.SQL_SELECT_URNNBN, rows);
+        return new UnitOfWork("test", jdbc.getConnection());
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.datasource;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class UrnNbnIdAllocatorTest extends TestCase {
+
+    public UrnNbnIdAllocatorTest(String testName) {
+        super(testName);
+    }
+
+    public void testAllocateFromBlocks() throws Exception {
+        TestAllocator allocator = new TestAllocator(100);
+        allocator.setBlockSize(3);
+        int[] ids = allocator.allocate(4);
+        assertEquals(101, ids[0]);
+        assertEquals(102, ids[1]);
+        assertEquals(103, ids[2]);
+        assertEquals(104, ids[3]);
+        // a single reservation of the missing IDs
+        assertEquals(1, allocator.reserves.get());
+        assertEquals(105, allocator.allocate());
+        assertEquals(2, allocator.reserves.get());
+        ids = allocator.allocate(3);
+        assertEquals(106, ids[0]);
+        assertEquals(107, ids[1]);
+        assertEquals(108, ids[2]);
+        assertEquals(3, allocator.reserves.get());
+        assertEquals(0, allocator.allocate(0).length);
+    }
+
+    public void testRelease() throws Exception {
+        TestAllocator allocator = new TestAllocator(100);
+        allocator.setBlockSize(3);
+        int[] ids = allocator.allocate(3);
+        allocator.release(ids, 1);
+        assertEquals(102, allocator.allocate());
+        assertEquals(103, allocator.allocate());
+        assertEquals(104, allocator.allocate());
+        assertEquals(2, allocator.reserves.get());
+    }
+
+    public void testReleaseOnFailure() throws Exception {
+        TestAllocator allocator = new TestAllocator(100);
+        allocator.setBlockSize(3);
+        allocator.allocate();
+        allocator.fail = true;
+        try {
+            allocator.allocate(5);
+            fail();
+        } catch (DataSourceException ex) {
+            // expected
+        }
+        allocator.fail = false;
+        int[] ids = allocator.allocate(2);
+        assertEquals(102, ids[0]);
+        assertEquals(103, ids[1]);
+        assertEquals(1, allocator.reserves.get());
+    }
+
+    public void testConcurrentAllocation() throws Exception {
+        final TestAllocator allocator = new TestAllocator(0);
+        allocator.setBlockSize(10);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<int[]>() {
+
+                    public int[] call() throws Exception {
+                        return allocator.allocate(500);
+                    }
+                }));
+            }
+            Set<Integer> unique = new HashSet<Integer>();
+            for (Future<int[]> future : futures) {
+                for (int id : future.get()) {
+                    assertTrue(String.valueOf(id), unique.add(id));
+                }
+            }
+            assertEquals(2000, unique.size());
+            // every request reserves its IDs at once
+            assertEquals(4, allocator.reserves.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reserves blocks without the DB.
+     */
+    private static final class TestAllocator extends UrnNbnIdAllocator {
+
+        private int lastId;
+        final AtomicInteger reserves = new AtomicInteger();
+        volatile boolean fail;
+
+        TestAllocator(int lastId) {
+            this.lastId = lastId;
+        }
+
+        @Override
+        int reserve(int size) throws DataSourceException {
+            if (fail) {
+                throw new DataSourceException("reserve");
+            }
+            reserves.incrementAndGet();
+            int first = lastId + 1;
+            lastId += size;
+            return first;
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import junit.framework.TestCase;
+
+/**
+ * Checks that {@link DcRdfMapper} writes the same output as
+ * {@code MARC21slim2RDFDC.xsl}.
+ *
+ * @author Jan Pokorsky
+ */
+public class DcRdfMapperTest extends TestCase {
+
+    private static final Logger LOG = Logger.getLogger(DcRdfMapperTest.class.getName());
+    private static final int ITERATIONS = 200;
+    private static final String MARC_NS = " xmlns=\"" + MarcNamespaceFilter.MARC_NS + "\"";
+    private static final int[] TAGS = {20, 100, 110, 111, 245, 260, 500, 506, 520, 530, 540, 546,
+            599, 600, 610, 611, 630, 650, 653, 655, 662, 700, 710, 711, 720, 752, 760, 773,
+            787, 856, 900};
+    private static final String[] TEXTS = {"Title", "Komensk\u00fd, Jan Amos", "a & b", "<x>",
+            " \n ", "\u20ac 1869", "\u00bf\u0085?", "\ud83d\ude00", "", "q\"'"};
+
+    private Templates templates;
+    private String marcExample;
+
+    public DcRdfMapperTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        templates = MarcTransformer.loadTranslet(RecordFormat.DC_RDF);
+        if (templates == null) {
+            templates = MarcTransformer.compileTemplates(RecordFormat.DC_RDF);
+        }
+        InputStream stream = DcRdfMapperTest.class.getResourceAsStream("marc_example.xml");
+        try {
+            marcExample = new String(read(stream), "UTF-8");
+        } finally {
+            stream.close();
+        }
+    }
+
+    public void testMarcExample() throws Exception {
+        assertConforms(marcExample);
+        byte[] bytes = marcExample.getBytes("UTF-8");
+        assertEquals(new String(xslt(new StreamSource(new ByteArrayInputStream(bytes)))),
+                new String(map(new StreamSource(new ByteArrayInputStream(bytes)))));
+    }
+
+    public void testEdgeCases() throws Exception {
+        assertConforms("<collection/>");
+        assertConforms("<collection>t &amp; x<other>in</other><!--c--></collection>");
+        assertConforms("<?xml version=\"1.0\"?>\n<collection" + MARC_NS
+                + "><record><leader>xxxxxxam</leader></record>\n<record/>\n</collection>\n");
+        // numeric tags, missing code, text split by a comment, escaped characters
+        assertConforms("<record><leader>abc</leader>"
+                + "<controlfield tag=\"8\">0123456789012345678901234567890123456ab</controlfield>"
+                + "<datafield tag=\"245\"><subfield>nocode</subfield><subfield code=\"a\">x<!--c-->y</subfield>"
+                + "<subfield code=\"b\">&#13;&#127;&#x85;&#x2028;&#x1F600;</subfield></datafield>"
+                + "<datafield tag=\" 650 \"><subfield code=\"a\">s1</subfield></datafield>"
+                + "<datafield tag=\"600.0\"><subfield code=\"a\">s0</subfield></datafield>"
+                + "<datafield tag=\"020\"><subfield code=\"b\">nob</subfield></datafield></record>");
+        // record without the proper name space and with foreign elements
+        assertConforms("<record><leader>01234ct</leader><datafield tag=\"245\"><subfield code=\"a\">"
+                + "A <![CDATA[<b>]]></subfield><x:e xmlns:x=\"urn:x\">ignored</x:e></datafield>"
+                + "<datafield tag=\"530\"><subfield code=\"a\">o</subfield></datafield>"
+                + "<datafield tag=\"500\"><subfield code=\"b\">nob</subfield></datafield></record>");
+        assertConforms("<other><record><leader>xxxxxxa</leader></record></other>");
+    }
+
+    public void testSyntheticRecords() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            assertConforms(createCollection(random, 1 + random.nextInt(3)));
+        }
+    }
+
+    public void testThroughput() throws Exception {
+        MarcSource source = new MarcSource(marcExample);
+        for (int i = 0; i < ITERATIONS; i++) {
+            xslt(source);
+            map(source);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            xslt(source);
+        }
+        long xsltTime = Math.max(1, System.nanoTime() - start);
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            map(source);
+        }
+        long mapperTime = Math.max(1, System.nanoTime() - start);
+        LOG.info(String.format("DC_RDF throughput xslt: %s/s, mapper: %s/s, speedup: %.1fx",
+                ITERATIONS * 1000000000L / xsltTime, ITERATIONS * 1000000000L / mapperTime,
+                (double) xsltTime / mapperTime));
+    }
+
+    private void assertConforms(String xml) throws Exception {
+        MarcSource source = new MarcSource(xml);
+        String expected = new String(xslt(source), "UTF-8");
+        String result = new String(map(source), "UTF-8");
+        assertEquals(xml, expected, result);
+    }
+
+    private byte[] xslt(Source source) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        templates.newTransformer().transform(source, new StreamResult(output));
+        return output.toByteArray();
+    }
+
+    private static byte[] map(Source source) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new DcRdfMapper().map(source, output);
+        return output.toByteArray();
+    }
+
+    private static String createCollection(Random random, int records) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<collection").append(random.nextBoolean() ? MARC_NS : "").append(">\n");
+        for (int i = 0; i < records; i++) {
+            sb.append("<record><leader>");
+            sb.append("     ").append("acdefgijkmprtx".charAt(random.nextInt(14)))
+                    .append("cms".charAt(random.nextInt(3))).append(" a22        4500");
+            sb.append("</leader>\n");
+            sb.append("<controlfield tag=\"008\">021202s1869    xr            000   ")
+                    .append(random.nextBoolean() ? "cze" : "e").append("</controlfield>\n");
+            int fields = random.nextInt(20);
+            for (int f = 0; f < fields; f++) {
+                int tag = TAGS[random.nextInt(TAGS.length)];
+                sb.append(String.format("<datafield tag=\"%03d\" ind1=\" \" ind2=\" \">", tag));
+                int subfields = random.nextInt(5);
+                for (int s = 0; s < subfields; s++) {
+                    char code = "abcdfghkoqtuxz".charAt(random.nextInt(14));
+                    sb.append("\n  <subfield code=\"").append(code).append("\">")
+                            .append(escape(TEXTS[random.nextInt(TEXTS.length)])).append("</subfield>");
+                }
+                sb.append("\n</datafield>\n");
+            }
+            sb.append("</record>\n");
+        }
+        sb.append("</collection>");
+        return sb.toString();
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;");
+    }
+
+    private static byte[] read(InputStream stream) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] b = new byte[4096];
+        for (int length; (length = stream.read(b)) > 0;) {
+            buffer.write(b, 0, length);
+        }
+        return buffer.toByteArray();
+    }
+
+}
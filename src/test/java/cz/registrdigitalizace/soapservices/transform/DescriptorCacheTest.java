@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class DescriptorCacheTest extends TestCase {
+
+    public DescriptorCacheTest(String testName) {
+        super(testName);
+    }
+
+    private static DescriptorDataSource content(int size) {
+        return new DescriptorDataSource(new byte[size]);
+    }
+
+    public void testGetPut() {
+        DescriptorCache cache = new DescriptorCache(100);
+        DescriptorDataSource content = content(10);
+        assertNull(cache.get(1, RecordFormat.DC_RDF, "a"));
+        cache.put(1, RecordFormat.DC_RDF, "a", content);
+        assertSame(content, cache.get(1, RecordFormat.DC_RDF, "a"));
+        assertNull(cache.get(1, RecordFormat.MODS_34, "a"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    public void testModifiedSource() {
+        DescriptorCache cache = new DescriptorCache(100);
+        cache.put(1, RecordFormat.DC_RDF, "a", content(10));
+        assertNull(cache.get(1, RecordFormat.DC_RDF, "b"));
+        DescriptorDataSource content = content(20);
+        cache.put(1, RecordFormat.DC_RDF, "b", content);
+        assertSame(content, cache.get(1, RecordFormat.DC_RDF, "b"));
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(20, cache.getSize());
+    }
+
+    public void testEviction() {
+        DescriptorCache cache = new DescriptorCache(25);
+        cache.put(1, RecordFormat.DC_RDF, "a", content(10));
+        cache.put(2, RecordFormat.DC_RDF, "a", content(10));
+        // access makes 1 the most recently used
+        assertNotNull(cache.get(1, RecordFormat.DC_RDF, "a"));
+        cache.put(3, RecordFormat.DC_RDF, "a", content(10));
+        assertNull(cache.get(2, RecordFormat.DC_RDF, "a"));
+        assertNotNull(cache.get(1, RecordFormat.DC_RDF, "a"));
+        assertNotNull(cache.get(3, RecordFormat.DC_RDF, "a"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(20, cache.getSize());
+
+        // too large to cache
+        cache.put(4, RecordFormat.DC_RDF, "a", content(30));
+        assertNull(cache.get(4, RecordFormat.DC_RDF, "a"));
+    }
+
+    public void testInvalidate() {
+        DescriptorCache cache = new DescriptorCache(100);
+        cache.put(1, RecordFormat.DC_RDF, "a", content(10));
+        cache.put(1, RecordFormat.MODS_34, "a", content(10));
+        cache.put(2, RecordFormat.MODS_34, "a", content(10));
+        cache.invalidate(1);
+        assertNull(cache.get(1, RecordFormat.DC_RDF, "a"));
+        assertNull(cache.get(1, RecordFormat.MODS_34, "a"));
+        assertNotNull(cache.get(2, RecordFormat.MODS_34, "a"));
+        assertEquals(2, cache.getInvalidationCount());
+        assertEquals(10, cache.getSize());
+    }
+
+    public void testDisabled() {
+        DescriptorCache cache = new DescriptorCache(0);
+        assertFalse(cache.isEnabled());
+        cache.put(1, RecordFormat.DC_RDF, "a", content(10));
+        assertNull(cache.get(1, RecordFormat.DC_RDF, "a"));
+    }
+
+}
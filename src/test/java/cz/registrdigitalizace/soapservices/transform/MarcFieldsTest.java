@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.transform.TransformerException;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class MarcFieldsTest extends TestCase {
+
+    public MarcFieldsTest(String testName) {
+        super(testName);
+    }
+
+    public void testGetSubfields() throws Exception {
+        String xml = read("marc_example.xml");
+        assertEquals(Arrays.asList("Komensk\u00fd, Jan Amos,", "\u0141asicki, Jan,"),
+                MarcFields.getSubfields(xml, MarcFields.AUTHOR_TAGS, 'a'));
+        assertEquals(Arrays.asList("protestantsk\u00e9 c\u00edrkve", "protestantsk\u00e9 u\u010den\u00ed",
+                "c\u00edrkevn\u00ed d\u011bjiny", "c\u00edrkevn\u00ed \u017eivot"),
+                MarcFields.getSubfields(xml, Collections.singleton("650"), 'a'));
+    }
+
+    public void testGetSubfieldGroups() throws Exception {
+        String xml = read("marc_example.xml");
+        List<List<String>> groups = MarcFields.getSubfieldGroups(xml,
+                Arrays.asList(MarcFields.AUTHOR_TAGS, Collections.singleton("650")), 'a');
+        assertEquals(MarcFields.getSubfields(xml, MarcFields.AUTHOR_TAGS, 'a'), groups.get(0));
+        assertEquals(MarcFields.getSubfields(xml, Collections.singleton("650"), 'a'), groups.get(1));
+    }
+
+    public void testNoNamespace() throws Exception {
+        String xml = "<record><datafield tag=\"100\" ind1=\"1\" ind2=\" \">"
+                + "<subfield code=\"a\"> Author </subfield><subfield code=\"d\">1900</subfield>"
+                + "</datafield></record>";
+        assertEquals(Arrays.asList("Author"), MarcFields.getSubfields(xml, MarcFields.AUTHOR_TAGS, 'a'));
+        assertTrue(MarcFields.getSubfields(xml, MarcFields.SUBJECT_TAGS, 'a').isEmpty());
+    }
+
+    public void testInvalidXml() throws Exception {
+        try {
+            MarcFields.getSubfields("<record>", MarcFields.AUTHOR_TAGS, 'a');
+            fail();
+        } catch (TransformerException ex) {
+            // expected
+        }
+    }
+
+    private static String read(String name) throws Exception {
+        InputStream stream = MarcFieldsTest.class.getResourceAsStream(name);
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] b = new byte[4096];
+            for (int length; (length = stream.read(b)) > 0;) {
+                buffer.write(b, 0, length);
+            }
+            return buffer.toString("UTF-8");
+        } finally {
+            stream.close();
+        }
+    }
+
+}
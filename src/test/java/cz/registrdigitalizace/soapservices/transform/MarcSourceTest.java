@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import java.io.InputStream;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import junit.framework.TestCase;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class MarcSourceTest extends TestCase {
+
+    private static final String RECORD = "<record>"
+            + "<leader>     nam a22        4500</leader>"
+            + "<controlfield tag=\"001\">bknzdr17710</controlfield>"
+            + "<datafield tag=\"245\" ind1=\"1\" ind2=\"0\"><subfield code=\"a\">Title</subfield></datafield>"
+            + "</record>";
+
+    public MarcSourceTest(String testName) {
+        super(testName);
+    }
+
+    public void testFixCollection() throws Exception {
+        Element root = parse("<?xml version=\"1.0\"?><collection>" + RECORD + "</collection>");
+        assertEquals(MarcNamespaceFilter.MARC_NS, root.getNamespaceURI());
+        assertEquals(MarcNamespaceFilter.MARC_SCHEMA_LOCATION,
+                root.getAttributeNS(MarcNamespaceFilter.XSI_NS, "schemaLocation"));
+        Element subfield = (Element) root.getElementsByTagNameNS(
+                MarcNamespaceFilter.MARC_NS, "subfield").item(0);
+        assertNotNull(subfield);
+        assertEquals("a", subfield.getAttribute("code"));
+    }
+
+    public void testFixRecord() throws Exception {
+        Element root = parse(RECORD);
+        assertEquals(MarcNamespaceFilter.MARC_NS, root.getNamespaceURI());
+        assertEquals("record", root.getLocalName());
+        assertEquals(1, root.getElementsByTagNameNS(MarcNamespaceFilter.MARC_NS, "datafield").getLength());
+    }
+
+    public void testKeepNamespace() throws Exception {
+        Element root = parse("<record xmlns=\"urn:other\"><leader/></record>");
+        assertEquals("urn:other", root.getNamespaceURI());
+        assertEquals("", root.getAttributeNS(MarcNamespaceFilter.XSI_NS, "schemaLocation"));
+
+        root = parse("<other><record/></other>");
+        assertNull(root.getNamespaceURI());
+        assertNull(((Element) root.getFirstChild()).getNamespaceURI());
+    }
+
+    public void testKeepXsiDeclaration() throws Exception {
+        Element root = parse("<collection xmlns:xsi=\"" + MarcNamespaceFilter.XSI_NS
+                + "\" xsi:schemaLocation=\"urn:a urn:b\">" + RECORD + "</collection>");
+        assertEquals(MarcNamespaceFilter.MARC_NS, root.getNamespaceURI());
+        assertEquals("urn:a urn:b", root.getAttributeNS(MarcNamespaceFilter.XSI_NS, "schemaLocation"));
+    }
+
+    public void testRepeatedTransform() throws Exception {
+        MarcSource source = new MarcSource("<collection>" + RECORD + "</collection>");
+        MarcTransformer transformer = new MarcTransformer();
+        DescriptorDataSource first = transformer.transformToDataSource(source, RecordFormat.MODS_34);
+        DescriptorDataSource second = transformer.transformToDataSource(source, RecordFormat.MODS_34);
+        String firstMods = read(first.getInputStream());
+        assertTrue(firstMods, firstMods.contains("Title"));
+        assertEquals(firstMods, read(second.getInputStream()));
+    }
+
+    private static Element parse(String xml) throws Exception {
+        DOMResult result = new DOMResult();
+        TransformerFactory.newInstance().newTransformer().transform(new MarcSource(xml), result);
+        return ((Document) result.getNode()).getDocumentElement();
+    }
+
+    private static String read(InputStream stream) throws Exception {
+        byte[] b = new byte[stream.available()];
+        int length = stream.read(b);
+        return new String(b, 0, length, "UTF-8");
+    }
+
+}
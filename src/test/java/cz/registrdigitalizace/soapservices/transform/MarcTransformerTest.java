@@ -17,7 +17,18 @@
 
 package cz.registrdigitalizace.soapservices.transform;
 
+import cz.registrdigitalizace.soapservices.model.DigitizationRecord;
+import cz.registrdigitalizace.soapservices.model.DigitizationState;
 import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamSource;
@@ -67,6 +78,108 @@ public class MarcTransformerTest extends TestCase {
         assertNotNull(transformedSource);
     }
 
+    public void testMarshalTransformedDescriptor() throws Exception {
+        MarcTransformer instance = new MarcTransformer();
+        StreamSource inputSource = new StreamSource(
+                MarcTransformerTest.class.getResourceAsStream("marc_example.xml"));
+        DescriptorDataSource descriptor = instance.transformToDataSource(inputSource, RecordFormat.MODS_34);
+        DigitizationRecord record = new DigitizationRecord();
+        record.setRecordId(1);
+        record.setState(DigitizationState.FINISHED);
+        record.setDescriptor(MarcTransformer.toSource(descriptor));
+
+        StringWriter xml = new StringWriter();
+        JAXBContext jaxb = JAXBContext.newInstance(DigitizationRecord.class);
+        jaxb.createMarshaller().marshal(new JAXBElement<DigitizationRecord>(
+                new QName("record"), DigitizationRecord.class, record), xml);
+        String base64 = xml.toString().replaceAll("(?s).*<descriptor>(.*)</descriptor>.*", "$1");
+        byte[] marshalled = DatatypeConverter.parseBase64Binary(base64);
+        byte[] expected = new byte[descriptor.getLength()];
+        new DataInputStream(descriptor.getInputStream()).readFully(expected);
+        assertTrue(Arrays.equals(expected, marshalled));
+    }
+
+    public void testTrimTransformedDescriptor() throws Exception {
+        InputStream input = MarcTransformerTest.class.getResourceAsStream("marc_example.xml");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        for (int length; (length = input.read(chunk)) > 0;) {
+            bytes.write(chunk, 0, length);
+        }
+        input.close();
+        MarcSource marc = new MarcSource(bytes.toString("UTF-8"));
+        DescriptorDataSource descriptor = new MarcTransformer().transformToDataSource(marc, RecordFormat.DC_RDF);
+        // the buffer presized by the Marc XML is not cached as a whole
+        assertTrue(descriptor.getLength() < marc.getLength() / 2);
+        assertTrue(descriptor.getSize() - descriptor.getLength() <= descriptor.getSize() / 4);
+    }
+
+    public void testMarshalLazyDescriptor() throws Exception {
+        MarcTransformer instance = new MarcTransformer();
+        MarcSource source = new MarcSource(new String(readExample(), "UTF-8"));
+        DescriptorDataSource expected = instance.transformToDataSource(source, RecordFormat.MODS_34);
+        TransformerPool pool = MarcTransformer.getTransformerPool(RecordFormat.MODS_34);
+        DescriptorCache cache = new DescriptorCache(DescriptorCache.DEFAULT_MAX_SIZE);
+        DigitizationRecord record = new DigitizationRecord();
+        record.setRecordId(1);
+        record.setState(DigitizationState.FINISHED);
+        record.setDescriptor(MarcTransformer.toSource(new LazyDescriptorDataSource(
+                instance, cache, 1, source, RecordFormat.MODS_34)));
+        long borrowed = pool.getBorrowCount();
+        assertEquals(0, cache.getEntryCount());
+
+        StringWriter xml = new StringWriter();
+        JAXBContext jaxb = JAXBContext.newInstance(DigitizationRecord.class);
+        jaxb.createMarshaller().marshal(new JAXBElement<DigitizationRecord>(
+                new QName("record"), DigitizationRecord.class, record), xml);
+        // transformed while marshalled
+        assertEquals(borrowed + 1, pool.getBorrowCount());
+        assertEquals(1, cache.getEntryCount());
+        String base64 = xml.toString().replaceAll("(?s).*<descriptor>(.*)</descriptor>.*", "$1");
+        byte[] marshalled = DatatypeConverter.parseBase64Binary(base64);
+        byte[] expectedBytes = new byte[expected.getLength()];
+        new DataInputStream(expected.getInputStream()).readFully(expectedBytes);
+        assertTrue(Arrays.equals(expectedBytes, marshalled));
+    }
+
+    public void testTransformerReuse() throws Exception {
+        MarcTransformer instance = new MarcTransformer();
+        TransformerPool pool = MarcTransformer.getTransformerPool(RecordFormat.MODS_33);
+        int created = pool.getCreatedCount();
+        long borrowed = pool.getBorrowCount();
+        for (int i = 0; i < 3; i++) {
+            StreamSource inputSource = new StreamSource(
+                    MarcTransformerTest.class.getResourceAsStream("marc_example.xml"));
+            assertNotNull(instance.transformToDataSource(inputSource, RecordFormat.MODS_33));
+        }
+        assertEquals(borrowed + 3, pool.getBorrowCount());
+        assertTrue(pool.getCreatedCount() <= Math.max(1, created));
+        assertEquals(0, pool.getFallbackCount());
+    }
+
+    public void testWarmUp() throws Exception {
+        MarcTransformer.initTemplates(RecordFormat.MODS_34);
+        assertTrue(MarcTransformer.isInitialized(RecordFormat.MODS_34));
+        long borrowed = MarcTransformer.getTransformerPool(RecordFormat.MODS_34).getBorrowCount();
+        assertTrue(MarcTransformer.warmUp(RecordFormat.MODS_34, 2) >= 0);
+        assertEquals(borrowed + 2, MarcTransformer.getTransformerPool(RecordFormat.MODS_34).getBorrowCount());
+        assertFalse(MarcTransformer.isInitialized(RecordFormat.MARC_XML));
+    }
+
+    private static byte[] readExample() throws Exception {
+        InputStream stream = MarcTransformerTest.class.getResourceAsStream("marc_example.xml");
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] b = new byte[4096];
+            for (int length; (length = stream.read(b)) > 0;) {
+                buffer.write(b, 0, length);
+            }
+            return buffer.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+
     public void testGetDcXsl() throws Exception {
         testGetXsltImpl(RecordFormat.DC_RDF);
     }
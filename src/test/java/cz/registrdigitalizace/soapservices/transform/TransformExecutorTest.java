@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.TransformerException;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Jan Pokorsky
+ */
+public class TransformExecutorTest extends TestCase {
+
+    private TransformExecutor executor;
+
+    public TransformExecutorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = TransformExecutor.getInstance();
+        executor.configure(4, 3);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdown();
+        super.tearDown();
+    }
+
+    public void testInvokeAllKeepsOrder() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 500; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+
+                public Integer call() throws Exception {
+                    Thread.yield();
+                    return value;
+                }
+            });
+        }
+        List<Integer> results = executor.invokeAll(tasks);
+        assertEquals(tasks.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(Integer.valueOf(i), results.get(i));
+        }
+    }
+
+    public void testInvokeAllFailure() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 100; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+
+                public Integer call() throws Exception {
+                    if (value == 50) {
+                        throw new TransformerException("failed: " + value);
+                    }
+                    return value;
+                }
+            });
+        }
+        try {
+            executor.invokeAll(tasks);
+            fail();
+        } catch (TransformerException ex) {
+            assertEquals("failed: 50", ex.getMessage());
+        }
+    }
+
+    public void testWindow() throws Exception {
+        final CountDownLatch aheadStarted = new CountDownLatch(2);
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        for (int i = 0; i < 10; i++) {
+            final int value = i;
+            tasks.add(new Callable<String>() {
+
+                public String call() throws Exception {
+                    if (value == 1 || value == 2) {
+                        aheadStarted.countDown();
+                    }
+                    return value + ": " + Thread.currentThread().getName();
+                }
+            });
+        }
+        TransformExecutor.Window<String> window = executor.window(tasks);
+        // the consumer runs the taken task
+        assertEquals("0: " + Thread.currentThread().getName(), window.take(0));
+        // requestParallelism - 1 tasks run ahead in other threads
+        assertTrue(aheadStarted.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < tasks.size(); i++) {
+            assertTrue(window.take(i).startsWith(i + ": "));
+        }
+        // results are not held once taken
+        assertNull(window.take(0));
+    }
+
+    public void testWindowFailure() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 5; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+
+                public Integer call() throws Exception {
+                    if (value == 2) {
+                        throw new TransformerException("failed: " + value);
+                    }
+                    return value;
+                }
+            });
+        }
+        TransformExecutor.Window<Integer> window = executor.window(tasks);
+        assertEquals(Integer.valueOf(0), window.take(0));
+        assertEquals(Integer.valueOf(1), window.take(1));
+        try {
+            window.take(2);
+            fail();
+        } catch (TransformerException ex) {
+            assertEquals("failed: 2", ex.getMessage());
+        }
+        assertEquals(Integer.valueOf(3), window.take(3));
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012 Jan Pokorsky
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.registrdigitalizace.soapservices.transform;
+
+import cz.registrdigitalizace.soapservices.model.RecordFormat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import junit.framework.TestCase;
+
+/**
+ * Compares translets precompiled by the build with stylesheets compiled
+ * at runtime. Translets are generated in the {@code process-classes} phase.
+ *
+ * @author Jan Pokorsky
+ */
+public class TransletTemplatesTest extends TestCase {
+
+    private static final Logger LOG = Logger.getLogger(TransletTemplatesTest.class.getName());
+    private static final int ITERATIONS = 20;
+
+    private byte[] marc;
+
+    public TransletTemplatesTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        InputStream stream = TransletTemplatesTest.class.getResourceAsStream("marc_example.xml");
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] b = new byte[4096];
+            for (int length; (length = stream.read(b)) > 0;) {
+                buffer.write(b, 0, length);
+            }
+            marc = buffer.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+
+    public void testDcTranslet() throws Exception {
+        compare(RecordFormat.DC_RDF);
+    }
+
+    public void testMods33Translet() throws Exception {
+        compare(RecordFormat.MODS_33);
+    }
+
+    public void testMods34Translet() throws Exception {
+        compare(RecordFormat.MODS_34);
+    }
+
+    private void compare(RecordFormat format) throws Exception {
+        long start = System.nanoTime();
+        Templates compiled = MarcTransformer.compileTemplates(format);
+        long compileTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Templates translet = MarcTransformer.loadTranslet(format);
+        long loadTime = System.nanoTime() - start;
+        assertNotNull("Missing translet. Run mvn process-classes.", translet);
+
+        byte[] expected = transform(compiled);
+        byte[] result = transform(translet);
+        assertTrue(Arrays.equals(expected, result));
+
+        long compiledThroughput = throughput(compiled);
+        long transletThroughput = throughput(translet);
+        LOG.info(String.format("%s: startup compile: %s ms, load translet: %s ms;"
+                + " throughput compiled: %s/s, translet: %s/s",
+                format, compileTime / 1000000, loadTime / 1000000,
+                compiledThroughput, transletThroughput));
+    }
+
+    private long throughput(Templates templates) throws Exception {
+        // warm up
+        for (int i = 0; i < ITERATIONS; i++) {
+            transform(templates);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            transform(templates);
+        }
+        long time = Math.max(1, System.nanoTime() - start);
+        return ITERATIONS * 1000000000L / time;
+    }
+
+    private byte[] transform(Templates templates) throws Exception {
+        Transformer t = templates.newTransformer();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        t.transform(new StreamSource(new ByteArrayInputStream(marc)), new StreamResult(result));
+        return result.toByteArray();
+    }
+
+}